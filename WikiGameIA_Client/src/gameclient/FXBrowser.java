@@ -3,6 +3,7 @@ package gameclient;
 import java.io.IOException;
 import java.net.MalformedURLException;
 
+import javafx.application.Platform;
 import javafx.scene.web.WebEngine;
 import javafx.scene.web.WebView;
 import utilities.*;
@@ -12,20 +13,49 @@ public class FXBrowser {
 	private WebView view;
 	private WebEngine engine;
 	
-	private PageConfigurator config;
+	private PagePipeline pages;
+	//Null without a cache to prefetch into
+	private LinkPrefetcher prefetcher;
 	private Stack history;
+	//Pages are loaded as content, so the engine has no location of its own
+	private String location = "";
+	private String content = "";
+	//Article the player is looking for, prefetched first
+	private String target;
 	
-	private static final String WIKI_URL = "https://en.wikipedia.org/wiki/";
+	public static final String WIKIPEDIA = "https://en.wikipedia.org";
+	//Prefix of article URLs on the wiki pages come from
+	private String wikiUrl = WIKIPEDIA + "/wiki/";
 	
 	public FXBrowser() {
 	}
 	
 	public FXBrowser(String URL) throws MalformedURLException, IOException {
+		this(WIKIPEDIA, URL, null);
+	}
+	
+	/**
+	 * @param origin Scheme, host and port of the wiki articles come from, ex. "https://en.wikipedia.org"
+	 * or a local ArticleServer
+	 * @param cache Cache pages are loaded from when they can be, and added to when they are fetched. May be null.
+	 */
+	public FXBrowser(String origin, String URL, ArticleCache cache) throws MalformedURLException, IOException {
+		wikiUrl = origin + "/wiki/";
+		if(cache != null)
+			prefetcher = new LinkPrefetcher(cache, origin);
+		pages = new PagePipeline(origin, cache, prefetcher);
 		view = new WebView();
 		engine = view.getEngine();
 		
 		history = new Stack(URL);
-		engine.load(URL);
+		//Links clicked in the page are loaded by the engine itself; stop that and load them the game's way
+		engine.locationProperty().addListener((observable, oldLocation, newLocation) -> {
+			if(newLocation.startsWith("https://") || newLocation.startsWith("http://")) {
+				Platform.runLater(() -> engine.getLoadWorker().cancel());
+				navigate(newLocation);
+			}
+		});
+		navigate(URL);
 	}
 	
 	public WebEngine getEngine() {
@@ -37,21 +67,39 @@ public class FXBrowser {
 	}
 	
 	public void start(String URL) {
-		engine.load(WIKI_URL + URL);
+		navigate(wikiUrl + URL);
 	}
 	
-	public void reconfig() {
-			
-			String s = engine.getLocation();
-			System.out.println(s);
-			try {
-				engine.loadContent(config.navigate(s));
-			} catch (Exception e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+	/**
+	 * Sets the article the player is looking for, as the end of its URL.
+	 */
+	public void setTarget(String target) {
+		this.target = target;
+	}
+	
+	/**
+	 * Loads the page at the URL in the background (see {@link PagePipeline}), replacing any page
+	 * still loading. The current page stays up until the new one is ready.
+	 */
+	public void navigate(String URL) {
+		if(prefetcher != null)
+			prefetcher.cancel(URL);
+		pages.load(URL, Platform::runLater, (page, error) -> {
+			if(error != null) {
+				System.out.println("Could not load " + URL + ": " + error);
+				return;
 			}
-
-		
+			location = page.getUrl();
+			content = page.getHtml();
+			engine.loadContent(content);
+		});
+	}
+	
+	/**
+	 * URL of the page shown, empty before the first one has loaded.
+	 */
+	public String getLocation() {
+		return location;
 	}
 	
 	/**
@@ -60,8 +108,8 @@ public class FXBrowser {
 	 * 
 	 */
 	public boolean validCheck() {
-		System.out.println("loc: " + engine.getLocation());
-		if(engine.getLocation().substring(0, WIKI_URL.length()).equals(WIKI_URL))
+		System.out.println("loc: " + location);
+		if(location.startsWith(wikiUrl))
 			return true;
 		else
 			return false;
@@ -74,21 +122,24 @@ public class FXBrowser {
 	public void gameNav() {
 		if(validCheck()) {
 			updateHistory();
+			//Fetch the likely next pages while the player reads this one
+			if(prefetcher != null)
+				prefetcher.prefetch(location, content, target);
 			return;
 		}
-		engine.load(history.peek());
+		navigate(history.peek());
 	}
 	
 	public void updateHistory() {
-		history.push(engine.getLocation());
+		history.push(location);
 	}
 	
 	public String getArticleName() {
-		return engine.getLocation().substring(WIKI_URL.length());
+		return location.substring(wikiUrl.length());
 	}
 	
 	public void loadRandomArticle() {
-		engine.load(WIKI_URL + "Special:Random");
+		navigate(wikiUrl + "Special:Random");
 	}
 	
 	public void back() {
@@ -96,9 +147,14 @@ public class FXBrowser {
 			String tempURL = history.pop();//Pop the current page
 			
 			if(!history.isEmpty())
-				engine.load(history.pop()); //Get previous page
+				navigate(history.pop()); //Get previous page
 			else
-				engine.load(tempURL);
+				navigate(tempURL);
 		}
 	}
+	
+	@Override
+	public String toString() {
+		return prefetcher != null ? pages + "\n" + prefetcher : pages.toString();
+	}
 }
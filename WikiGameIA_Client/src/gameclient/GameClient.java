@@ -3,14 +3,18 @@ package gameclient;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.UnresolvedAddressException;
 import java.nio.channels.UnsupportedAddressTypeException;
+import java.nio.file.Paths;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javafx.application.Application;
 import javafx.application.Platform;
@@ -18,7 +22,6 @@ import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
-import javafx.concurrent.Task;
 import javafx.concurrent.Worker.State;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
@@ -33,7 +36,12 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.scene.text.Font;
 import javafx.stage.Stage;
-import utilities.Queue;
+import utilities.ArticleCache;
+import utilities.ArticleDictionary;
+import utilities.FrameCodec;
+import utilities.FrameReader;
+import utilities.Message;
+import utilities.MpscArrayQueue;
 
 public class GameClient extends Application {
 
@@ -41,15 +49,23 @@ public class GameClient extends Application {
 	 * To-Server Data
 	 * 
 	 * Expected recieved values:
-	 * I|(Username) -> set username of the user (SHOULD ONLY BE CALLED IMMEDIATELY FOLLOWING CONNECTION)
+	 * I|(Username)[|(dictionary fingerprint)] -> set username of the user (SHOULD ONLY BE CALLED IMMEDIATELY FOLLOWING CONNECTION)
+	 * J|(room) -> join a game room, creating it if it does not exist
 	 * R -> change ready state of user to ready
 	 * U -> change ready state of user to not ready
 	 * Z|(article)|(article) -> Response from client for requested random browser pages.
+	 * M|(article) -> Navigated to an article, for the server to check it was linked from the last one
+	 * F|(clicks) -> Reached the target article in the given number of clicks
+	 * 
+	 * Once the server answers the fingerprint with H, Z and M (and S and X from the server) carry
+	 * 4-byte article IDs from the dictionary instead of titles.
 	 */
 
 	private static final Font TITLE_FONT = Font.font("Segoe UI", 36);
 	private static final Font TARGET_FONT = Font.font("Segoe UI", 14);
 	
+	private static final String DEFAULT_ROOM = "lobby";
+	
 	//Game browser
 	FXBrowser browser;
 	
@@ -58,11 +74,27 @@ public class GameClient extends Application {
 	
 	private InetSocketAddress serverAddr;
 	private Selector selector;
+	private SelectionKey key;
 	
-	private boolean netThreadActive = false;
+	private volatile boolean netThreadActive = false;
 	private Thread netThread;
 	
-	private Queue writeQueue;
+	private static final int WRITE_QUEUE_CAPACITY = 256;
+	private static final int WRITE_BATCH = 16; //Maximum messages written with one gathering write
+	
+	private static final long CACHE_MEMORY = 32L << 20; //Characters of article pages kept in memory
+	private static final long CACHE_DISK = 512L << 20; //Bytes of compressed article pages kept on disk
+	
+	private MpscArrayQueue<Message> writeQueue;
+	private FrameReader reader;
+	//Encoded frames taken from writeQueue, written together. pendingStart is the first one not fully written
+	private final ByteBuffer[] pendingWrites = new ByteBuffer[WRITE_BATCH];
+	private int pendingStart;
+	private int pendingCount;
+	
+	//Messages decoded by the network thread, waiting for the GUI thread
+	private final ConcurrentLinkedQueue<Message> inbox = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean deliveryScheduled = new AtomicBoolean();
 	
 	private boolean skip = false;
 	
@@ -71,6 +103,14 @@ public class GameClient extends Application {
 	
 	String target = "";
 	
+	//Article dictionary given with --dictionary=(file), or null. Articles are named by ID once the server accepts it
+	private ArticleDictionary dictionary;
+	private volatile boolean articleIds;
+	private int targetId = -1;
+	
+	//Article pages cached across rounds and games, in --cache=(directory) or a directory per wiki under the temp directory
+	private ArticleCache cache;
+	
 	/*
 	 * Game scene elements
 	 */
@@ -94,6 +134,7 @@ public class GameClient extends Application {
 	private Scene menuScene;
 	private TextField usernameField;
 	private TextField ipField;
+	private TextField roomField;
 	private Button connectButton;
 	private Button exitButton;
 	private Label title;
@@ -112,11 +153,19 @@ public class GameClient extends Application {
 	 * Game operation and other variables
 	 */
 	private String ip;
+	private String username;
+	private String room;
 	private boolean ready;
 	
 	//Loading variables for when server requests random articles
 	private int loadingArticle = 0; //0 indicates not loading, 1 indicates waiting for load, 3 indicates load completed
 	private String[] randomPages;
+	private int[] randomIds;
+	
+	//Clicks taken this round, counted as changes of article after the start article
+	private int clicks;
+	private String currentArticle;
+	private int currentId;
 	
 	/**
 	 * Start of the GUI application. Automatically called by launch() in GameClient.main().
@@ -125,9 +174,35 @@ public class GameClient extends Application {
 	public void start(Stage stage) throws Exception {
 		GameClient.stage = stage;
 		location = new Label();
+		
+		String dictionaryFile = getParameters().getNamed().get("dictionary");
+		if(dictionaryFile != null) {
+			try {
+				dictionary = ArticleDictionary.open(Paths.get(dictionaryFile));
+				System.out.println(dictionary + " loaded");
+			} catch(IOException e) {
+				System.out.println("Could not load article dictionary " + dictionaryFile + ": " + e.getMessage());
+			}
+		}
+
+		//Wikipedia, or an ArticleServer given with --wiki=(origin)
+		String wiki = getParameters().getNamed().getOrDefault("wiki", FXBrowser.WIKIPEDIA);
+		if(wiki.endsWith("/"))
+			wiki = wiki.substring(0, wiki.length() - 1);
+		
+		//Pages link to the wiki they came from, so each wiki gets its own cache
+		String cacheDirectory = getParameters().getNamed().get("cache");
+		if(cacheDirectory == null)
+			cacheDirectory = Paths.get(System.getProperty("java.io.tmpdir"), "wikigame-cache"
+					+ (wiki.equals(FXBrowser.WIKIPEDIA) ? "" : "-" + wiki.replaceAll("[^A-Za-z0-9.-]+", "_"))).toString();
+		try {
+			cache = new ArticleCache(Paths.get(cacheDirectory), CACHE_MEMORY, CACHE_DISK);
+		} catch(IOException e) {
+			System.out.println("Could not open article cache, pages will not be cached: " + e.getMessage());
+		}
 
 		//Browser client instantiation
-		browser = new FXBrowser("https://en.wikipedia.org/wiki/Special:Random");
+		browser = new FXBrowser(wiki, wiki + "/wiki/Special:Random", cache);
 
 		String s = location.textProperty().getValue();
 		System.out.println(location.getText());
@@ -168,8 +243,10 @@ public class GameClient extends Application {
 		//Configure socketchannel
 		SocketChannel socketChannel = SocketChannel.open();
 		socketChannel.configureBlocking(false);
+		//Messages are batched before they are written, so Nagle's algorithm would only add delay
+		socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
 		socketChannel.connect(serverAddr);
-		socketChannel.register(selector, SelectionKey.OP_CONNECT | SelectionKey.OP_WRITE | SelectionKey.OP_READ);
+		key = socketChannel.register(selector, SelectionKey.OP_CONNECT);
 	}
 	
 	/**
@@ -177,34 +254,54 @@ public class GameClient extends Application {
 	 */
 	private void initBrowser() {
 		randomPages = new String[3];
+		randomIds = new int[3];
 		
 		/*
 		 * Browser listener for when a new page is loaded
 		 */
 		browser.getEngine().getLoadWorker().stateProperty().addListener(new ChangeListener<State>() {
 			public void changed(ObservableValue ov, State oldState, State newState) {
-				if (newState == State.SUCCEEDED && !browser.getEngine().getLocation().equals("")) {
+				if (newState == State.SUCCEEDED && !browser.getLocation().equals("")) {
 					if(loadingArticle == 0) {
 						//Game navigation method (history, url verification)
 						browser.gameNav();
 						
-						location.textProperty().set(browser.getEngine().getLocation());
+						location.textProperty().set(browser.getLocation());
 						
+						if(browser.validCheck() && !browser.getArticleName().equals(currentArticle)) {
+							currentArticle = browser.getArticleName();
+							clicks++;
+							//Clears a rejected move notice; the server sends another if this move is not linked either
+							targetLabel.setText("Target: " + target);
+							if(articleIds) {
+								currentId = dictionary.find(currentArticle);
+								send(Message.ofInts('M', currentId));
+							} else {
+								send(new Message('M', currentArticle));
+							}
+						}
 						
-						//If player has reached the target location
+						//If player has reached the target location. The game ends once the server announces the winner
 						System.out.println(browser.getArticleName());
 						System.out.println(target);
-						if(browser.getArticleName().equals(target)) {
-							gameEnd(true, null);
-							writeQueue.push("F");
-						}
+						if(articleIds ? currentId >= 0 && currentId == targetId : browser.getArticleName().equals(target))
+							send(new Message('F', Integer.toString(clicks)));
 					}
 					else if(loadingArticle >= 3 && !(browser.getArticleName().equals("Special:Random"))) {
-						writeQueue.push("Z|" + randomPages[0] + "|" + randomPages[1]);
+						if(articleIds)
+							send(Message.ofInts('Z', randomIds[0], randomIds[1]));
+						else
+							send(new Message('Z', randomPages[0], randomPages[1]));
 						loadingArticle = 0;
 					}
+					else if(articleIds && dictionary.find(browser.getArticleName()) < 0) {
+						//Newer than the dictionary, the server could not name it either
+						browser.loadRandomArticle();
+					}
 					else if(!(browser.getArticleName().equals("Special:Random"))) {
 						randomPages[loadingArticle - 1] = browser.getArticleName();
+						if(articleIds)
+							randomIds[loadingArticle - 1] = dictionary.find(browser.getArticleName());
 						browser.loadRandomArticle();
 						loadingArticle++;
 					}
@@ -218,247 +315,337 @@ public class GameClient extends Application {
 	 */
 	private void startNetThread() {
 		netThreadActive = true;
-		writeQueue = new Queue();
-		
-		Task netTask = new Task<Void>() {
-			@Override
-			protected Void call() throws Exception {
-				while(netThreadActive) {
-					Thread.sleep(200); // Only do network updates every 200 ms, too many updates will block GUI and render it laggy
-					Platform.runLater(new Runnable() {
-						@Override
-						public void run() {
-							processNet();
-						}
-					});
-				}
-				return null;
-			}
-		};
+		writeQueue = new MpscArrayQueue<>(WRITE_QUEUE_CAPACITY);
+		pendingStart = pendingCount = 0;
+		reader = new FrameReader();
+		inbox.clear();
 		
-		netThread = new Thread(netTask);
+		Selector netSelector = selector;
+		netThread = new Thread(() -> processNet(netSelector), "ClientNetwork");
 		netThread.setDaemon(true); //Daemon net processing thread
 		netThread.start();
 	}
 	
 	/**
-	 * Processing method for the network thread. Is called every network tick, and is responsible for processing
-	 * the keyset given by the NIO selector.
+	 * Body of the network thread. Blocks on the selector until there is network activity or a message
+	 * is sent, so events are handled as soon as they arrive. All socket I/O and decoding happens here;
+	 * decoded messages are handed to the GUI thread in batches.
+	 * 
+	 * @param selector Selector of this connection, closed once the thread ends. A reconnect opens a new one.
 	 */
-	private void processNet() {
+	private void processNet(Selector selector) {
 		try {
-			if(selector.select() <= 0)
-				return;
+			while(netThreadActive) {
+				selector.select();
+				
+				Set<SelectionKey> keySet = selector.selectedKeys();
+				Iterator<SelectionKey> keyIterator = keySet.iterator();
+				
+				SelectionKey key;
+				while(keyIterator.hasNext() && netThreadActive) {
+					key = keyIterator.next();
+					keyIterator.remove();
+					handle(key);
+				}
+				
+				deliverMessages();
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
-			return;
-		}
-		
-		
-		Set<SelectionKey> keySet = selector.selectedKeys();
-		Iterator<SelectionKey> keyIterator = keySet.iterator();
-		
-		SelectionKey key;
-		while(keyIterator.hasNext() && netThreadActive) {
-			key = keyIterator.next();
-			keyIterator.remove();
-			handle(key);
+		} finally {
+			try {
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
-
 	}
 	
 	private void handle(SelectionKey key) {
+		if(key.isValid() && key.isConnectable()) {
+			finishConnect(key);
+			return;
+		}
+		
 		writeProcess(key);
 		
-		if(stage.getScene() == menuScene) {
-			handleMenu(key);
-		}
-		else if(stage.getScene() == gameScene) {
-			handleGame(key);
+		if(key.isValid())
+			readProcess(key);
+	}
+	
+	/**
+	 * Queues a message for the server and registers write interest for it. Safe to call from any
+	 * thread; the network thread is woken to write it.
+	 */
+	private void send(Message message) {
+		if(!writeQueue.offer(message)) {
+			System.out.println("Write queue full, dropping message " + message);
+			return;
 		}
-		else if(stage.getScene() == lobbyScene) {
-			handleLobby(key);
+		if(key != null && key.isValid() && ((SocketChannel) key.channel()).isConnected()) {
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			if(Thread.currentThread() != netThread)
+				selector.wakeup();
 		}
-		//Recieve no data in post-screen
 	}
 	
+	/**
+	 * Writes queued messages until the queue is empty or the socket stops accepting data, encoding up to
+	 * WRITE_BATCH of them at a time for one gathering write. Partially written frames are resumed on the
+	 * next writable event. Write interest is dropped once everything is sent.
+	 */
 	private void writeProcess(SelectionKey key) {
-		if(key.isWritable()) {
-	         SocketChannel channel = (SocketChannel) key.channel();
-	         ByteBuffer buffer;
-	         while(!writeQueue.isEmpty()) {
-	        	 buffer = ByteBuffer.wrap(writeQueue.pop().getBytes());
-	        	 try {
-					channel.write(buffer);
-				} catch (IOException e) {
-					e.printStackTrace();
+		if(key.isValid() && key.isWritable()) {
+			SocketChannel channel = (SocketChannel) key.channel();
+			try {
+				while(true) {
+					if(pendingStart == pendingCount) {
+						pendingStart = pendingCount = 0;
+						Message message;
+						while(pendingCount < WRITE_BATCH && (message = writeQueue.poll()) != null)
+							pendingWrites[pendingCount++] = FrameCodec.encode(message);
+						if(pendingCount == 0)
+							break;
+					}
+					
+					channel.write(pendingWrites, pendingStart, pendingCount - pendingStart);
+					while(pendingStart < pendingCount && !pendingWrites[pendingStart].hasRemaining())
+						pendingWrites[pendingStart++] = null;
+					if(pendingStart < pendingCount)
+						return; //Socket buffer full, wait for the next OP_WRITE
 				}
-	         }
-	         
+				key.interestOps(SelectionKey.OP_READ);
+				
+				//A message queued from another thread after the last check would otherwise wait for the next send
+				if(!writeQueue.isEmpty())
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Reads from the server and decodes every complete message into the inbox for the GUI thread.
+	 */
+	private void readProcess(SelectionKey key) {
+		if(!key.isReadable())
+			return;
+		
+		SocketChannel channel = (SocketChannel) key.channel();
+		try{
+			int read = reader.read(channel);
+			if(defaultProcess(read, channel))
+				return;
+			
+			Message message;
+			while((message = reader.next()) != null) {
+				System.out.println(username + " : " + message);
+				inbox.offer(message);
+			}
+		}
+		catch(IOException e) {
+			e.printStackTrace();
+			System.exit(1027);
+		}
+	}
+	
+	/**
+	 * Schedules the GUI thread to handle everything in the inbox. However many messages arrived, at most
+	 * one runLater is pending at a time; messages decoded while it waits join the same batch.
+	 */
+	private void deliverMessages() {
+		if(inbox.isEmpty() || !deliveryScheduled.compareAndSet(false, true))
+			return;
+		
+		Platform.runLater(new Runnable() {
+			@Override
+			public void run() {
+				deliveryScheduled.set(false);
+				dispatchInbox();
+			}
+		});
+	}
+	
+	/**
+	 * Dispatches received messages to the handler for the current scene. GUI thread only. Dispatching stops
+	 * once the scene changes to one that recieves no data; the remaining messages stay in the inbox until
+	 * the next batch.
+	 */
+	private void dispatchInbox() {
+		Message message;
+		while(stage.getScene() == gameScene || stage.getScene() == lobbyScene) {
+			if((message = inbox.poll()) == null)
+				break;
+			
+			if(stage.getScene() == gameScene)
+				handleGame(message);
+			else
+				handleLobby(message);
 		}
 	}
 	
 	/**
 	 * Handler for data that is always valid (regardless of gamestate). Namely includes checking if
-	 * the connection was disconnected.
+	 * the connection was disconnected. Returns true if the connection has been closed.
 	 * 
+	 * @param read Result of the last read on the channel, -1 on end of stream
 	 * @return 
 	 * @throws IOException 
 	 */
-	private void defaultProcess(String data, SocketChannel readChannel) throws IOException {
-		if(data.length() <= 0) {
+	private boolean defaultProcess(int read, SocketChannel readChannel) throws IOException {
+		if(read < 0) {
 			String address = readChannel.getRemoteAddress().toString();
 			readChannel.close();
 			System.out.println("Connection at address " + address + " closed.");
 			netThreadActive = false;
-			stage.setScene(menuScene);
+			Platform.runLater(new Runnable() {
+				@Override
+				public void run() {
+					stage.setScene(menuScene);
+				}
+			});
+			return true;
 		}
+		return false;
 	}
 	
 	/*
 	 * Net Selectionkey handling methods
 	 */
-	private void handleMenu(SelectionKey key) {
-		if(key.isConnectable()) {
-			SocketChannel channel = (SocketChannel) key.channel();
-			while(channel.isConnectionPending()) {
-				try {
-					channel.finishConnect();
-					ip = channel.getRemoteAddress().toString();
-					
-				} catch (ConnectException edsa) {
-					System.exit(1027);
-				} catch (IOException e) {
-					errorLabel.setText("Connection failed");
-					key.cancel();
-					e.printStackTrace();
+	private void finishConnect(SelectionKey key) {
+		SocketChannel channel = (SocketChannel) key.channel();
+		while(channel.isConnectionPending()) {
+			try {
+				channel.finishConnect();
+				ip = channel.getRemoteAddress().toString();
+				
+			} catch (ConnectException edsa) {
+				System.exit(1027);
+			} catch (IOException e) {
+				key.cancel();
+				e.printStackTrace();
 
-					netThreadActive = false;
-					
-					return;
-				}
+				netThreadActive = false;
+				Platform.runLater(new Runnable() {
+					@Override
+					public void run() {
+						errorLabel.setText("Connection failed");
+					}
+				});
+				
+				return;
 			}
-			
-			writeQueue.push("I|" + usernameField.getText());
-			stage.setScene(lobbyScene);
-			updateLobby();
 		}
+		
+		key.interestOps(SelectionKey.OP_READ);
+		articleIds = false;
+		if(dictionary != null)
+			send(new Message('I', username, String.format("%016x", dictionary.getFingerprint())));
+		else
+			send(new Message('I', username));
+		send(new Message('J', room));
+		Platform.runLater(new Runnable() {
+			@Override
+			public void run() {
+				stage.setScene(lobbyScene);
+				updateLobby();
+			}
+		});
 	}
 	
-	private void handleGame(SelectionKey key) {
-		if(key.isReadable()) {
-			SocketChannel channel = (SocketChannel) key.channel();
-			ByteBuffer buffer = ByteBuffer.allocate(1024);
-			try{
-				channel.read(buffer);
-				
-				String data = new String(buffer.array()).trim();
-				defaultProcess(data, channel);
-				
-				System.out.println(usernameField.getText() + " : " + data);
-				
-				/*
-				 * DATA PROCESSING START
-				 * 
-				 * Expected recieved values:
-				 * 
-				 * W|(username) - > User has won the game
-				 * A -> Game aborted
-				 */
-				
-				switch(data.charAt(0)) {
-				case 'W':
-					gameEnd(false, data.substring(2));
-					return;
-				case 'A':
-					stage.setScene(lobbyScene);
-					return;
-				}
-				
-				switch(data.charAt(0)) {
-				}
-			}
-			catch(IOException e) {
-				e.printStackTrace();
-				System.exit(1027);
-			}
+	/**
+	 * Game scene message handler.
+	 * 
+	 * <pre>Expected recieved values:<br>
+	 * W|(username)|(clicks)[|(shortest clicks)|(article)...] - > User has won the game, with a shortest path if the server knows one<br>
+	 * X|(article) -> The server did not accept a move to the article, as it is not linked from the last one<br>
+	 * A -> Game aborted</pre>
+	 */
+	private void handleGame(Message message) {
+		switch(message.getOpcode()) {
+		case 'X':
+			int rejectedId = articleIds ? message.getIntField(0) : -1;
+			String rejected = !articleIds ? message.getField(0) : rejectedId >= 0 ? dictionary.title(rejectedId) : "This article";
+			targetLabel.setText("Target: " + target + "    " + rejected + " is not linked from your last article, go back to continue");
+			return;
+		case 'W':
+			gameEnd(message);
+			return;
+		case 'A':
+			stage.setScene(lobbyScene);
+			return;
 		}
 	}
 	
-	private void handleLobby(SelectionKey key) {
-		if(key.isReadable()) {
-			SocketChannel channel = (SocketChannel) key.channel();
-			ByteBuffer buffer = ByteBuffer.allocate(1024);
-			try{
-				channel.read(buffer);
-				
-				String data = new String(buffer.array()).trim();
-				defaultProcess(data, channel);
-				
-				System.out.println(usernameField.getText() + " : " + data);
-				
-				/*
-				 * DATA PROCESSING START
-				 * 
-				 * Expected recieved values:
-				 * 
-				 * N|(username) -> New user in lobby
-				 * D|(username) -> User left lobby
-				 * R|(username) -> Change ready state of user to ready
-				 * U|(username) -> Change ready state of user to unready
-				 * F|(username) -> User finished the game
-				 * Z -> Server request for random browser pages
-				 * S|(start)|(target) -> Start game with initial and target wiki pages
-				 */
-				
-				//Special case for gamestate and random browser request
-				switch(data.charAt(0)) {
-				case 'Z':
-					browser.loadRandomArticle();
-					loadingArticle++;
-					return;
-				case 'S':
-					String start = data.substring(2, data.indexOf('|', 2));
-					String target = data.substring(data.indexOf('|', 2) + 1);
-					browser.start(start);
-					this.target = target;
-					stage.setScene(gameScene);
-					targetLabel.setText("Target: " + target);
-					
-					return;
-				}
-				
-				String cUsername = data.substring(2);
-				
-				switch(data.charAt(0)) {
-				case 'N':
-					playerList.add(cUsername);
-					break;
-				case 'D':
-					playerList.remove(cUsername);
-					break;
-				case 'R':
-					if(playerList.indexOf(cUsername) != -1) {
-						playerList.set(playerList.indexOf(cUsername), cUsername + " (Ready)");
-						System.out.println("test");
-					}
-					break;
-				case 'U':
-					if(playerList.indexOf(cUsername + " (Ready)") != -1) {
-						playerList.set(playerList.indexOf(cUsername + " (Ready)"), cUsername);
-					}
-					break;
-				}
+	/**
+	 * Lobby scene message handler.
+	 * 
+	 * <pre>Expected recieved values:<br>
+	 * N|(username) -> New user in lobby<br>
+	 * D|(username) -> User left lobby<br>
+	 * R|(username) -> Change ready state of user to ready<br>
+	 * U|(username) -> Change ready state of user to unready<br>
+	 * F|(username) -> User finished the game<br>
+	 * Z -> Server request for random browser pages<br>
+	 * H|(fingerprint) -> Server has the same article dictionary, articles are named by ID from now on<br>
+	 * S|(start)|(target) -> Start game with initial and target wiki pages</pre>
+	 */
+	private void handleLobby(Message message) {
+		//Special case for gamestate and random browser request
+		switch(message.getOpcode()) {
+		case 'Z':
+			browser.loadRandomArticle();
+			loadingArticle++;
+			return;
+		case 'H':
+			articleIds = dictionary != null;
+			return;
+		case 'S':
+			String start = message.getField(0);
+			String target = message.getField(1);
+			targetId = -1;
+			if(articleIds) {
+				targetId = message.getIntField(1);
+				start = ArticleDictionary.toUrlTitle(dictionary.title(message.getIntField(0)));
+				target = ArticleDictionary.toUrlTitle(dictionary.title(targetId));
 			}
-			catch(IOException e) {
-				e.printStackTrace();
-				System.exit(1027);
+			browser.setTarget(target);
+			browser.start(start);
+			this.target = target;
+			//Loading the start article brings this to 0
+			clicks = -1;
+			currentArticle = null;
+			stage.setScene(gameScene);
+			targetLabel.setText("Target: " + target);
+			
+			return;
+		}
+		
+		String cUsername = message.getField(0);
+		
+		switch(message.getOpcode()) {
+		case 'N':
+			playerList.add(cUsername);
+			break;
+		case 'D':
+			playerList.remove(cUsername);
+			break;
+		case 'R':
+			if(playerList.indexOf(cUsername) != -1) {
+				playerList.set(playerList.indexOf(cUsername), cUsername + " (Ready)");
+			}
+			break;
+		case 'U':
+			if(playerList.indexOf(cUsername + " (Ready)") != -1) {
+				playerList.set(playerList.indexOf(cUsername + " (Ready)"), cUsername);
 			}
+			break;
 		}
 	}
 	
 	private void updateLobby() {
-		lobbyTitle.setText("Lobby " + ip);
+		lobbyTitle.setText("Lobby " + room + " " + ip);
 	}
 	
 	private void initGameScene() {
@@ -530,6 +717,7 @@ public class GameClient extends Application {
 	
 	private void initMenuScene() {
 		ipField = new TextField();
+		roomField = new TextField();
 		usernameField = new TextField();
 		connectButton = new Button("Connect");
 		exitButton = new Button("Exit");
@@ -544,6 +732,10 @@ public class GameClient extends Application {
 				
 				errorLabel.setText("");
 				ip = ipField.getText();
+				username = usernameField.getText();
+				room = roomField.getText().trim();
+				if(room.isEmpty())
+					room = DEFAULT_ROOM;
 				try {
 					connect(ip);
 					startNetThread();
@@ -563,7 +755,7 @@ public class GameClient extends Application {
 		});
 		
 		//JavaFX layouts and parents
-		VBox connectBox = new VBox(usernameField, ipField, connectButton, errorLabel);
+		VBox connectBox = new VBox(usernameField, ipField, roomField, connectButton, errorLabel);
 		HBox buttons = new HBox(50, connectBox, exitButton);
 		VBox vbox = new VBox(50, title, buttons);
 		vbox.setAlignment(Pos.CENTER);
@@ -572,6 +764,7 @@ public class GameClient extends Application {
 		ipField.setPromptText("IP Address");
 		ipField.setPrefWidth(150); 
 		usernameField.setPromptText("Username");
+		roomField.setPromptText("Room (" + DEFAULT_ROOM + ")");
 		
 		title.setFont(TITLE_FONT);
 		
@@ -591,12 +784,12 @@ public class GameClient extends Application {
 		readyButton.setOnMouseClicked(new EventHandler<MouseEvent>() {
 			public void handle(MouseEvent arg0) {
 				if(!ready) {
-					writeQueue.push("R");
+					send(new Message('R'));
 					readyButton.setText("Unready");
 					ready = !ready;
 				}
 				else {
-					writeQueue.push("U");
+					send(new Message('U'));
 					readyButton.setText("Ready");
 					ready = !ready;
 				}
@@ -623,18 +816,23 @@ public class GameClient extends Application {
 	}
 	
 	/**
-	 * Method called when the game is finished, either through a player win or server loss notification.
-	 * The method switches to the post-game scene.
-	 * @param win If the player won the game
+	 * Method called when the server announces the winner. The method switches to the post-game scene,
+	 * showing the winner's clicks and a shortest path when the server sent them.
+	 * @param message W|(username)|(clicks)[|(shortest clicks)|(article)...]
 	 */
-	private void gameEnd(boolean win, String winner) {
-		//Switch scenes to menu/win screen
-		if(win) {
-			postGameMessage.textProperty().set("You've won!");
-		}
-		else {
-			postGameMessage.textProperty().set(winner + " has won!");
+	private void gameEnd(Message message) {
+		String winner = message.getField(0);
+		StringBuilder text = new StringBuilder(winner.equals(username) ? "You've won!" : winner + " has won!");
+		if(!message.getField(1).isEmpty())
+			text.append("\n").append(message.getField(1)).append(" clicks");
+		if(message.fieldCount() > 3) {
+			text.append(", shortest path ").append(message.getField(2)).append(" clicks:\n");
+			for(int i = 3; i < message.fieldCount(); i++)
+				text.append(i > 3 ? " > " : "").append(message.getField(i));
 		}
+		
+		//Switch scenes to menu/win screen
+		postGameMessage.textProperty().set(text.toString());
 		stage.setScene(postScene);
 	}
 	
@@ -642,6 +840,15 @@ public class GameClient extends Application {
 	 * Closes the rest of the application once the GUI is closed.
 	 */
 	public void stop() {
+		System.out.println(browser);
+		if(cache != null) {
+			System.out.println(cache);
+			try {
+				cache.close();
+			} catch(IOException e) {
+				//Everything written is already flushed
+			}
+		}
 		System.exit(0);
 	}
 	
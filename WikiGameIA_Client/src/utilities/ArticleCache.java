@@ -0,0 +1,339 @@
+package utilities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of game-ready article pages, keyed by normalized title (see {@link ArticleDictionary#normalize(String)}),
+ * so revisiting an article does not fetch it again. Safe to use from any thread.
+ * 
+ * <p>Two tiers: the most recently used pages in memory, up to a number of characters, and every
+ * page on disk, gzipped, where it lasts between games. Pages older than a week are fetched again.</p>
+ * 
+ * <pre>Disk store, in the cache directory:
+ * pages.dat -> gzipped pages, one after another
+ * pages.idx -> MAGIC, VERSION, then one entry per page written:
+ *              key (modified UTF-8), URL (modified UTF-8), offset in pages.dat (long), length (int), time written (long)</pre>
+ * 
+ * Both files are only appended to; a later entry for a key replaces an earlier one. Once pages.dat
+ * would grow past its limit, the disk store starts over empty.
+ * 
+ * @author Michael
+ */
+public class ArticleCache implements Closeable {
+	private static final int MAGIC = 0x57475043; //"WGPC"
+	private static final int VERSION = 1;
+	private static final long MAX_AGE = 7L * 24 * 60 * 60 * 1000;
+	
+	/**
+	 * Where a page is in the disk store
+	 */
+	private static class Entry {
+		final String url;
+		final long offset;
+		final int length;
+		final long time;
+		
+		Entry(String url, long offset, int length, long time) {
+			this.url = url;
+			this.offset = offset;
+			this.length = length;
+			this.time = time;
+		}
+	}
+	
+	private final long memoryLimit;
+	private final long diskLimit;
+	private final Path dataFile;
+	private final Path indexFile;
+	
+	//Access ordered, so the eldest is the least recently used
+	private final LinkedHashMap<String, PagePipeline.Page> memory = new LinkedHashMap<>(64, 0.75f, true);
+	private long memoryUsed;
+	private final Map<String, Entry> disk = new HashMap<>();
+	private FileChannel data;
+	//Buffered and flushed once per entry, so an entry is written with one call instead of one per field
+	private DataOutputStream index;
+	
+	private long memoryHits;
+	private long diskHits;
+	private long misses;
+	
+	/**
+	 * Opens the cache stored in the directory, creating it if needed. An index that cannot be read
+	 * is discarded along with its pages.
+	 * 
+	 * @param memoryLimit Characters of pages kept in memory
+	 * @param diskLimit Bytes of compressed pages kept on disk
+	 */
+	public ArticleCache(Path directory, long memoryLimit, long diskLimit) throws IOException {
+		this.memoryLimit = memoryLimit;
+		this.diskLimit = diskLimit;
+		Files.createDirectories(directory);
+		dataFile = directory.resolve("pages.dat");
+		indexFile = directory.resolve("pages.idx");
+		
+		data = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if(!readIndex())
+			clearDisk();
+		else
+			index = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(FileChannel.open(indexFile, StandardOpenOption.APPEND))));
+	}
+	
+	/**
+	 * Loads the disk store's index. Entries past the end of the pages, left by a write that did not
+	 * finish, end it.
+	 * 
+	 * @return False if there is no usable index
+	 */
+	private boolean readIndex() throws IOException {
+		if(!Files.exists(indexFile))
+			return false;
+		long dataSize = data.size();
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION)
+				return false;
+			while(true) {
+				String key;
+				try {
+					key = in.readUTF();
+				} catch(EOFException e) {
+					return true;
+				}
+				Entry entry = new Entry(in.readUTF(), in.readLong(), in.readInt(), in.readLong());
+				if(entry.offset + entry.length > dataSize)
+					return true;
+				disk.put(key, entry);
+			}
+		} catch(EOFException e) {
+			//Last entry cut short
+			return true;
+		} catch(IOException e) {
+			//Damaged, ex. a title that is not valid modified UTF-8
+			return false;
+		}
+	}
+	
+	/**
+	 * Empties the disk store and starts a new index.
+	 */
+	private void clearDisk() throws IOException {
+		disk.clear();
+		data.truncate(0);
+		if(index != null)
+			index.close();
+		index = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(FileChannel.open(indexFile,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))));
+		index.writeInt(MAGIC);
+		index.writeInt(VERSION);
+		index.flush();
+	}
+	
+	/**
+	 * Cache key of the article at a URL: its normalized title, without any section. Null for pages
+	 * that are not articles, or that differ on every visit such as Special:Random.
+	 */
+	public static String key(String url) {
+		int start = url.indexOf("/wiki/");
+		if(start < 0)
+			return null;
+		String title = url.substring(start + "/wiki/".length());
+		for(int i = 0; i < title.length(); i++) {
+			char c = title.charAt(i);
+			if(c == '#' || c == '?') {
+				title = title.substring(0, i);
+				break;
+			}
+		}
+		title = ArticleDictionary.normalize(ArticleDictionary.fromUrlTitle(title));
+		if(title.isEmpty() || title.startsWith("Special:"))
+			return null;
+		return title;
+	}
+	
+	/**
+	 * Returns the cached page of the article at the URL, or null if it is not cached. Pages found
+	 * on disk are read and decompressed by the calling thread.
+	 */
+	public PagePipeline.Page get(String url) {
+		String key = key(url);
+		if(key == null)
+			return null;
+		
+		Entry entry;
+		synchronized(this) {
+			PagePipeline.Page page = memory.get(key);
+			if(page != null) {
+				memoryHits++;
+				return page;
+			}
+			entry = disk.get(key);
+			if(entry == null || System.currentTimeMillis() - entry.time > MAX_AGE) {
+				misses++;
+				return null;
+			}
+		}
+		
+		PagePipeline.Page page;
+		try {
+			page = new PagePipeline.Page(entry.url, decompress(read(entry)));
+		} catch(IOException e) {
+			//Cleared or damaged since, fetch it again
+			synchronized(this) {
+				misses++;
+			}
+			return null;
+		}
+		synchronized(this) {
+			//The store may have been cleared while the page was read, and its place reused by another page
+			if(disk.get(key) != entry) {
+				misses++;
+				return null;
+			}
+			diskHits++;
+			remember(key, page);
+		}
+		return page;
+	}
+	
+	/**
+	 * True if the article at the URL is cached. Not counted in the hit statistics.
+	 */
+	public synchronized boolean contains(String url) {
+		String key = key(url);
+		if(key == null)
+			return false;
+		if(memory.containsKey(key))
+			return true;
+		Entry entry = disk.get(key);
+		return entry != null && System.currentTimeMillis() - entry.time <= MAX_AGE;
+	}
+
+	/**
+	 * Caches a page under its article, replacing any older copy. The page is compressed by the
+	 * calling thread.
+	 */
+	public void put(PagePipeline.Page page) {
+		String key = key(page.getUrl());
+		if(key == null)
+			return;
+		synchronized(this) {
+			remember(key, page);
+		}
+		
+		byte[] compressed;
+		try {
+			compressed = compress(page.getHtml());
+		} catch(IOException e) {
+			return;
+		}
+		//Would clear the whole store and still not fit, so it is only kept in memory
+		if(compressed.length > diskLimit)
+			return;
+		synchronized(this) {
+			try {
+				long offset = data.size();
+				if(offset + compressed.length > diskLimit) {
+					clearDisk();
+					offset = 0;
+				}
+				ByteBuffer buffer = ByteBuffer.wrap(compressed);
+				while(buffer.hasRemaining())
+					data.write(buffer, offset + buffer.position());
+				Entry entry = new Entry(page.getUrl(), offset, compressed.length, System.currentTimeMillis());
+				index.writeUTF(key);
+				index.writeUTF(entry.url);
+				index.writeLong(entry.offset);
+				index.writeInt(entry.length);
+				index.writeLong(entry.time);
+				index.flush();
+				disk.put(key, entry);
+			} catch(IOException e) {
+				System.out.println("Could not write " + key + " to the article cache: " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Adds a page to memory, evicting the least recently used pages past the limit.
+	 */
+	private void remember(String key, PagePipeline.Page page) {
+		PagePipeline.Page old = memory.put(key, page);
+		if(old != null)
+			memoryUsed -= old.getHtml().length();
+		memoryUsed += page.getHtml().length();
+		Iterator<PagePipeline.Page> eldest = memory.values().iterator();
+		//Never evicts the page just added
+		while(memoryUsed > memoryLimit && memory.size() > 1) {
+			memoryUsed -= eldest.next().getHtml().length();
+			eldest.remove();
+		}
+	}
+	
+	private byte[] read(Entry entry) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+		while(buffer.hasRemaining()) {
+			if(data.read(buffer, entry.offset + buffer.position()) < 0)
+				throw new EOFException();
+		}
+		return buffer.array();
+	}
+	
+	private static byte[] compress(String html) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(html.length() / 4);
+		try(Writer out = new OutputStreamWriter(new GZIPOutputStream(bytes, 8192), StandardCharsets.UTF_8)) {
+			out.write(html);
+		}
+		return bytes.toByteArray();
+	}
+	
+	private static String decompress(byte[] compressed) throws IOException {
+		StringBuilder html = new StringBuilder(compressed.length * 4);
+		char[] buffer = new char[8192];
+		try(InputStream bytes = new GZIPInputStream(new ByteArrayInputStream(compressed), 8192);
+				Reader in = new InputStreamReader(bytes, StandardCharsets.UTF_8)) {
+			int read;
+			while((read = in.read(buffer)) > 0)
+				html.append(buffer, 0, read);
+		}
+		return html.toString();
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		index.close();
+		data.close();
+	}
+	
+	@Override
+	public synchronized String toString() {
+		long lookups = memoryHits + diskHits + misses;
+		return String.format("Article cache: %d lookups, %d memory hits, %d disk hits (%.1f%% hit rate), %d pages in memory, %d on disk",
+				lookups, memoryHits, diskHits, lookups == 0 ? 0 : 100.0 * (memoryHits + diskHits) / lookups, memory.size(), disk.size());
+	}
+}
@@ -0,0 +1,109 @@
+package utilities;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Length-prefixed binary framing for the client/server protocol.
+ * 
+ * <pre>Frame layout (big-endian):<br>
+ * int    length     -> number of bytes following this field<br>
+ * byte   opcode     -> message type, ex. 'N', 'R', 'S'<br>
+ * byte   fieldCount<br>
+ * fieldCount x (short fieldLength, fieldLength bytes of UTF-8)</pre>
+ * 
+ * @author Michael
+ */
+public class FrameCodec {
+	public static final int LENGTH_PREFIX = 4;
+	public static final int MAX_FIELD_LENGTH = 0xFFFF;
+	public static final int MAX_FIELDS = 0xFF;
+	
+	/**
+	 * Largest frame body accepted from a peer. Anything bigger is treated as a protocol error.
+	 */
+	public static final int MAX_FRAME_LENGTH = 64 * 1024;
+	
+	private FrameCodec() {
+	}
+	
+	/**
+	 * Returns the total number of bytes (including the length prefix) needed to encode the message.
+	 */
+	public static int frameLength(Message message) {
+		int length = LENGTH_PREFIX + 2;
+		for(int i = 0; i < message.fieldCount(); i++)
+			length += 2 + message.getRawField(i).length;
+		return length;
+	}
+	
+	/**
+	 * Writes the complete frame for the message into the destination buffer. The message is checked
+	 * before anything is written, so a message that cannot be sent never leaves part of a frame in
+	 * the buffer.
+	 * 
+	 * @throws IllegalArgumentException If the message cannot be represented as a frame, or is longer
+	 * than a peer accepts.
+	 * @throws BufferOverflowException If the buffer does not have {@link #frameLength(Message)} bytes remaining.
+	 */
+	public static void encode(Message message, ByteBuffer dst) {
+		if(message.fieldCount() > MAX_FIELDS)
+			throw new IllegalArgumentException("Too many fields in message " + message.getOpcode());
+		for(int i = 0; i < message.fieldCount(); i++) {
+			if(message.getRawField(i).length > MAX_FIELD_LENGTH)
+				throw new IllegalArgumentException("Field too long in message " + message.getOpcode());
+		}
+		int length = frameLength(message);
+		if(length - LENGTH_PREFIX > MAX_FRAME_LENGTH)
+			throw new IllegalArgumentException("Message " + message.getOpcode() + " is too long for a frame: " + length);
+		if(dst.remaining() < length)
+			throw new BufferOverflowException();
+		
+		dst.putInt(length - LENGTH_PREFIX);
+		dst.put((byte) message.getOpcode());
+		dst.put((byte) message.fieldCount());
+		for(int i = 0; i < message.fieldCount(); i++) {
+			byte[] field = message.getRawField(i);
+			dst.putShort((short) field.length);
+			dst.put(field);
+		}
+	}
+	
+	/**
+	 * Encodes the message into a new heap buffer, flipped and ready for writing.
+	 */
+	public static ByteBuffer encode(Message message) {
+		ByteBuffer buffer = ByteBuffer.allocate(frameLength(message));
+		encode(message, buffer);
+		buffer.flip();
+		return buffer;
+	}
+	
+	/**
+	 * Decodes one frame body (everything after the length prefix) starting at the source buffer's
+	 * position. The position is advanced past the body.
+	 * 
+	 * @throws ProtocolException If the body is malformed.
+	 */
+	static Message decodeBody(ByteBuffer src, int bodyLength) throws ProtocolException {
+		int end = src.position() + bodyLength;
+		if(bodyLength < 2)
+			throw new ProtocolException("Frame too short: " + bodyLength);
+		
+		char opcode = (char) (src.get() & 0xFF);
+		int fieldCount = src.get() & 0xFF;
+		byte[][] fields = new byte[fieldCount][];
+		for(int i = 0; i < fieldCount; i++) {
+			if(end - src.position() < 2)
+				throw new ProtocolException("Truncated field header in frame " + opcode);
+			int fieldLength = src.getShort() & 0xFFFF;
+			if(end - src.position() < fieldLength)
+				throw new ProtocolException("Truncated field in frame " + opcode);
+			fields[i] = new byte[fieldLength];
+			src.get(fields[i]);
+		}
+		if(src.position() != end)
+			throw new ProtocolException("Trailing bytes in frame " + opcode);
+		return new Message(opcode, fields);
+	}
+}
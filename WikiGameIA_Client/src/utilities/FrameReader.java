@@ -0,0 +1,126 @@
+package utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Per-connection accumulating read buffer. Bytes are read from the channel into the buffer and
+ * complete frames are decoded out of it one at a time; a partial frame stays in the buffer
+ * until the rest of it arrives.
+ * 
+ * <p>The buffer is always left in write mode. Unconsumed bytes live between readIndex and the
+ * buffer position. If a {@link BufferPool} is given, the buffer is taken from it and is reused
+ * across reads for the life of the connection; call {@link #release()} when the connection closes.</p>
+ * 
+ * @author Michael
+ */
+public class FrameReader {
+	private final BufferPool pool;
+	private ByteBuffer buffer;
+	private int readIndex;
+	
+	public FrameReader() {
+		this(null, 4096);
+	}
+	
+	public FrameReader(BufferPool pool) {
+		this(pool, 4096);
+	}
+	
+	public FrameReader(BufferPool pool, int initialCapacity) {
+		this.pool = pool;
+		buffer = allocate(initialCapacity);
+	}
+	
+	/**
+	 * Reads whatever is available from the channel into the accumulation buffer.
+	 * 
+	 * @return Number of bytes read, or -1 if the channel reached end of stream.
+	 */
+	public int read(ReadableByteChannel channel) throws IOException {
+		if(!buffer.hasRemaining()) {
+			if(readIndex > 0)
+				compact();
+			else
+				ensureCapacity(buffer.capacity() * 2);
+		}
+		return channel.read(buffer);
+	}
+	
+	/**
+	 * Decodes the next complete frame in the buffer.
+	 * 
+	 * @return The decoded message, or null if no complete frame is buffered yet.
+	 * @throws ProtocolException If the peer sent a malformed frame.
+	 */
+	public Message next() throws ProtocolException {
+		int available = buffer.position() - readIndex;
+		if(available == 0 && readIndex > 0) {
+			buffer.clear();
+			readIndex = 0;
+		}
+		if(available < FrameCodec.LENGTH_PREFIX)
+			return null;
+		
+		int bodyLength = buffer.getInt(readIndex);
+		if(bodyLength < 0 || bodyLength > FrameCodec.MAX_FRAME_LENGTH)
+			throw new ProtocolException("Invalid frame length " + bodyLength);
+		
+		int frameLength = FrameCodec.LENGTH_PREFIX + bodyLength;
+		if(available < frameLength) {
+			//Make room for the rest of the frame
+			if(readIndex > 0)
+				compact();
+			if(buffer.capacity() < frameLength)
+				ensureCapacity(frameLength);
+			return null;
+		}
+		
+		int writePosition = buffer.position();
+		buffer.position(readIndex + FrameCodec.LENGTH_PREFIX);
+		try {
+			return FrameCodec.decodeBody(buffer, bodyLength);
+		}
+		finally {
+			buffer.position(writePosition);
+			readIndex += frameLength;
+		}
+	}
+	
+	/**
+	 * Moves the unconsumed bytes to the start of the buffer.
+	 */
+	private void compact() {
+		buffer.flip();
+		buffer.position(readIndex);
+		buffer.compact();
+		readIndex = 0;
+	}
+	
+	private void ensureCapacity(int capacity) {
+		if(readIndex > 0)
+			compact();
+		ByteBuffer bigger = allocate(capacity);
+		buffer.flip();
+		bigger.put(buffer);
+		if(pool != null)
+			pool.release(buffer);
+		buffer = bigger;
+	}
+	
+	private ByteBuffer allocate(int capacity) {
+		if(pool == null)
+			return ByteBuffer.allocate(capacity);
+		return pool.acquire(capacity);
+	}
+	
+	/**
+	 * Returns the read buffer to the pool. The reader must not be used afterwards.
+	 */
+	public void release() {
+		if(pool != null && buffer != null)
+			pool.release(buffer);
+		buffer = null;
+	}
+}
@@ -0,0 +1,197 @@
+package utilities;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Fetches the articles a page links to while the player reads it, into an {@link ArticleCache},
+ * so the next click usually loads from the cache.
+ * 
+ * <p>Links are taken in the order they appear on the page, since players mostly click early in
+ * an article, with a link to the target first. Only the first links not already cached are
+ * fetched, a few at a time. Moving to another page cancels everything still queued or being
+ * fetched, except the page moved to, which {@link PagePipeline} waits for.</p>
+ * 
+ * @author Michael
+ */
+public class LinkPrefetcher {
+	private static final int MAX_LINKS = 16; //Links fetched per page
+	private static final int MAX_FETCHES = 4; //Fetches at once
+	
+	//Namespaces of pages that are not articles, ex. "File:Example.jpg"
+	private static final Set<String> NAMESPACES = Set.of("File", "Image", "Category", "Template", "Help", "Wikipedia",
+			"Portal", "Special", "Talk", "User", "Module", "Draft", "MediaWiki", "TimedText");
+	
+	/**
+	 * A link being fetched
+	 */
+	private static class Prefetch extends PagePipeline.Fetch {
+		final CompletableFuture<PagePipeline.Page> page = new CompletableFuture<>();
+		
+		Prefetch(String url) {
+			super(url);
+		}
+	}
+	
+	private final ArticleCache cache;
+	private final String origin;
+	//Prefix of article URLs
+	private final String wikiUrl;
+	private final ThreadFactory threads = PagePipeline.workerThreads();
+	
+	private final ArrayDeque<String> queue = new ArrayDeque<>();
+	//Counts pages, so links found for an earlier page are dropped
+	private long generation;
+	//By cache key
+	private final Map<String, Prefetch> inFlight = new HashMap<>();
+	
+	private long prefetched;
+	private long cancelled;
+	private long failed;
+	
+	/**
+	 * @param cache Cache prefetched pages are added to
+	 * @param origin Scheme, host and port of the wiki, ex. "https://en.wikipedia.org"
+	 */
+	public LinkPrefetcher(ArticleCache cache, String origin) {
+		this.cache = cache;
+		this.origin = origin;
+		wikiUrl = origin + "/wiki/";
+	}
+	
+	/**
+	 * Starts fetching the articles the page links to, replacing the links of any earlier page. The
+	 * page is searched for links in the background.
+	 * 
+	 * @param url URL of the page, which is not fetched again
+	 * @param html The page
+	 * @param target Title of the article the player is looking for, fetched first if linked. May be null.
+	 */
+	public synchronized void prefetch(String url, String html, String target) {
+		cancel(url);
+		long page = generation;
+		threads.newThread(() -> {
+			ArrayDeque<String> links = links(url, html, target);
+			synchronized(this) {
+				//Another page since
+				if(page != generation)
+					return;
+				queue.addAll(links);
+				startFetches();
+			}
+		}).start();
+	}
+	
+	/**
+	 * Article links of a page not yet cached, in the order they are fetched in.
+	 */
+	private ArrayDeque<String> links(String url, String html, String target) {
+		String current = ArticleCache.key(url);
+		String targetKey = target != null ? ArticleCache.key(wikiUrl + target) : null;
+		
+		ArrayDeque<String> links = new ArrayDeque<>();
+		Set<String> seen = new HashSet<>();
+		for(int start = html.indexOf(wikiUrl); start >= 0; start = html.indexOf(wikiUrl, start + 1)) {
+			//Only links, not the page's own address in scripts
+			if(start < 6 || !html.regionMatches(true, start - 6, "href=", 0, 5))
+				continue;
+			int end = start + wikiUrl.length();
+			while(end < html.length() && html.charAt(end) != '"' && html.charAt(end) != '\'' && html.charAt(end) != '#')
+				end++;
+			String link = html.substring(start, end);
+			String key = ArticleCache.key(link);
+			if(key == null || key.equals(current) || isNamespaced(key) || !seen.add(key))
+				continue;
+			//The target is worth fetching wherever it is on the page
+			boolean isTarget = key.equals(targetKey);
+			if((links.size() >= MAX_LINKS && !isTarget) || cache.contains(link))
+				continue;
+			if(isTarget)
+				links.addFirst(link);
+			else
+				links.addLast(link);
+		}
+		while(links.size() > MAX_LINKS)
+			links.removeLast();
+		return links;
+	}
+	
+	/**
+	 * Cancels all prefetching, except for the page at the URL if it is being fetched.
+	 */
+	public synchronized void cancel(String keepUrl) {
+		generation++;
+		String keep = keepUrl != null ? ArticleCache.key(keepUrl) : null;
+		cancelled += queue.size();
+		queue.clear();
+		inFlight.values().removeIf(prefetch -> {
+			if(ArticleCache.key(prefetch.url).equals(keep))
+				return false;
+			prefetch.cancel();
+			prefetch.page.cancel(false);
+			cancelled++;
+			return true;
+		});
+	}
+	
+	/**
+	 * The page at the URL, if it is being prefetched, or null.
+	 */
+	synchronized CompletableFuture<PagePipeline.Page> inFlight(String url) {
+		String key = ArticleCache.key(url);
+		Prefetch prefetch = key != null ? inFlight.get(key) : null;
+		return prefetch != null ? prefetch.page : null;
+	}
+	
+	private void startFetches() {
+		while(inFlight.size() < MAX_FETCHES && !queue.isEmpty()) {
+			Prefetch prefetch = new Prefetch(queue.poll());
+			//Kept from the page before
+			if(inFlight.putIfAbsent(ArticleCache.key(prefetch.url), prefetch) != null)
+				continue;
+			threads.newThread(() -> run(prefetch)).start();
+		}
+	}
+	
+	private void run(Prefetch prefetch) {
+		try {
+			PagePipeline.Page page = PagePipeline.fetch(prefetch, origin);
+			cache.put(page);
+			prefetch.page.complete(page);
+		} catch(IOException | RuntimeException e) {
+			prefetch.page.completeExceptionally(e);
+		}
+		
+		synchronized(this) {
+			String key = ArticleCache.key(prefetch.url);
+			//Not if it was cancelled and the page prefetched again since
+			if(inFlight.get(key) == prefetch) {
+				inFlight.remove(key);
+				if(prefetch.page.isCompletedExceptionally())
+					failed++;
+				else
+					prefetched++;
+			}
+			startFetches();
+		}
+	}
+	
+	private static boolean isNamespaced(String title) {
+		int colon = title.indexOf(':');
+		if(colon <= 0)
+			return false;
+		String namespace = title.substring(0, colon);
+		return NAMESPACES.contains(namespace) || namespace.endsWith(" talk");
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return "Prefetched pages: " + prefetched + " fetched, " + cancelled + " cancelled, " + failed + " failed";
+	}
+}
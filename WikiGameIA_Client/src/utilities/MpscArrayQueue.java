@@ -0,0 +1,115 @@
+package utilities;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer, backed by a power of two ring
+ * array. Producers claim a slot by advancing the producer index with a CAS and then publish the
+ * element into it; the consumer frees the slot by nulling it. Neither side allocates or locks.
+ * 
+ * <p>{@link #offer(Object)} is safe from any thread. {@link #poll()} and {@link #peek()} must only
+ * ever be called from one consumer thread at a time.</p>
+ * 
+ * @author Michael
+ */
+public class MpscArrayQueue<E> {
+	private final AtomicReferenceArray<E> buffer;
+	private final int mask;
+	private final int capacity;
+	
+	/**
+	 * Next slot to be claimed by a producer
+	 */
+	private final AtomicLong producerIndex = new AtomicLong();
+	/**
+	 * Producer-side cache of the consumer index, so a producer only reads the consumer's counter
+	 * when the queue looks full
+	 */
+	private volatile long producerLimit;
+	/**
+	 * Next slot to be read by the consumer. Only written by the consumer.
+	 */
+	private final AtomicLong consumerIndex = new AtomicLong();
+	
+	/**
+	 * @param capacity Maximum number of queued elements, rounded up to a power of two
+	 */
+	public MpscArrayQueue(int capacity) {
+		if(capacity < 2)
+			capacity = 2;
+		this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+		mask = this.capacity - 1;
+		buffer = new AtomicReferenceArray<>(this.capacity);
+		producerLimit = this.capacity;
+	}
+	
+	/**
+	 * Adds the element to the tail of the queue. Safe to call from any thread.
+	 * 
+	 * @return false if the queue is full
+	 */
+	public boolean offer(E e) {
+		if(e == null)
+			throw new NullPointerException();
+		
+		long index;
+		do {
+			index = producerIndex.get();
+			if(index >= producerLimit) {
+				long limit = consumerIndex.get() + capacity;
+				if(index >= limit)
+					return false;
+				producerLimit = limit;
+			}
+		} while(!producerIndex.compareAndSet(index, index + 1));
+		
+		//The slot is claimed; until this store lands the consumer sees the queue as not yet ready
+		buffer.lazySet((int) index & mask, e);
+		return true;
+	}
+	
+	/**
+	 * Removes and returns the head of the queue, or null if there is nothing to take. Consumer
+	 * thread only.
+	 * 
+	 * <p>Null is also returned while the producer that claimed the head slot has not yet published
+	 * into it, rather than spinning on a producer that may have been descheduled. In that case
+	 * {@link #isEmpty()} is still false, and the consumer should come back later.</p>
+	 */
+	public E poll() {
+		long index = consumerIndex.get();
+		int slot = (int) index & mask;
+		E e = buffer.get(slot);
+		if(e == null)
+			return null;
+		buffer.lazySet(slot, null);
+		consumerIndex.lazySet(index + 1);
+		return e;
+	}
+	
+	/**
+	 * Returns the head of the queue without removing it, or null if there is nothing to take, as for
+	 * {@link #poll()}. Consumer thread only.
+	 */
+	public E peek() {
+		return buffer.get((int) consumerIndex.get() & mask);
+	}
+	
+	public boolean isEmpty() {
+		return consumerIndex.get() == producerIndex.get();
+	}
+	
+	/**
+	 * Number of queued elements. Only a snapshot while producers are active.
+	 */
+	public int size() {
+		long consumer = consumerIndex.get();
+		long producer = producerIndex.get();
+		return (int) Math.max(0, Math.min(producer - consumer, capacity));
+	}
+	
+	public int capacity() {
+		return capacity;
+	}
+}
@@ -1,12 +1,12 @@
 package utilities;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLConnection;
 import java.util.Scanner;
-import java.util.regex.Matcher;
 
 /**
  * DEPRECATED
@@ -16,16 +16,13 @@ import java.util.regex.Matcher;
  */
 public class PageConfigurator {
 	private	URL currentURL;
-	private String rawHTML;
 	private String gameHTML;
 	
-	private static final String BODY_MARKER = "<body";
-	private static final String CONTENT_MARKER = "<div id=\"bodyContent\"";
-	private static final String CONTENT_END_MARKER = "<div id='mw-data-after-content'>";
-	private static final String FOOTER_MARKER = "</footer>";
+	private static final String WIKI_ORIGIN = "https://en.wikipedia.org";
 	
-	private static final String HREF_MARKER = "href=\"";
-	private static final String SRC_MARKER = "src=\"//";
+	private final PageRewriter rewriter = new PageRewriter(WIKI_ORIGIN);
+	//Reused between pages, so only the first long article grows it
+	private final StringBuilder page = new StringBuilder(1 << 16);
 	
 	/**
 	 * Constructor for PageConfigurator class. This constructor sets the URL for the PageConfigurator
@@ -47,72 +44,20 @@ public class PageConfigurator {
 	}
 	
 	/**
-	 * Loads the raw HTML given the PageConfigurator's current URL.
+	 * Loads the page at the current URL and processes it into a form suitable for the game as it is
+	 * read, see {@link PageRewriter}. Removes all body content that is not part of the main article
+	 * body (Ex. headers, footers, sidebars) and makes relative links absolute.
 	 * 
-	 * @return boolean	true if the webpage was loaded successfully
+	 * @throws IOException If the page could not be loaded, or is not a Wikipedia article
 	 */
-	private boolean loadPage() {
-		rawHTML = "";
-		gameHTML = "";
-		try {
-			BufferedReader webReader = new BufferedReader(new InputStreamReader(currentURL.openStream()));
-			String line;
-			while((line = webReader.readLine()) != null) {
-				rawHTML += line;
-				//System.out.println(line);
-			}
-			rawHTML = rawHTML.substring(4); //not sure why there's an extra null
-		} catch (IOException e) {
-			e.printStackTrace();
-			return false;
-		}
-		return true;
-	}
-	
-	/**
-	 * Processes the raw wikipedia page into a form suitable for the game. Specifically, it removes all body content
-	 * that is not part of the main article body. (Ex. headers, footers, citations, sidebars) As well as all non-game links.
-	 * (Ex. internal navigation links, citation notes)
-	 */
-	private void processPage() {
-		/*
-		 * Delete from first > after "<body" to "<div id="bodyContent""
-		 */
-		
-		int bodyDivStart = rawHTML.indexOf(BODY_MARKER);
-		int bodyDivEnd = rawHTML.substring(bodyDivStart).indexOf(">"); //RELATIVE
-		int contentStart = rawHTML.indexOf(CONTENT_MARKER);
-		
-		/*
-		 * Delete from > after /bodycontent to </footer>
-		 */
-		int contentEnd = rawHTML.indexOf(CONTENT_END_MARKER) + CONTENT_END_MARKER.length();
-
-		/*
-		 * Delete from contentEnd to </footer>
-		 */
-		int footerEnd = rawHTML.indexOf(FOOTER_MARKER);
-		
-		//Inclusion lines
-		gameHTML = rawHTML.substring(0, bodyDivStart + bodyDivEnd + 1); //head
-		gameHTML += rawHTML.substring(contentStart, contentEnd); //content
-		gameHTML += rawHTML.substring(footerEnd); //end scripts
-		
-		
-		
-		//Replace relative links with explicit wikipedia links
-		int relativeLinkIndex = -1;
-		int pageLoc = 0;
-		
-		gameHTML = gameHTML.replaceAll("href=\"", Matcher.quoteReplacement("href=\"" + "https://en.wikipedia.org"));
-		gameHTML = gameHTML.replace("src=\"", Matcher.quoteReplacement("src=\"" + "https:"));
-		
-		while((relativeLinkIndex = gameHTML.indexOf(HREF_MARKER, pageLoc) + HREF_MARKER.length()  - 1) != -1) {
-			if(relativeLinkIndex == 5)
-				break;
-			gameHTML = gameHTML.substring(0, relativeLinkIndex) + "https://en.wikipedia.org/" + gameHTML.substring(relativeLinkIndex);
-			pageLoc = relativeLinkIndex;
+	private void loadPage() throws IOException {
+		URLConnection connection = currentURL.openConnection();
+		page.setLength(0);
+		try(Reader reader = new InputStreamReader(connection.getInputStream(), PagePipeline.charset(connection.getContentType()))) {
+			if(!rewriter.rewrite(reader, page))
+				throw new IOException("No article content in " + currentURL);
 		}
+		gameHTML = page.toString();
 	}
 	
 	/**
@@ -127,9 +72,7 @@ public class PageConfigurator {
 	public String navigate(String URL) throws IOException, MalformedURLException {
 		System.out.println("a: " + URL);
 		currentURL = new URL(URL);
-		if(!loadPage())
-			throw new IOException();
-		processPage();
+		loadPage();
 		return gameHTML;
 	}
 	
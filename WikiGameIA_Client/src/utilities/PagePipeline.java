@@ -0,0 +1,309 @@
+package utilities;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BiConsumer;
+
+/**
+ * Fetches article pages and rewrites them for the game (see {@link PageRewriter}) on worker
+ * threads, so the GUI thread never waits on the network. Only the latest page asked for matters:
+ * asking for another supersedes the one in flight, which is cancelled mid-download and never
+ * delivered.
+ * 
+ * <p>Each page is fetched on its own thread, virtual if the runtime has them. Results are handed
+ * to the caller on the executor given with each request, ex. Platform::runLater. With an
+ * {@link ArticleCache}, the cache is consulted first and every page fetched is added to it. A page
+ * the {@link LinkPrefetcher} is already fetching is waited for rather than fetched twice.</p>
+ * 
+ * @author Michael
+ */
+public class PagePipeline {
+	private static final int CONNECT_TIMEOUT = 10_000;
+	private static final int READ_TIMEOUT = 20_000;
+	
+	/**
+	 * A page ready for the browser
+	 */
+	public static class Page {
+		private final String url;
+		private final String html;
+		
+		Page(String url, String html) {
+			this.url = url;
+			this.html = html;
+		}
+		
+		/**
+		 * The page's URL, after any redirect. Special:Random gives the article it led to.
+		 */
+		public String getUrl() {
+			return url;
+		}
+		
+		public String getHtml() {
+			return html;
+		}
+	}
+	
+	private final ThreadFactory threads = workerThreads();
+	private final String origin;
+	private final ArticleCache cache;
+	private final LinkPrefetcher prefetcher;
+	/**
+	 * Request in flight, or null
+	 */
+	private Request current;
+	
+	private long fetched;
+	private long superseded;
+	private long failed;
+	
+	public PagePipeline() {
+		this("https://en.wikipedia.org", null, null);
+	}
+	
+	/**
+	 * @param origin Scheme, host and port relative links in pages are resolved against, ex. "https://en.wikipedia.org"
+	 * @param cache Cache of pages, or null to fetch every page
+	 * @param prefetcher Prefetcher filling the cache, waited on for a page it is already fetching. May be null.
+	 */
+	public PagePipeline(String origin, ArticleCache cache, LinkPrefetcher prefetcher) {
+		this.origin = origin;
+		this.cache = cache;
+		this.prefetcher = prefetcher;
+	}
+	
+	/**
+	 * Fetches and rewrites the page at the URL in the background, cancelling the page in flight.
+	 * 
+	 * @param callback Given the page, or the reason it could not be loaded, on the executor. Not
+	 * called at all if the request is superseded first.
+	 */
+	public synchronized void load(String url, Executor executor, BiConsumer<Page, Exception> callback) {
+		if(current != null) {
+			current.cancel();
+			superseded++;
+		}
+		Request request = new Request(url, executor, callback);
+		current = request;
+		threads.newThread(request).start();
+	}
+	
+	/**
+	 * Cancels the page in flight, if any.
+	 */
+	public synchronized void cancel() {
+		if(current != null) {
+			current.cancel();
+			current = null;
+			superseded++;
+		}
+	}
+	
+	/**
+	 * Delivers a finished request unless it was superseded while it finished.
+	 */
+	private void finish(Request request, Page page, Exception error) {
+		synchronized(this) {
+			if(request != current)
+				return;
+			current = null;
+			if(error == null)
+				fetched++;
+			else
+				failed++;
+		}
+		request.executor.execute(() -> {
+			//Superseded after it was handed over, but before the callback ran
+			if(!request.cancelled)
+				request.callback.accept(page, error);
+		});
+	}
+	
+	/**
+	 * Fetches a page and rewrites it for the game as it is read, stopping early if the request is
+	 * cancelled.
+	 * 
+	 * @throws IOException If the page could not be loaded, or is not a Wikipedia article
+	 */
+	static Page fetch(Fetch request, String origin) throws IOException {
+		URLConnection connection = new URL(request.url).openConnection();
+		connection.setConnectTimeout(CONNECT_TIMEOUT);
+		connection.setReadTimeout(READ_TIMEOUT);
+		request.connection = connection;
+		if(request.cancelled)
+			throw new InterruptedIOException("Page request cancelled");
+		
+		StringBuilder html = new StringBuilder(1 << 16);
+		try(Reader reader = new CancellableReader(new InputStreamReader(connection.getInputStream(),
+				charset(connection.getContentType())), request)) {
+			if(!new PageRewriter(origin).rewrite(reader, html))
+				throw new IOException("No article content in " + request.url);
+		}
+		//Redirects are followed, so this is the article Special:Random or a redirect led to
+		return new Page(connection.getURL().toString(), html.toString());
+	}
+	
+	/**
+	 * Charset named in a Content-Type header, UTF-8 if there is none.
+	 */
+	static Charset charset(String contentType) {
+		if(contentType != null) {
+			for(String parameter : contentType.split(";")) {
+				parameter = parameter.trim();
+				if(parameter.regionMatches(true, 0, "charset=", 0, 8)) {
+					try {
+						return Charset.forName(parameter.substring(8).replace("\"", ""));
+					} catch(IllegalArgumentException e) {
+						break;
+					}
+				}
+			}
+		}
+		return StandardCharsets.UTF_8;
+	}
+	
+	/**
+	 * A page being fetched, which can be cancelled from another thread
+	 */
+	static class Fetch {
+		final String url;
+		volatile boolean cancelled;
+		private volatile URLConnection connection;
+		
+		Fetch(String url) {
+			this.url = url;
+		}
+		
+		void cancel() {
+			cancelled = true;
+			//Unblocks a read waiting on the network
+			URLConnection open = connection;
+			if(open instanceof HttpURLConnection)
+				((HttpURLConnection) open).disconnect();
+		}
+	}
+	
+	/**
+	 * One page asked for by the browser
+	 */
+	private class Request extends Fetch implements Runnable {
+		private final Executor executor;
+		private final BiConsumer<Page, Exception> callback;
+		//Page the prefetcher is already fetching, waited on instead of fetching it again
+		private volatile CompletableFuture<Page> prefetch;
+		
+		Request(String url, Executor executor, BiConsumer<Page, Exception> callback) {
+			super(url);
+			this.executor = executor;
+			this.callback = callback;
+		}
+		
+		@Override
+		void cancel() {
+			super.cancel();
+			CompletableFuture<Page> waiting = prefetch;
+			if(waiting != null)
+				waiting.cancel(false);
+		}
+		
+		@Override
+		public void run() {
+			try {
+				Page page = cache != null ? cache.get(url) : null;
+				if(page == null && prefetcher != null)
+					page = awaitPrefetch();
+				if(page == null) {
+					page = fetch(this, origin);
+					if(cache != null)
+						cache.put(page);
+				}
+				finish(this, page, null);
+			} catch(IOException | RuntimeException e) {
+				if(!cancelled)
+					finish(this, null, e);
+			}
+		}
+		
+		/**
+		 * Waits for the prefetcher if it is already fetching this page.
+		 * 
+		 * @return The page, or null if it is not being prefetched or the prefetch failed
+		 */
+		private Page awaitPrefetch() {
+			CompletableFuture<Page> inFlight = prefetcher.inFlight(url);
+			if(inFlight == null)
+				return null;
+			//A copy, so cancelling this request leaves the prefetch to finish
+			prefetch = inFlight.copy();
+			if(cancelled)
+				return null;
+			try {
+				return prefetch.get();
+			} catch(ExecutionException | InterruptedException | CancellationException e) {
+				return null;
+			}
+		}
+	}
+	
+	/**
+	 * Reader that stops once its request is cancelled, so a superseded page is not read to the end.
+	 */
+	private static class CancellableReader extends Reader {
+		private final Reader in;
+		private final Fetch request;
+		
+		CancellableReader(Reader in, Fetch request) {
+			this.in = in;
+			this.request = request;
+		}
+		
+		@Override
+		public int read(char[] buffer, int offset, int length) throws IOException {
+			if(request.cancelled)
+				throw new InterruptedIOException("Page request cancelled");
+			return in.read(buffer, offset, length);
+		}
+		
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Virtual threads if the runtime has them (Java 21+), found by reflection since the client is
+	 * built for Java 11; otherwise daemon platform threads.
+	 */
+	static ThreadFactory workerThreads() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch(ReflectiveOperationException e) {
+			return runnable -> {
+				Thread thread = new Thread(runnable, "PagePipeline");
+				thread.setDaemon(true);
+				return thread;
+			};
+		}
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return "Pages: " + fetched + " loaded, " + superseded + " superseded, " + failed + " failed";
+	}
+}
@@ -0,0 +1,236 @@
+package utilities;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Turns a Wikipedia article page into the game's version of it in a single pass over the response,
+ * without ever holding the raw page as a String.
+ * 
+ * <p>The page head and the opening body tag are kept, then everything up to the article content
+ * (header, sidebars, menus) is dropped. The content is kept up to the end of the article, everything
+ * from there to the end of the footer is dropped, and the closing scripts are kept. In everything
+ * kept, relative links and sources ("/wiki/...", "//upload...") are made absolute so the page
+ * works when loaded as content.</p>
+ * 
+ * <p>Input is read through a small sliding buffer, so the lookahead a marker needs never requires
+ * more than that buffer. Output is appended to a caller's StringBuilder, which can be reused
+ * between pages. Not thread safe; use one rewriter per thread.</p>
+ * 
+ * @author Michael
+ */
+public class PageRewriter {
+	private static final String BODY_MARKER = "<body";
+	private static final String CONTENT_MARKER = "<div id=\"bodyContent\"";
+	private static final String CONTENT_END_MARKER = "<div id=\"mw-data-after-content\">";
+	private static final String FOOTER_MARKER = "</footer>";
+	
+	private static final String HREF_MARKER = "href=\"";
+	private static final String SRC_MARKER = "src=\"";
+	
+	private static final int BUFFER_SIZE = 8192;
+	
+	/**
+	 * Where the rewriter is in the page
+	 */
+	private enum Region {
+		/**
+		 * Head, kept up to and including the body tag
+		 */
+		HEAD,
+		/**
+		 * Header and sidebars, dropped
+		 */
+		BEFORE_CONTENT,
+		/**
+		 * Article content, kept
+		 */
+		CONTENT,
+		/**
+		 * Everything after the article up to the end of the footer, dropped
+		 */
+		AFTER_CONTENT,
+		/**
+		 * Closing scripts, kept
+		 */
+		TAIL
+	}
+	
+	private final String origin;
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int position;
+	private int limit;
+	private Reader in;
+	
+	/**
+	 * @param origin Scheme and host relative links are resolved against, ex. "https://en.wikipedia.org"
+	 */
+	public PageRewriter(String origin) {
+		this.origin = origin;
+	}
+	
+	/**
+	 * Rewrites the page read from the reader, appending the game's version of it to out.
+	 * 
+	 * @return True if the article content was found. If not, out holds only the head of the page.
+	 */
+	public boolean rewrite(Reader in, StringBuilder out) throws IOException {
+		this.in = in;
+		position = 0;
+		limit = 0;
+		Region region = Region.HEAD;
+		boolean foundContent = false;
+		char previous = ' ';
+		
+		try {
+			while(available(1)) {
+				boolean keep = region == Region.HEAD || region == Region.CONTENT || region == Region.TAIL;
+				
+				//Copy or skip the run of characters up to the next one that may start a marker
+				int run = position;
+				while(run < limit && !isMarkerStart(buffer[run], keep))
+					run++;
+				if(run > position) {
+					if(keep)
+						out.append(buffer, position, run - position);
+					previous = buffer[run - 1];
+					position = run;
+					continue;
+				}
+				
+				char c = buffer[position];
+				if(c == '<') {
+					switch(region) {
+					case HEAD:
+						if(matches(BODY_MARKER)) {
+							//Keep the body tag itself
+							while(available(1) && buffer[position] != '>')
+								out.append(buffer[position++]);
+							if(available(1))
+								out.append(buffer[position++]);
+							region = Region.BEFORE_CONTENT;
+							previous = '>';
+							continue;
+						}
+						break;
+					case BEFORE_CONTENT:
+						if(matches(CONTENT_MARKER)) {
+							region = Region.CONTENT;
+							foundContent = true;
+							keep = true;
+						}
+						break;
+					case CONTENT:
+						if(matches(CONTENT_END_MARKER)) {
+							appendMarker(out, CONTENT_END_MARKER);
+							region = Region.AFTER_CONTENT;
+							previous = '>';
+							continue;
+						}
+						break;
+					case AFTER_CONTENT:
+						if(matches(FOOTER_MARKER)) {
+							region = Region.TAIL;
+							keep = true;
+						}
+						break;
+					default:
+						break;
+					}
+				} else if(isSpace(previous)) {
+					String attribute = Character.toLowerCase(c) == 'h' ? HREF_MARKER : SRC_MARKER;
+					if(matches(attribute)) {
+						appendMarker(out, attribute);
+						resolveUrl(out);
+						previous = '"';
+						continue;
+					}
+				}
+				
+				if(keep)
+					out.append(c);
+				previous = c;
+				position++;
+			}
+		} finally {
+			this.in = null;
+		}
+		return foundContent;
+	}
+	
+	/**
+	 * Called just after an href or src attribute's opening quote: makes the URL absolute if it is
+	 * relative to the site's root or to the scheme.
+	 */
+	private void resolveUrl(StringBuilder out) throws IOException {
+		if(!available(1) || buffer[position] != '/')
+			return;
+		if(available(2) && buffer[position + 1] == '/')
+			out.append(origin, 0, origin.indexOf(':') + 1);
+		else
+			out.append(origin);
+	}
+	
+	/**
+	 * Copies a marker that was just matched to the output, advancing past it.
+	 */
+	private void appendMarker(StringBuilder out, String marker) {
+		out.append(buffer, position, marker.length());
+		position += marker.length();
+	}
+	
+	/**
+	 * True if the input at the current position starts with the marker, ignoring case and treating
+	 * single and double quotes alike.
+	 */
+	private boolean matches(String marker) throws IOException {
+		if(!available(marker.length()))
+			return false;
+		for(int i = 0; i < marker.length(); i++) {
+			char expected = marker.charAt(i);
+			char actual = buffer[position + i];
+			if(expected == '"') {
+				if(actual != '"' && actual != '\'')
+					return false;
+			} else if(Character.toLowerCase(actual) != Character.toLowerCase(expected)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Makes sure at least the given number of characters are buffered from the current position,
+	 * reading more as needed.
+	 * 
+	 * @return False if the input ends first
+	 */
+	private boolean available(int count) throws IOException {
+		if(limit - position >= count)
+			return true;
+		if(position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+		while(limit < count) {
+			int read = in.read(buffer, limit, buffer.length - limit);
+			if(read < 0)
+				return false;
+			limit += read;
+		}
+		return true;
+	}
+	
+	/**
+	 * True for characters a marker may start with: a tag anywhere, and an href or src attribute
+	 * where the page is kept.
+	 */
+	private static boolean isMarkerStart(char c, boolean keep) {
+		return c == '<' || (keep && (c == 'h' || c == 's' || c == 'H' || c == 'S'));
+	}
+	
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+	}
+}
@@ -0,0 +1,132 @@
+package utilities;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+
+/**
+ * Benchmark of page processing over a corpus of saved article pages (the HTML Wikipedia serves
+ * for them, ex. saved with "curl -o"). Each page is read from memory the way it would be read
+ * from the network, so only the processing is measured.
+ * 
+ * <pre>streaming -> PageRewriter, into one reused StringBuilder<br>
+ * legacy    -> the string building and rewriting PageConfigurator used to do, measured once per
+ *              page since it is quadratic in the page's size</pre>
+ * 
+ * Times are the best of the measured rounds, after warming up, with bytes allocated per page.
+ * 
+ * <pre>Usage: PageRewriterBenchmark (corpus directory) [rounds]</pre>
+ * 
+ * @author Michael
+ */
+public class PageRewriterBenchmark {
+	private static final int WARMUP_ROUNDS = 3;
+	
+	private static final String BODY_MARKER = "<body";
+	private static final String CONTENT_MARKER = "<div id=\"bodyContent\"";
+	private static final String CONTENT_END_MARKER = "<div id='mw-data-after-content'>";
+	private static final String FOOTER_MARKER = "</footer>";
+	private static final String HREF_MARKER = "href=\"";
+	
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.out.println("Usage: PageRewriterBenchmark (corpus directory) [rounds]");
+			return;
+		}
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		
+		List<Path> files = new ArrayList<>();
+		try(DirectoryStream<Path> directory = Files.newDirectoryStream(Paths.get(args[0]))) {
+			for(Path file : directory) {
+				if(Files.isRegularFile(file))
+					files.add(file);
+			}
+		}
+		files.sort(null);
+		
+		System.out.println(files.size() + " pages, best of " + rounds + " rounds");
+		System.out.println("Page                                 KB   streaming ms  bytes/page   legacy ms   bytes/page");
+		PageRewriter rewriter = new PageRewriter("https://en.wikipedia.org");
+		StringBuilder out = new StringBuilder(1 << 16);
+		long streamingTotal = 0;
+		long legacyTotal = 0;
+		for(Path file : files) {
+			byte[] page = Files.readAllBytes(file);
+			
+			long best = Long.MAX_VALUE;
+			long allocated = 0;
+			for(int round = 0; round < WARMUP_ROUNDS + rounds; round++) {
+				long bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+				long start = System.nanoTime();
+				out.setLength(0);
+				rewriter.rewrite(new InputStreamReader(new ByteArrayInputStream(page), StandardCharsets.UTF_8), out);
+				long time = System.nanoTime() - start;
+				bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+				if(round >= WARMUP_ROUNDS && time < best) {
+					best = time;
+					allocated = bytes;
+				}
+			}
+			
+			long bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+			long start = System.nanoTime();
+			legacy(page);
+			long legacyTime = System.nanoTime() - start;
+			bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+			
+			streamingTotal += best;
+			legacyTotal += legacyTime;
+			String name = file.getFileName().toString();
+			System.out.printf("%-32s %7d %14.2f %11d %11.1f %12d%n", name.length() > 32 ? name.substring(0, 32) : name,
+					page.length / 1024, best / 1e6, allocated, legacyTime / 1e6, bytes);
+		}
+		System.out.printf("Total: streaming %.1f ms, legacy %.1f ms%n", streamingTotal / 1e6, legacyTotal / 1e6);
+	}
+	
+	/**
+	 * The page processing PageConfigurator did before PageRewriter, kept only as the baseline.
+	 * Pages without its markers throw, as they did there.
+	 */
+	private static String legacy(byte[] page) throws IOException {
+		String rawHTML = "";
+		BufferedReader webReader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(page), StandardCharsets.UTF_8));
+		String line;
+		while((line = webReader.readLine()) != null)
+			rawHTML += line;
+		
+		int bodyDivStart = rawHTML.indexOf(BODY_MARKER);
+		int bodyDivEnd = rawHTML.substring(bodyDivStart).indexOf(">");
+		int contentStart = rawHTML.indexOf(CONTENT_MARKER);
+		int contentEnd = rawHTML.indexOf(CONTENT_END_MARKER) + CONTENT_END_MARKER.length();
+		int footerEnd = rawHTML.indexOf(FOOTER_MARKER);
+		
+		String gameHTML = rawHTML.substring(0, bodyDivStart + bodyDivEnd + 1);
+		gameHTML += rawHTML.substring(contentStart, contentEnd);
+		gameHTML += rawHTML.substring(footerEnd);
+		
+		gameHTML = gameHTML.replaceAll("href=\"", Matcher.quoteReplacement("href=\"" + "https://en.wikipedia.org"));
+		gameHTML = gameHTML.replace("src=\"", Matcher.quoteReplacement("src=\"" + "https:"));
+		
+		//The original loop never ended once it ran out of links; this one stops there
+		int relativeLinkIndex;
+		int pageLoc = 0;
+		while((relativeLinkIndex = gameHTML.indexOf(HREF_MARKER, pageLoc)) != -1) {
+			relativeLinkIndex += HREF_MARKER.length();
+			gameHTML = gameHTML.substring(0, relativeLinkIndex) + "https://en.wikipedia.org/" + gameHTML.substring(relativeLinkIndex);
+			pageLoc = relativeLinkIndex;
+		}
+		return gameHTML;
+	}
+}
@@ -7,17 +7,17 @@ package utilities;
  */
 public class Stack {
 
-	Node top;
+	Node<String> top;
 	
 	public Stack() {
 	}
 	
 	public Stack(String s) {
-		top = new Node(s, null);
+		top = new Node<>(s, null);
 	}
 	
 	public void push(String s) {
-		Node temp = new Node(s, top);
+		Node<String> temp = new Node<>(s, top);
 		top = temp;
 	}
 	
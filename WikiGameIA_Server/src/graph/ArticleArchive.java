@@ -0,0 +1,523 @@
+package graph;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The rendered articles of a Wikipedia dump (see {@link WikitextRenderer}), for serving articles
+ * without Wikipedia. Articles are stored deflated in blocks of about 64 KB, so a lookup reads and
+ * inflates one block, and are found by title through a memory mapped index sorted the way
+ * LinkGraph numbers articles. Redirects lead to the article they redirect to.
+ * 
+ * <pre>java -Xmx4g graph.ArticleArchive &lt;dump.xml[.gz|.bz2]&gt; &lt;archive&gt; [--threads=&lt;cores - 1&gt;]</pre>
+ * 
+ * <pre>File layout (little endian):
+ * Header   (32 bytes)     -> MAGIC, VERSION, article count, block count, title bytes (long), data bytes (long)
+ * Titles   (4 * (n + 1))  -> start of each title in the title bytes, with the end of the last one after it
+ * Entries  (16 * n)       -> block, offset in the inflated block, length, and the article redirected to or -1
+ * Blocks   (8 * (b + 1))  -> start of each block in the data, with the end of the last one after it
+ * Title bytes             -> titles, normalized, as UTF-8, in unsigned byte order
+ * Data                    -> deflated blocks of article HTML</pre>
+ * 
+ * Everything up to the data is memory mapped. Blocks are read with positional reads, so lookups
+ * are safe from any number of threads.
+ * 
+ * @author Michael
+ */
+public class ArticleArchive implements AutoCloseable {
+	private static final int MAGIC = 0x57474141; //"WGAA"
+	private static final int VERSION = 1;
+	private static final int HEADER_LENGTH = 32;
+	private static final int ENTRY_LENGTH = 16;
+	/**
+	 * Rendered bytes of articles put in one block
+	 */
+	private static final int BLOCK_SIZE = 64 * 1024;
+	private static final int MAX_REDIRECT_HOPS = 8;
+	
+	private final FileChannel channel;
+	private final int count;
+	private final int blocks;
+	private final ByteBuffer titleOffsets;
+	private final ByteBuffer entries;
+	private final ByteBuffer blockOffsets;
+	private final ByteBuffer titles;
+	private final long dataStart;
+	
+	private ArticleArchive(FileChannel channel, MappedByteBuffer index, int count, int blocks, long titleLength) {
+		this.channel = channel;
+		this.count = count;
+		this.blocks = blocks;
+		int position = HEADER_LENGTH;
+		titleOffsets = slice(index, position, 4L * (count + 1));
+		position += 4 * (count + 1);
+		entries = slice(index, position, (long) ENTRY_LENGTH * count);
+		position += ENTRY_LENGTH * count;
+		blockOffsets = slice(index, position, 8L * (blocks + 1));
+		position += 8 * (blocks + 1);
+		titles = slice(index, position, titleLength);
+		dataStart = position + titleLength;
+	}
+	
+	/**
+	 * Opens an archive, mapping its index.
+	 * 
+	 * @throws IOException If the file cannot be read or is not an article archive
+	 */
+	public static ArticleArchive open(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+			while(header.hasRemaining()) {
+				if(channel.read(header, header.position()) < 0)
+					throw new IOException("Not an article archive");
+			}
+			if(header.getInt(0) != MAGIC)
+				throw new IOException("Not an article archive");
+			int version = header.getInt(4);
+			if(version != VERSION)
+				throw new IOException("Unsupported article archive version " + version);
+			int count = header.getInt(8);
+			int blocks = header.getInt(12);
+			long titleLength = header.getLong(16);
+			long dataLength = header.getLong(24);
+			
+			long indexLength = HEADER_LENGTH + 4L * (count + 1) + (long) ENTRY_LENGTH * count + 8L * (blocks + 1) + titleLength;
+			if(count < 0 || blocks < 0 || indexLength > Integer.MAX_VALUE || indexLength + dataLength != channel.size())
+				throw new IOException("Article archive is truncated or corrupt");
+			MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0, indexLength);
+			index.order(ByteOrder.LITTLE_ENDIAN);
+			return new ArticleArchive(channel, index, count, blocks, titleLength);
+		} catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	private static ByteBuffer slice(ByteBuffer buffer, int position, long length) {
+		ByteBuffer duplicate = buffer.duplicate();
+		duplicate.position(position).limit((int) (position + length));
+		return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	/**
+	 * Number of titles, articles and redirects.
+	 */
+	public int size() {
+		return count;
+	}
+	
+	/**
+	 * Returns the ID of the title, or -1 if there is none. Titles are normalized first, so
+	 * "paris" and "Paris" are the same article.
+	 */
+	public int find(String title) {
+		byte[] key = LinkGraph.normalizeTitle(title).getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = count - 1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			int compared = compare(middle, key);
+			if(compared < 0)
+				low = middle + 1;
+			else if(compared > 0)
+				high = middle - 1;
+			else
+				return middle;
+		}
+		return -1;
+	}
+	
+	private int compare(int id, byte[] key) {
+		int start = titleOffsets.getInt(id * 4);
+		int length = titleOffsets.getInt(id * 4 + 4) - start;
+		int common = Math.min(length, key.length);
+		for(int i = 0; i < common; i++) {
+			int difference = (titles.get(start + i) & 0xff) - (key[i] & 0xff);
+			if(difference != 0)
+				return difference;
+		}
+		return length - key.length;
+	}
+	
+	public String title(int id) {
+		int start = titleOffsets.getInt(id * 4);
+		byte[] bytes = new byte[titleOffsets.getInt(id * 4 + 4) - start];
+		for(int i = 0; i < bytes.length; i++)
+			bytes[i] = titles.get(start + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * The article the title redirects to, or the ID itself if it is an article.
+	 */
+	public int resolve(int id) {
+		int target = entries.getInt(id * ENTRY_LENGTH + 12);
+		return target >= 0 ? target : id;
+	}
+	
+	/**
+	 * A random article, never a redirect or an empty page.
+	 */
+	public int random() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		while(true) {
+			int id = random.nextInt(count);
+			if(entries.getInt(id * ENTRY_LENGTH + 12) < 0 && entries.getInt(id * ENTRY_LENGTH + 8) > 0)
+				return id;
+		}
+	}
+	
+	/**
+	 * Reads and inflates an article's HTML, following a redirect.
+	 */
+	public byte[] article(int id) throws IOException {
+		id = resolve(id);
+		int entry = id * ENTRY_LENGTH;
+		int block = entries.getInt(entry);
+		int offset = entries.getInt(entry + 4);
+		int length = entries.getInt(entry + 8);
+		
+		long start = blockOffsets.getLong(block * 8);
+		int compressedLength = (int) (blockOffsets.getLong(block * 8 + 8) - start);
+		ByteBuffer compressed = ByteBuffer.allocate(compressedLength);
+		while(compressed.hasRemaining()) {
+			if(channel.read(compressed, dataStart + start + compressed.position()) < 0)
+				throw new IOException("Article archive is truncated");
+		}
+		
+		//Only as much of the block as the article needs is inflated
+		byte[] inflated = new byte[offset + length];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed.array());
+			int done = 0;
+			while(done < inflated.length) {
+				int read = inflater.inflate(inflated, done, inflated.length - done);
+				if(read == 0 && (inflater.finished() || inflater.needsInput()))
+					throw new IOException("Article block " + block + " is corrupt");
+				done += read;
+			}
+		} catch(DataFormatException e) {
+			throw new IOException("Article block " + block + " is corrupt", e);
+		} finally {
+			inflater.end();
+		}
+		return offset == 0 ? inflated : Arrays.copyOfRange(inflated, offset, offset + length);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	@Override
+	public String toString() {
+		return "Article archive: " + count + " titles in " + blocks + " blocks";
+	}
+	
+	public static void main(String[] args) throws Exception {
+		Path dump = null;
+		Path output = null;
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		for(String arg : args) {
+			if(arg.startsWith("--threads="))
+				threads = Integer.parseInt(arg.substring("--threads=".length()));
+			else if(dump == null)
+				dump = Paths.get(arg);
+			else if(output == null)
+				output = Paths.get(arg);
+		}
+		if(dump == null || output == null || threads < 1) {
+			System.out.println("Usage: java graph.ArticleArchive <dump.xml[.gz|.bz2]> <archive> [--threads=<cores - 1>]");
+			System.exit(1);
+		}
+		
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			new Builder(pool, threads * 4).build(dump, output);
+		} finally {
+			pool.shutdownNow();
+		}
+		System.out.println("Article archive written in " + (System.nanoTime() - start) / 1000000 + " ms");
+		try(ArticleArchive archive = open(output)) {
+			System.out.println(archive + ", " + Files.size(output) / (1024 * 1024) + " MB");
+		}
+	}
+	
+	/**
+	 * Writes an archive from a dump in one pass. The reading thread collects articles into blocks
+	 * of wikitext, which the pool renders and deflates while the dump is read on. Blocks are written
+	 * to a temporary data file in the order they were read, with at most a few waiting at once.
+	 */
+	private static class Builder implements DumpReader.PageHandler {
+		private final ForkJoinPool pool;
+		private final int maxBlocks;
+		private final ArrayDeque<CompletableFuture<RenderedBlock>> pending = new ArrayDeque<>();
+		
+		private final TitleTable titleTable = new TitleTable();
+		//By index in the title table: block, offset and length, or -1 for a redirect
+		private int[] locations = new int[3 << 16];
+		private final TitleTable redirectTargets = new TitleTable();
+		//Index of the redirect each target belongs to, in the order they were added
+		private int[] redirectSources = new int[1 << 16];
+		
+		private int[] blockPages = new int[64];
+		private String[] blockTexts = new String[64];
+		private int blockCount;
+		private int blockChars;
+		
+		private FileChannel data;
+		private long[] blockStarts = new long[1 << 12];
+		private int blocksWritten;
+		private long pages;
+		
+		Builder(ForkJoinPool pool, int maxBlocks) {
+			this.pool = pool;
+			this.maxBlocks = maxBlocks;
+		}
+		
+		void build(Path dump, Path output) throws IOException {
+			Path dataFile = Files.createTempFile(output.toAbsolutePath().getParent(), "articles", ".tmp");
+			try {
+				data = FileChannel.open(dataFile, StandardOpenOption.WRITE, StandardOpenOption.READ);
+				try(DumpReader reader = new DumpReader(dump, true)) {
+					reader.read(this);
+				}
+				submit();
+				while(!pending.isEmpty())
+					write(pending.poll().join());
+				System.out.println("Rendered " + pages + " pages into " + blocksWritten + " blocks, " + data.size() / (1024 * 1024) + " MB");
+				writeArchive(output);
+			} finally {
+				if(data != null)
+					data.close();
+				Files.deleteIfExists(dataFile);
+			}
+		}
+		
+		@Override
+		public void page(String title, String redirect, String text) throws IOException {
+			int index = titleTable.add(LinkGraph.normalizeTitle(title).getBytes(StandardCharsets.UTF_8));
+			if(index * 3 + 3 > locations.length)
+				locations = Arrays.copyOf(locations, locations.length * 2);
+			pages++;
+			if(pages % 100000 == 0)
+				System.out.println(pages + " pages read");
+			
+			if(redirect != null || text == null) {
+				locations[index * 3] = -1;
+				if(redirect != null) {
+					int target = redirectTargets.add(LinkGraph.normalizeTitle(redirect).getBytes(StandardCharsets.UTF_8));
+					if(target == redirectSources.length)
+						redirectSources = Arrays.copyOf(redirectSources, target * 2);
+					redirectSources[target] = index;
+				}
+				return;
+			}
+			
+			if(blockCount == blockPages.length) {
+				blockPages = Arrays.copyOf(blockPages, blockCount * 2);
+				blockTexts = Arrays.copyOf(blockTexts, blockCount * 2);
+			}
+			blockPages[blockCount] = index;
+			blockTexts[blockCount] = text;
+			blockCount++;
+			blockChars += text.length();
+			//Rendering drops templates and markup, so the wikitext is a generous estimate of the HTML
+			if(blockChars >= BLOCK_SIZE)
+				submit();
+		}
+		
+		/**
+		 * Hands the articles collected to the pool as the next block.
+		 */
+		private void submit() throws IOException {
+			if(blockCount == 0)
+				return;
+			int[] indexes = Arrays.copyOf(blockPages, blockCount);
+			String[] texts = Arrays.copyOf(blockTexts, blockCount);
+			Arrays.fill(blockTexts, 0, blockCount, null);
+			blockCount = 0;
+			blockChars = 0;
+			
+			pending.add(CompletableFuture.supplyAsync(() -> RenderedBlock.render(indexes, texts), pool));
+			while(pending.size() > maxBlocks)
+				write(pending.poll().join());
+		}
+		
+		/**
+		 * Appends a rendered block to the data file and records where its articles are.
+		 */
+		private void write(RenderedBlock block) throws IOException {
+			int number = blocksWritten++;
+			if(number + 2 > blockStarts.length)
+				blockStarts = Arrays.copyOf(blockStarts, blockStarts.length * 2);
+			long start = data.size();
+			ByteBuffer buffer = ByteBuffer.wrap(block.compressed);
+			while(buffer.hasRemaining())
+				data.write(buffer, start + buffer.position());
+			blockStarts[number] = start;
+			blockStarts[number + 1] = start + block.compressed.length;
+			
+			for(int i = 0; i < block.indexes.length; i++) {
+				int location = block.indexes[i] * 3;
+				locations[location] = number;
+				locations[location + 1] = block.offsets[i];
+				locations[location + 2] = block.offsets[i + 1] - block.offsets[i];
+			}
+		}
+		
+		/**
+		 * Sorts the titles, resolves redirects and writes the archive with the data appended.
+		 */
+		private void writeArchive(Path output) throws IOException {
+			int added = titleTable.size();
+			int[] ids = titleTable.sort();
+			int count = titleTable.size();
+			
+			//By ID; a title added more than once keeps the last page read
+			int[] entries = new int[count * 4];
+			Arrays.fill(entries, -1);
+			for(int index = 0; index < added; index++) {
+				int entry = ids[index] * 4;
+				entries[entry] = locations[index * 3];
+				if(entries[entry] >= 0) {
+					entries[entry + 1] = locations[index * 3 + 1];
+					entries[entry + 2] = locations[index * 3 + 2];
+				}
+			}
+			
+			//Each redirect's target by ID. The targets were never sorted, so they are still in the order added
+			int[] redirects = new int[count];
+			Arrays.fill(redirects, -1);
+			byte[] targetData = redirectTargets.data();
+			int[] targetOffsets = redirectTargets.offsets();
+			for(int target = 0; target < redirectTargets.size(); target++) {
+				int id = titleTable.find(targetData, targetOffsets[target], targetOffsets[target + 1]);
+				redirects[ids[redirectSources[target]]] = id;
+			}
+			
+			int broken = 0;
+			for(int id = 0; id < count; id++) {
+				int entry = id * 4;
+				if(entries[entry] >= 0)
+					continue;
+				int target = redirects[id];
+				for(int hop = 0; hop < MAX_REDIRECT_HOPS && target >= 0 && entries[target * 4] < 0; hop++)
+					target = redirects[target];
+				if(target < 0 || entries[target * 4] < 0) {
+					//A redirect to nothing, or a page without text: served as an empty article
+					broken++;
+					entries[entry] = 0;
+					entries[entry + 1] = 0;
+					entries[entry + 2] = 0;
+					continue;
+				}
+				//A redirect resolved earlier in this loop
+				if(entries[target * 4 + 3] >= 0)
+					target = entries[target * 4 + 3];
+				System.arraycopy(entries, target * 4, entries, entry, 3);
+				entries[entry + 3] = target;
+			}
+			if(broken > 0)
+				System.out.println(broken + " redirects lead nowhere");
+			
+			byte[] titleData = titleTable.data();
+			int[] titleOffsets = titleTable.offsets();
+			int blocks = Math.max(blocksWritten, 1);
+			if(blocksWritten == 0)
+				write(RenderedBlock.render(new int[0], new String[0]));
+			long dataLength = blockStarts[blocks];
+			
+			try(FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+				header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(blocks).putLong(titleData.length).putLong(dataLength).flip();
+				writeFully(out, header);
+				
+				ByteBuffer index = ByteBuffer.allocate(4 * (count + 1) + ENTRY_LENGTH * count + 8 * (blocks + 1)).order(ByteOrder.LITTLE_ENDIAN);
+				for(int i = 0; i <= count; i++)
+					index.putInt(titleOffsets[i]);
+				for(int value : entries)
+					index.putInt(value);
+				for(int i = 0; i <= blocks; i++)
+					index.putLong(blockStarts[i]);
+				index.flip();
+				writeFully(out, index);
+				writeFully(out, ByteBuffer.wrap(titleData, 0, titleOffsets[count]));
+				
+				long position = out.position();
+				long copied = 0;
+				while(copied < dataLength)
+					copied += data.transferTo(copied, dataLength - copied, out.position(position + copied));
+			}
+		}
+		
+		private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+			while(buffer.hasRemaining())
+				out.write(buffer);
+		}
+	}
+	
+	/**
+	 * A block of articles rendered and deflated
+	 */
+	private static class RenderedBlock {
+		final int[] indexes;
+		//Start of each article in the inflated block, with the end of the last one after it
+		final int[] offsets;
+		final byte[] compressed;
+		
+		private RenderedBlock(int[] indexes, int[] offsets, byte[] compressed) {
+			this.indexes = indexes;
+			this.offsets = offsets;
+			this.compressed = compressed;
+		}
+		
+		static RenderedBlock render(int[] indexes, String[] texts) {
+			StringBuilder html = new StringBuilder(BLOCK_SIZE);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(BLOCK_SIZE);
+			int[] offsets = new int[indexes.length + 1];
+			for(int i = 0; i < indexes.length; i++) {
+				html.setLength(0);
+				WikitextRenderer.render(texts[i], html);
+				byte[] article = html.toString().getBytes(StandardCharsets.UTF_8);
+				bytes.write(article, 0, article.length);
+				offsets[i + 1] = bytes.size();
+			}
+			
+			Deflater deflater = new Deflater();
+			try {
+				deflater.setInput(bytes.toByteArray());
+				deflater.finish();
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.size() / 3 + 64);
+				byte[] buffer = new byte[16 * 1024];
+				while(!deflater.finished()) {
+					int length = deflater.deflate(buffer);
+					compressed.write(buffer, 0, length);
+				}
+				return new RenderedBlock(indexes, offsets, compressed.toByteArray());
+			} finally {
+				deflater.end();
+			}
+		}
+	}
+}
@@ -0,0 +1,624 @@
+package graph;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds a link graph snapshot from a Wikipedia pages-articles dump, plain or compressed.
+ * 
+ * <pre>java -Xmx4g graph.DumpIngester &lt;dump.xml[.gz|.bz2]&gt; &lt;snapshot&gt; [--threads=&lt;cores - 1&gt;] [--temp=&lt;dir&gt;]</pre>
+ * 
+ * <p>The dump is streamed twice. The first pass only collects titles and redirects, which are
+ * then sorted into article IDs. The second pass reads the text: the reading thread hands batches
+ * of pages to a fork/join pool, which extracts the [[links]] of each page and appends them as
+ * (source, target) pairs to a temporary edge file. Finally the rows are built from that file with
+ * a counting sort into memory mapped temporary files, so the heap holds titles and a few ints per
+ * article but never the links themselves, however large the dump.</p>
+ * 
+ * <p>Links to redirects are resolved to the article redirected to. Links that do not name an
+ * article, such as files, categories and other wikis, are dropped.</p>
+ * 
+ * @author Michael
+ */
+public class DumpIngester {
+	/**
+	 * Pages handed to the pool at a time
+	 */
+	private static final int BATCH_PAGES = 64;
+	/**
+	 * Pages a fork/join task extracts links from without splitting further
+	 */
+	private static final int LEAF_PAGES = 8;
+	/**
+	 * Wikipedia titles are at most 255 bytes
+	 */
+	private static final int MAX_TITLE_LENGTH = 255;
+	private static final int MAX_REDIRECT_HOPS = 8;
+	/**
+	 * Links that fit in one snapshot section
+	 */
+	private static final long MAX_EDGES = Integer.MAX_VALUE / 4;
+	private static final long PROGRESS_INTERVAL = 10000;
+	
+	/**
+	 * Disambiguation templates. Only the end of a page is searched, where they are placed.
+	 */
+	private static final Pattern DISAMBIGUATION = Pattern.compile(
+			"\\{\\{\\s*(?:[Dd]isambig(?:uation)?|[Dd]ab|[Dd]isamb|[Hh]ndis|[Gg]eodis|[^{}|\\n]{1,40}[ _]disambiguation)\\s*(?:\\||\\}\\})");
+	private static final int DISAMBIGUATION_TAIL = 4096;
+	
+	private final Path dump;
+	private final Path output;
+	private final Path tempDirectory;
+	private final ForkJoinPool pool;
+	/**
+	 * Batches the reading thread may have queued or in progress at once, which bounds the text on the heap
+	 */
+	private final int maxBatches;
+	
+	private final TitleTable titles = new TitleTable();
+	private int nodes;
+	private byte[] flags;
+	/**
+	 * Article each redirect finally leads to, or -1 for articles and broken redirects
+	 */
+	private int[] redirects;
+	
+	private FileChannel edges;
+	private long edgeCount;
+	private final AtomicLong links = new AtomicLong();
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	
+	public DumpIngester(Path dump, Path output, Path tempDirectory, int threads) {
+		this.dump = dump;
+		this.output = output;
+		this.tempDirectory = tempDirectory;
+		pool = new ForkJoinPool(threads);
+		maxBatches = threads * 4;
+	}
+	
+	public static void main(String[] args) throws Exception {
+		Path dump = null;
+		Path output = null;
+		Path temp = null;
+		//One core is left for the reading thread; decompression runs in its own process
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		
+		for(String arg : args) {
+			if(arg.startsWith("--threads="))
+				threads = Integer.parseInt(arg.substring("--threads=".length()));
+			else if(arg.startsWith("--temp="))
+				temp = Paths.get(arg.substring("--temp=".length()));
+			else if(dump == null)
+				dump = Paths.get(arg);
+			else if(output == null)
+				output = Paths.get(arg);
+		}
+		if(dump == null || output == null || threads < 1) {
+			System.out.println("Usage: java graph.DumpIngester <dump.xml[.gz|.bz2]> <snapshot> [--threads=<cores - 1>] [--temp=<dir>]");
+			System.exit(1);
+		}
+		if(temp == null)
+			temp = output.toAbsolutePath().getParent();
+		
+		new DumpIngester(dump, output, temp, threads).run();
+	}
+	
+	public void run() throws IOException {
+		long start = System.nanoTime();
+		Path edgeFile = Files.createTempFile(tempDirectory, "edges", ".tmp");
+		try {
+			edges = FileChannel.open(edgeFile, StandardOpenOption.WRITE);
+			readTitles();
+			writeRedirects();
+			readLinks();
+			edges.close();
+			build(edgeFile);
+		} finally {
+			pool.shutdownNow();
+			if(edges != null)
+				edges.close();
+			delete(edgeFile);
+		}
+		
+		System.out.println("Wrote " + output + " (" + nodes + " articles, " + edgeCount + " links) in "
+				+ (System.nanoTime() - start) / 1000000000 + " s, peak heap " + peakHeap() / (1 << 20) + " MB");
+	}
+	
+	/**
+	 * First pass: collects every title and redirect, then numbers the articles.
+	 */
+	private void readTitles() throws IOException {
+		TitlePass pass;
+		try(DumpReader reader = new DumpReader(dump, false); Progress progress = new Progress("Titles", reader)) {
+			pass = new TitlePass(progress);
+			reader.read(pass);
+		}
+		TitleTable redirectTargets = pass.redirectTargets;
+		int[] redirectSources = pass.redirectSources;
+		
+		long start = System.nanoTime();
+		int[] ids = titles.sort();
+		nodes = titles.size();
+		flags = new byte[nodes];
+		redirects = new int[nodes];
+		Arrays.fill(redirects, -1);
+		
+		byte[] targetData = redirectTargets.data();
+		int[] targetOffsets = redirectTargets.offsets();
+		for(int i = 0; i < redirectTargets.size(); i++) {
+			int source = ids[redirectSources[i]];
+			int target = titles.find(targetData, targetOffsets[i], targetOffsets[i + 1]);
+			flags[source] |= LinkGraph.REDIRECT;
+			if(target != source)
+				redirects[source] = target;
+		}
+		
+		//Follow double redirects to the article at the end
+		for(int node = 0; node < nodes; node++) {
+			int target = redirects[node];
+			for(int hop = 0; target >= 0 && redirects[target] >= 0 && hop < MAX_REDIRECT_HOPS; hop++)
+				target = redirects[target];
+			redirects[node] = target == node ? -1 : target;
+		}
+		System.out.println("Sorted " + nodes + " titles (" + redirectTargets.size() + " redirects) in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+	}
+	
+	/**
+	 * Every redirect's one link, to the article it leads to.
+	 */
+	private void writeRedirects() throws IOException {
+		int[] pairs = new int[8192];
+		int count = 0;
+		for(int node = 0; node < nodes; node++) {
+			if(redirects[node] < 0)
+				continue;
+			if(count == pairs.length) {
+				appendEdges(pairs, count);
+				count = 0;
+			}
+			pairs[count++] = node;
+			pairs[count++] = redirects[node];
+		}
+		appendEdges(pairs, count);
+	}
+	
+	/**
+	 * Second pass: extracts the links of every article on the pool.
+	 */
+	private void readLinks() throws IOException {
+		Semaphore batches = new Semaphore(maxBatches);
+		try(DumpReader reader = new DumpReader(dump, true); Progress progress = new Progress("Links", reader)) {
+			LinkPass pass = new LinkPass(batches, progress);
+			reader.read(pass);
+			pass.submit();
+			
+			//Wait for every batch to finish
+			batches.acquireUninterruptibly(maxBatches);
+			checkFailure();
+		}
+	}
+	
+	private void checkFailure() throws IOException {
+		Throwable t = failure.get();
+		if(t instanceof IOException)
+			throw new IOException("Link extraction failed: " + t.getMessage(), t);
+		if(t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		if(t instanceof Error)
+			throw (Error) t;
+	}
+	
+	/**
+	 * Adds every title read to the table, and keeps each redirect's target aside until the IDs are known.
+	 */
+	private class TitlePass implements DumpReader.PageHandler {
+		private final TitleTable redirectTargets = new TitleTable();
+		/**
+		 * Index of the redirect each target belongs to, in the order they were added
+		 */
+		private int[] redirectSources = new int[1 << 16];
+		private final Progress progress;
+		
+		TitlePass(Progress progress) {
+			this.progress = progress;
+		}
+		
+		@Override
+		public void page(String title, String redirect, String text) {
+			int index = titles.add(encode(title));
+			if(redirect != null) {
+				int target = redirectTargets.add(encode(redirect));
+				if(target == redirectSources.length)
+					redirectSources = Arrays.copyOf(redirectSources, target * 2);
+				redirectSources[target] = index;
+			}
+			progress.pages(1);
+		}
+	}
+	
+	/**
+	 * Collects the articles read into batches and hands each full batch to the pool.
+	 */
+	private class LinkPass implements DumpReader.PageHandler {
+		private final Semaphore batches;
+		private final Progress progress;
+		private int[] ids = new int[BATCH_PAGES];
+		private String[] texts = new String[BATCH_PAGES];
+		private int count;
+		
+		LinkPass(Semaphore batches, Progress progress) {
+			this.batches = batches;
+			this.progress = progress;
+		}
+		
+		@Override
+		public void page(String title, String redirect, String text) throws IOException {
+			int id = titles.find(encode(title));
+			if(redirect != null || text == null || id < 0 || (flags[id] & LinkGraph.REDIRECT) != 0) {
+				progress.pages(1);
+				return;
+			}
+			if(title.endsWith("(disambiguation)"))
+				flags[id] |= LinkGraph.DISAMBIGUATION;
+			
+			ids[count] = id;
+			texts[count] = text;
+			if(++count == BATCH_PAGES)
+				submit();
+		}
+		
+		void submit() throws IOException {
+			if(count == 0)
+				return;
+			batches.acquireUninterruptibly();
+			checkFailure();
+			pool.execute(new LinkTask(ids, texts, 0, count, batches, progress));
+			ids = new int[BATCH_PAGES];
+			texts = new String[BATCH_PAGES];
+			count = 0;
+		}
+	}
+	
+	/**
+	 * Extracts the links of a range of pages, splitting it while it is larger than a leaf.
+	 */
+	private class LinkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final int[] ids;
+		private final String[] texts;
+		private final int from;
+		private final int to;
+		/**
+		 * Released when the batch is done. Only set on the task of a whole batch.
+		 */
+		private final Semaphore batches;
+		private final Progress progress;
+		
+		LinkTask(int[] ids, String[] texts, int from, int to, Semaphore batches, Progress progress) {
+			this.ids = ids;
+			this.texts = texts;
+			this.from = from;
+			this.to = to;
+			this.batches = batches;
+			this.progress = progress;
+		}
+		
+		@Override
+		protected void compute() {
+			try {
+				if(to - from > LEAF_PAGES) {
+					int middle = (from + to) >>> 1;
+					invokeAll(new LinkTask(ids, texts, from, middle, null, progress),
+							new LinkTask(ids, texts, middle, to, null, progress));
+				} else {
+					extract();
+				}
+			} catch(Throwable t) {
+				if(batches == null)
+					throw t;
+				failure.compareAndSet(null, t);
+			} finally {
+				if(batches != null)
+					batches.release();
+			}
+		}
+		
+		private void extract() {
+			int[] pairs = new int[1024];
+			int count = 0;
+			int[] targets = new int[256];
+			
+			for(int i = from; i < to; i++) {
+				int source = ids[i];
+				String text = texts[i];
+				texts[i] = null;
+				
+				int found = extractLinks(text, source, targets);
+				while(found > targets.length) {
+					targets = new int[found];
+					found = extractLinks(text, source, targets);
+				}
+				if(isDisambiguation(text))
+					flags[source] |= LinkGraph.DISAMBIGUATION;
+				
+				//Each page's links are appended once, in ID order
+				Arrays.sort(targets, 0, found);
+				if(count + found * 2 > pairs.length)
+					pairs = Arrays.copyOf(pairs, Math.max(pairs.length * 2, count + found * 2));
+				for(int j = 0; j < found; j++) {
+					if(j == 0 || targets[j] != targets[j - 1]) {
+						pairs[count++] = source;
+						pairs[count++] = targets[j];
+					}
+				}
+			}
+			
+			try {
+				appendEdges(pairs, count);
+			} catch(IOException e) {
+				failure.compareAndSet(null, e);
+			}
+			links.addAndGet(count / 2);
+			progress.pages(to - from);
+		}
+	}
+	
+	/**
+	 * Finds the articles a page links to, resolving redirects and skipping self links.
+	 * 
+	 * @return Number of links found. If more than fit in targets, only the first ones are stored.
+	 */
+	private int extractLinks(String text, int source, int[] targets) {
+		int found = 0;
+		int i = 0;
+		while((i = text.indexOf("[[", i)) >= 0) {
+			int start = i + 2;
+			int limit = Math.min(text.length(), start + MAX_TITLE_LENGTH);
+			int end = start;
+			char c = 0;
+			while(end < limit) {
+				c = text.charAt(end);
+				if(c == '|' || c == ']' || c == '#' || c == '[' || c == '{' || c == '}' || c == '<' || c == '\n')
+					break;
+				end++;
+			}
+			i = end;
+			if(end == limit || (c != '|' && c != ']' && c != '#'))
+				continue;
+			
+			//A leading colon links to a page instead of embedding it; it is never part of the title
+			if(start < end && text.charAt(start) == ':')
+				start++;
+			byte[] title = encode(text.substring(start, end));
+			if(title.length == 0)
+				continue;
+			int target = titles.find(title);
+			if(target < 0)
+				continue;
+			if(redirects[target] >= 0)
+				target = redirects[target];
+			if(target == source)
+				continue;
+			
+			if(found < targets.length)
+				targets[found] = target;
+			found++;
+		}
+		return found;
+	}
+	
+	private static boolean isDisambiguation(String text) {
+		Matcher matcher = DISAMBIGUATION.matcher(text);
+		matcher.region(Math.max(0, text.length() - DISAMBIGUATION_TAIL), text.length());
+		return matcher.find();
+	}
+	
+	/**
+	 * Appends (source, target) pairs to the edge file. Safe to call from any thread.
+	 */
+	private void appendEdges(int[] pairs, int count) throws IOException {
+		if(count == 0)
+			return;
+		ByteBuffer buffer = ByteBuffer.allocate(count * 4).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.asIntBuffer().put(pairs, 0, count);
+		synchronized(edges) {
+			while(buffer.hasRemaining())
+				edges.write(buffer);
+			edgeCount += count / 2;
+		}
+	}
+	
+	/**
+	 * Builds both link directions from the edge file and writes the snapshot.
+	 */
+	private void build(Path edgeFile) throws IOException {
+		long start = System.nanoTime();
+		if(edgeCount > MAX_EDGES)
+			throw new IOException(edgeCount + " links is more than a snapshot can hold (" + MAX_EDGES + ")");
+		
+		//Counting sort by source: count each row, then place every link in its row
+		int[] outOffsets = new int[nodes + 1];
+		forEachEdge(edgeFile, (source, target) -> outOffsets[source + 1]++);
+		for(int i = 0; i < nodes; i++)
+			outOffsets[i + 1] += outOffsets[i];
+		
+		Path outFile = Files.createTempFile(tempDirectory, "out", ".tmp");
+		Path inFile = Files.createTempFile(tempDirectory, "in", ".tmp");
+		try {
+			IntBuffer outLinks = map(outFile, edgeCount);
+			int[] next = Arrays.copyOf(outOffsets, nodes);
+			forEachEdge(edgeFile, (source, target) -> outLinks.put(next[source]++, target));
+			int linkCount = sortRows(outOffsets, outLinks);
+			
+			int[] inOffsets = new int[nodes + 1];
+			for(int i = 0; i < linkCount; i++)
+				inOffsets[outLinks.get(i) + 1]++;
+			for(int i = 0; i < nodes; i++)
+				inOffsets[i + 1] += inOffsets[i];
+			
+			//Walking the rows in ID order leaves every in row sorted
+			IntBuffer inLinks = map(inFile, linkCount);
+			System.arraycopy(inOffsets, 0, next, 0, nodes);
+			for(int node = 0; node < nodes; node++) {
+				for(int i = outOffsets[node]; i < outOffsets[node + 1]; i++)
+					inLinks.put(next[outLinks.get(i)]++, node);
+			}
+			
+			outLinks.limit(linkCount);
+			try(LinkGraphWriter writer = new LinkGraphWriter(output)) {
+				writer.writeTitles(titles.data(), titles.offsets());
+				writer.writeFlags(flags);
+				writer.writeOutLinks(outOffsets, outLinks);
+				writer.writeInLinks(inOffsets, inLinks);
+			}
+			edgeCount = linkCount;
+		} finally {
+			delete(outFile);
+			delete(inFile);
+		}
+		System.out.println("Built link rows in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+	
+	/**
+	 * Sorts every row and compacts away duplicate links, left where titles were merged.
+	 * 
+	 * @return Number of links left
+	 */
+	private int sortRows(int[] offsets, IntBuffer links) {
+		int[] row = new int[1024];
+		int write = 0;
+		for(int node = 0; node < nodes; node++) {
+			int start = offsets[node];
+			int length = offsets[node + 1] - start;
+			if(length > row.length)
+				row = new int[Math.max(length, row.length * 2)];
+			
+			links.position(start);
+			links.get(row, 0, length);
+			Arrays.sort(row, 0, length);
+			
+			offsets[node] = write;
+			for(int i = 0; i < length; i++) {
+				if(i == 0 || row[i] != row[i - 1])
+					links.put(write++, row[i]);
+			}
+		}
+		offsets[nodes] = write;
+		links.position(0);
+		return write;
+	}
+	
+	private interface EdgeVisitor {
+		void edge(int source, int target);
+	}
+	
+	private static void forEachEdge(Path edgeFile, EdgeVisitor visitor) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+		try(FileChannel channel = FileChannel.open(edgeFile, StandardOpenOption.READ)) {
+			while(channel.read(buffer) >= 0 || buffer.position() > 0) {
+				buffer.flip();
+				while(buffer.remaining() >= 8)
+					visitor.edge(buffer.getInt(), buffer.getInt());
+				buffer.compact();
+				if(buffer.position() > 0 && channel.position() == channel.size())
+					throw new IOException("Edge file is truncated");
+			}
+		}
+	}
+	
+	private static IntBuffer map(Path file, long ints) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, ints * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		}
+	}
+	
+	private static void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch(IOException e) {
+			//Windows refuses while a mapping of the file is still reachable
+			System.out.println("Could not delete temporary file " + file);
+		}
+	}
+	
+	private static byte[] encode(String title) {
+		return LinkGraph.normalizeTitle(title).getBytes(StandardCharsets.UTF_8);
+	}
+	
+	private static long peakHeap() {
+		long peak = 0;
+		for(MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if(memoryPool.getType() == MemoryType.HEAP)
+				peak += memoryPool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+	
+	/**
+	 * Prints how far a pass has got every few seconds, and its throughput when it ends.
+	 */
+	private class Progress implements Runnable, AutoCloseable {
+		private final String pass;
+		private final DumpReader reader;
+		private final AtomicLong pages = new AtomicLong();
+		private final long start = System.nanoTime();
+		private final Thread thread;
+		
+		Progress(String pass, DumpReader reader) {
+			this.pass = pass;
+			this.reader = reader;
+			thread = new Thread(this, "Progress");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		
+		void pages(int count) {
+			pages.addAndGet(count);
+		}
+		
+		@Override
+		public void run() {
+			try {
+				while(true) {
+					Thread.sleep(PROGRESS_INTERVAL);
+					long elapsed = System.nanoTime() - start;
+					System.out.println(pass + ": " + pages.get() + " pages, "
+							+ reader.getBytesRead() * 100 / Math.max(1, reader.getLength()) + "% of dump, "
+							+ pages.get() * 1000000000 / elapsed + " pages/s, " + links.get() + " links");
+				}
+			} catch(InterruptedException e) {
+				//Pass finished
+			}
+		}
+		
+		@Override
+		public void close() {
+			thread.interrupt();
+			long elapsed = Math.max(1, System.nanoTime() - start);
+			System.out.println(pass + ": " + pages.get() + " pages in " + elapsed / 1000000 + " ms, "
+					+ pages.get() * 1000000000 / elapsed + " pages/s");
+		}
+	}
+}
@@ -0,0 +1,232 @@
+package graph;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Streams the articles of a MediaWiki pages-articles XML dump with StAX, one page at a time, so a
+ * dump of any size is read in constant memory. Plain, gzip and bzip2 dumps are read; bzip2 is
+ * decompressed by an external lbzip2, pbzip2 or bzip2 process, whichever is installed first, since
+ * the parallel ones are many times faster than decompressing in Java.
+ * 
+ * @author Michael
+ */
+class DumpReader implements Closeable {
+	/**
+	 * Decompressors for bzip2 dumps, fastest first
+	 */
+	private static final String[] BZIP2_COMMANDS = {"lbzip2", "pbzip2", "bzip2"};
+	
+	interface PageHandler {
+		/**
+		 * Called for every page in the main namespace.
+		 * 
+		 * @param redirect Title the page redirects to, or null if it is an article
+		 * @param text Wikitext of the page, or null if the reader skips text
+		 */
+		void page(String title, String redirect, String text) throws IOException;
+	}
+	
+	private final CountingInputStream file;
+	private final long length;
+	private final boolean readText;
+	private Process process;
+	private String command;
+	private InputStream input;
+	
+	/**
+	 * @param readText Whether pages are passed with their text. Skipped text is never buffered.
+	 */
+	DumpReader(Path path, boolean readText) throws IOException {
+		this.readText = readText;
+		length = Files.size(path);
+		file = new CountingInputStream(Files.newInputStream(path));
+		
+		String name = path.getFileName().toString();
+		try {
+			if(name.endsWith(".gz"))
+				input = new BufferedInputStream(new GZIPInputStream(file, 1 << 16), 1 << 20);
+			else if(name.endsWith(".bz2"))
+				input = new BufferedInputStream(decompress(), 1 << 20);
+			else
+				input = new BufferedInputStream(file, 1 << 20);
+		} catch(IOException e) {
+			close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Starts the bzip2 decompressor and a thread feeding it the file, so the bytes read can be counted.
+	 */
+	private InputStream decompress() throws IOException {
+		command = findCommand();
+		if(command == null)
+			throw new IOException("Reading .bz2 dumps needs lbzip2, pbzip2 or bzip2 on the PATH");
+		
+		process = new ProcessBuilder(command, "-dc").redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		Thread feeder = new Thread(() -> {
+			try(OutputStream out = process.getOutputStream()) {
+				file.transferTo(out);
+			} catch(IOException e) {
+				//The decompressor exited or the reader was closed
+			}
+		}, "DumpFeeder");
+		feeder.setDaemon(true);
+		feeder.start();
+		return process.getInputStream();
+	}
+	
+	private static String findCommand() {
+		String path = System.getenv("PATH");
+		if(path == null)
+			return null;
+		for(String command : BZIP2_COMMANDS) {
+			for(String directory : path.split(File.pathSeparator)) {
+				if(new File(directory, command).canExecute())
+					return command;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Reads the whole dump, passing each main namespace page to the handler on this thread.
+	 */
+	void read(PageHandler handler) throws IOException {
+		try {
+			XMLStreamReader reader = newFactory().createXMLStreamReader(input);
+			String title = null;
+			String redirect = null;
+			String text = null;
+			int namespace = -1;
+			
+			while(reader.hasNext()) {
+				int event = reader.next();
+				if(event == XMLStreamConstants.START_ELEMENT) {
+					switch(reader.getLocalName()) {
+					case "page":
+						title = redirect = text = null;
+						namespace = -1;
+						break;
+					case "title":
+						title = reader.getElementText();
+						break;
+					case "ns":
+						namespace = Integer.parseInt(reader.getElementText().trim());
+						break;
+					case "redirect":
+						redirect = reader.getAttributeValue(null, "title");
+						break;
+					case "text":
+						//Skipped text is left to the loop, which passes over it chunk by chunk
+						if(readText)
+							text = reader.getElementText();
+						break;
+					}
+				} else if(event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("page")) {
+					if(namespace == 0 && title != null)
+						handler.page(title, redirect, text);
+				}
+			}
+			reader.close();
+		} catch(XMLStreamException | NumberFormatException e) {
+			throw new IOException("Malformed dump: " + e.getMessage(), e);
+		}
+		
+		if(process != null) {
+			try {
+				int exit = process.waitFor();
+				if(exit != 0)
+					throw new IOException(command + " exited with code " + exit);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted waiting for " + command);
+			}
+		}
+	}
+	
+	private static XMLInputFactory newFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		//The JDK parser counts every &lt; and &amp; against entity limits meant for untrusted
+		//documents, which a full dump goes far past. Lifted for this factory only, so every other
+		//parser in the process keeps its protection
+		factory.setProperty("jdk.xml.totalEntitySizeLimit", "0");
+		factory.setProperty("jdk.xml.maxGeneralEntitySizeLimit", "0");
+		factory.setProperty("jdk.xml.entityExpansionLimit", "0");
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		return factory;
+	}
+	
+	/**
+	 * Bytes of the dump file read so far, compressed if the dump is.
+	 */
+	long getBytesRead() {
+		return file.count;
+	}
+	
+	long getLength() {
+		return length;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			if(input != null)
+				input.close();
+		} finally {
+			file.close();
+			if(process != null)
+				process.destroy();
+		}
+	}
+	
+	/**
+	 * Counts the bytes read through it. Only the reading thread updates the count.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private volatile long count;
+		
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b >= 0)
+				count++;
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if(read > 0)
+				count += read;
+			return read;
+		}
+		
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
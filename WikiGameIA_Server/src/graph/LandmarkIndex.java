@@ -0,0 +1,311 @@
+package graph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Precomputed click distances between every article and a few dozen landmark articles, giving
+ * bounds on the distance between any two articles in time proportional to the number of
+ * landmarks, without a search (the ALT technique).
+ * 
+ * <p>For a landmark L, getting from s to t takes at least d(L, t) - d(L, s) and d(s, L) - d(t, L)
+ * clicks, and at most d(s, L) + d(L, t). The best bound over all landmarks is used. Landmarks are
+ * the best connected articles, which lie on many short paths, so the bounds are usually tight.</p>
+ * 
+ * <pre>File layout (little endian):<br>
+ * header      magic, version, node count, link count of the graph, landmark count<br>
+ * landmarks   int[landmarks], their article IDs<br>
+ * distances   byte[nodes][2 * landmarks], for each article the clicks from every landmark to it,
+ *             then from it to every landmark</pre>
+ * 
+ * An article's distances are stored together, so a query reads two short runs of bytes. Distances
+ * past {@link #MAX_DISTANCE} are stored as a saturated value meaning "longer than that", so only
+ * articles with no path at all are stored as unreachable.
+ * 
+ * <p>Safe to use from any number of threads once opened.</p>
+ * 
+ * @author Michael
+ */
+public class LandmarkIndex {
+	public static final int MAGIC = 0x494c4757; //"WGLI"
+	public static final int VERSION = 2;
+	public static final int DEFAULT_LANDMARKS = 32;
+	
+	/**
+	 * Returned as a bound when the target cannot be reached
+	 */
+	public static final int INFINITY = Integer.MAX_VALUE;
+	/**
+	 * Longest distance stored exactly. Longer ones are stored as {@link #SATURATED}.
+	 */
+	public static final int MAX_DISTANCE = 253;
+	/**
+	 * Stored for distances of more than {@link #MAX_DISTANCE}: a lower bound, but no use as an upper one
+	 */
+	private static final int SATURATED = 0xfe;
+	private static final int UNREACHABLE = 0xff;
+	
+	private static final int HEADER_LENGTH = 20;
+	
+	private final int nodeCount;
+	private final int landmarkCount;
+	private final int[] landmarks;
+	private final ByteBuffer distances;
+	
+	private LandmarkIndex(int nodeCount, int[] landmarks, ByteBuffer distances) {
+		this.nodeCount = nodeCount;
+		this.landmarkCount = landmarks.length;
+		this.landmarks = landmarks;
+		this.distances = distances;
+	}
+	
+	/**
+	 * Maps the index at the given path, checking that it was built from the given graph.
+	 */
+	public static LandmarkIndex open(Path file, LinkGraph graph) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+			while(header.hasRemaining()) {
+				if(channel.read(header, header.position()) < 0)
+					throw new IOException("Landmark index file is truncated");
+			}
+			header.flip();
+			
+			if(header.getInt() != MAGIC)
+				throw new IOException("Not a landmark index file");
+			int version = header.getInt();
+			if(version != VERSION)
+				throw new IOException("Unsupported landmark index version " + version);
+			int nodes = header.getInt();
+			int edges = header.getInt();
+			int count = header.getInt();
+			if(nodes != graph.nodeCount() || edges != graph.edgeCount())
+				throw new IOException("Landmark index was built from a different link graph");
+			
+			long length = HEADER_LENGTH + count * 4L + (long) nodes * count * 2;
+			if(count < 1 || channel.size() != length)
+				throw new IOException("Landmark index file has the wrong size");
+			
+			ByteBuffer landmarkBuffer = ByteBuffer.allocate(count * 4).order(ByteOrder.LITTLE_ENDIAN);
+			while(landmarkBuffer.hasRemaining()) {
+				if(channel.read(landmarkBuffer, HEADER_LENGTH + landmarkBuffer.position()) < 0)
+					throw new IOException("Landmark index file is truncated");
+			}
+			landmarkBuffer.flip();
+			int[] landmarks = new int[count];
+			landmarkBuffer.asIntBuffer().get(landmarks);
+			
+			ByteBuffer distances = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_LENGTH + count * 4L, (long) nodes * count * 2);
+			return new LandmarkIndex(nodes, landmarks, distances);
+		}
+	}
+	
+	public int landmarkCount() {
+		return landmarkCount;
+	}
+	
+	/**
+	 * ID of the index-th landmark article.
+	 */
+	public int landmark(int index) {
+		return landmarks[index];
+	}
+	
+	/**
+	 * Returns a number of clicks the target cannot be reached in fewer of, or {@link #INFINITY} if
+	 * it provably cannot be reached at all.
+	 */
+	public int lowerBound(int start, int target) {
+		if(start == target)
+			return 0;
+		int startBase = start * landmarkCount * 2;
+		int targetBase = target * landmarkCount * 2;
+		int bound = 1;
+		for(int i = 0; i < landmarkCount; i++) {
+			int fromToStart = distances.get(startBase + i) & 0xff;
+			int fromToTarget = distances.get(targetBase + i) & 0xff;
+			int startToLandmark = distances.get(startBase + landmarkCount + i) & 0xff;
+			int targetToLandmark = distances.get(targetBase + landmarkCount + i) & 0xff;
+			
+			//A landmark that reaches the start but not the target shows the start cannot reach it either,
+			//as does a landmark reachable from the target but not from the start
+			if(fromToStart != UNREACHABLE && fromToTarget == UNREACHABLE)
+				return INFINITY;
+			if(targetToLandmark != UNREACHABLE && startToLandmark == UNREACHABLE)
+				return INFINITY;
+			
+			//The distance subtracted must be exact, while a saturated one subtracted from still bounds it from below
+			if(fromToStart < SATURATED)
+				bound = Math.max(bound, fromToTarget - fromToStart);
+			if(targetToLandmark < SATURATED)
+				bound = Math.max(bound, startToLandmark - targetToLandmark);
+		}
+		return bound;
+	}
+	
+	/**
+	 * Returns a number of clicks the target can certainly be reached in, going through a landmark,
+	 * or {@link #INFINITY} if no landmark connects the two.
+	 */
+	public int upperBound(int start, int target) {
+		if(start == target)
+			return 0;
+		int startBase = start * landmarkCount * 2;
+		int targetBase = target * landmarkCount * 2;
+		int bound = INFINITY;
+		for(int i = 0; i < landmarkCount; i++) {
+			int startToLandmark = distances.get(startBase + landmarkCount + i) & 0xff;
+			int fromToTarget = distances.get(targetBase + i) & 0xff;
+			if(startToLandmark < SATURATED && fromToTarget < SATURATED)
+				bound = Math.min(bound, startToLandmark + fromToTarget);
+		}
+		return bound;
+	}
+	
+	/**
+	 * Builds an index of the given graph: picks the best connected articles as landmarks, then runs a
+	 * breadth first search from and to each one, on all cores, writing the distances straight into
+	 * the mapped file.
+	 */
+	public static void build(LinkGraph graph, int landmarks, Path file) throws IOException {
+		int nodes = graph.nodeCount();
+		if((long) nodes * landmarks * 2 > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many landmarks for one mapping: at most "
+					+ Integer.MAX_VALUE / 2 / Math.max(1, nodes));
+		int[] picked = pickLandmarks(graph, landmarks);
+		int count = picked.length;
+		if(count == 0)
+			throw new IllegalArgumentException("The graph has no articles to use as landmarks");
+		
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + count * 4).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(nodes).putInt(graph.edgeCount()).putInt(count);
+			for(int landmark : picked)
+				header.putInt(landmark);
+			header.flip();
+			while(header.hasRemaining())
+				channel.write(header, header.position());
+			
+			MappedByteBuffer distances = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_LENGTH + count * 4L,
+					(long) nodes * count * 2);
+			
+			//One search per landmark and direction, each writing its own column of the table
+			int searches = count * 2;
+			int stride = count * 2;
+			AtomicInteger done = new AtomicInteger();
+			ForkJoinPool pool = new ForkJoinPool();
+			try {
+				//Searches 0 to K - 1 go forward from each landmark, K to 2K - 1 backward to it
+				pool.submit(() -> IntStream.range(0, searches).parallel().forEach(search -> {
+					int landmark = picked[search % count];
+					search(graph, landmark, search < count, distances.duplicate(), search, stride);
+					System.out.println("Landmark searches: " + done.incrementAndGet() + "/" + searches);
+				})).join();
+			} finally {
+				pool.shutdown();
+			}
+			distances.force();
+		}
+	}
+	
+	/**
+	 * The articles with the most links in and out, skipping redirects and disambiguation pages.
+	 */
+	private static int[] pickLandmarks(LinkGraph graph, int count) {
+		long[] ranked = new long[graph.nodeCount()];
+		int candidates = 0;
+		for(int node = 0; node < graph.nodeCount(); node++) {
+			if(graph.isRedirect(node) || graph.isDisambiguation(node))
+				continue;
+			long degree = graph.outDegree(node) + (long) graph.inDegree(node);
+			ranked[candidates++] = degree << 32 | node;
+		}
+		Arrays.sort(ranked, 0, candidates);
+		
+		int[] landmarks = new int[Math.min(count, candidates)];
+		for(int i = 0; i < landmarks.length; i++)
+			landmarks[i] = (int) ranked[candidates - 1 - i];
+		return landmarks;
+	}
+	
+	/**
+	 * Breadth first search from a landmark along out links, or to it along in links, then stores the
+	 * distance of every article in the given column of the table. The search runs on a private array;
+	 * searching in the shared table directly would have every thread writing the same cache lines.
+	 */
+	private static void search(LinkGraph graph, int landmark, boolean out, ByteBuffer table, int column, int stride) {
+		int nodes = graph.nodeCount();
+		byte[] distances = new byte[nodes];
+		Arrays.fill(distances, (byte) UNREACHABLE);
+		
+		IntBuffer links = out ? graph.outLinks() : graph.inLinks();
+		int[] queue = new int[nodes];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = landmark;
+		distances[landmark] = 0;
+		
+		while(head < tail) {
+			int node = queue[head++];
+			int distance = distances[node] & 0xff;
+			int start = out ? graph.outStart(node) : graph.inStart(node);
+			int end = out ? graph.outStart(node + 1) : graph.inStart(node + 1);
+			for(int i = start; i < end; i++) {
+				int link = links.get(i);
+				if((distances[link] & 0xff) != UNREACHABLE)
+					continue;
+				distances[link] = (byte) Math.min(distance + 1, SATURATED);
+				queue[tail++] = link;
+			}
+		}
+		
+		for(int node = 0; node < nodes; node++)
+			table.put(node * stride + column, distances[node]);
+	}
+	
+	/**
+	 * Builds an index file for a link graph snapshot.
+	 * 
+	 * <pre>java graph.LandmarkIndex &lt;snapshot&gt; &lt;index&gt; [--landmarks=32]</pre>
+	 */
+	public static void main(String[] args) throws IOException {
+		Path graphFile = null;
+		Path indexFile = null;
+		int landmarks = DEFAULT_LANDMARKS;
+		for(String arg : args) {
+			if(arg.startsWith("--landmarks="))
+				landmarks = Integer.parseInt(arg.substring("--landmarks=".length()));
+			else if(graphFile == null)
+				graphFile = Paths.get(arg);
+			else if(indexFile == null)
+				indexFile = Paths.get(arg);
+		}
+		if(graphFile == null || indexFile == null || landmarks < 1) {
+			System.out.println("Usage: java graph.LandmarkIndex <snapshot> <index> [--landmarks=" + DEFAULT_LANDMARKS + "]");
+			System.exit(1);
+		}
+		
+		LinkGraph graph = LinkGraph.open(graphFile);
+		long start = System.nanoTime();
+		build(graph, landmarks, indexFile);
+		System.out.println("Wrote " + indexFile + " (" + landmarks + " landmarks) in "
+				+ (System.nanoTime() - start) / 1_000_000 + " ms");
+	}
+	
+	@Override
+	public String toString() {
+		return "LandmarkIndex: " + landmarkCount + " landmarks over " + nodeCount + " articles";
+	}
+}
@@ -0,0 +1,71 @@
+package graph;
+
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Answers whether one article links to another, for checking every click a player makes.
+ * 
+ * <p>Each article gets a 64-bit bloom filter of its out links, with two bits set per link. A
+ * link that is not there usually misses the filter and is rejected with one array read; one that
+ * passes is confirmed by binary searching the article's sorted row in the graph. The filters take
+ * 8 bytes per article and are built in parallel when the checker is created.</p>
+ * 
+ * <p>Safe to use from any number of threads once created.</p>
+ * 
+ * @author Michael
+ */
+public class LinkChecker {
+	private final LinkGraph graph;
+	private final long[] filters;
+	
+	private final LongAdder filtered = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	
+	public LinkChecker(LinkGraph graph) {
+		this.graph = graph;
+		filters = new long[graph.nodeCount()];
+		IntBuffer links = graph.outLinks();
+		IntStream.range(0, graph.nodeCount()).parallel().forEach(node -> {
+			long filter = 0;
+			for(int i = graph.outStart(node), end = graph.outStart(node + 1); i < end; i++)
+				filter |= bits(links.get(i));
+			filters[node] = filter;
+		});
+	}
+	
+	/**
+	 * True if the article links directly to the target.
+	 */
+	public boolean hasLink(int from, int to) {
+		long bits = bits(to);
+		if((filters[from] & bits) != bits) {
+			filtered.increment();
+			rejected.increment();
+			return false;
+		}
+		if(!graph.hasLink(from, to)) {
+			rejected.increment();
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * The two filter bits of an article, from a multiplicative hash of its ID.
+	 */
+	private static long bits(int node) {
+		int hash = node * 0x9e3779b1;
+		return 1L << (hash >>> 26) | 1L << (hash >>> 20);
+	}
+	
+	public LinkGraph getGraph() {
+		return graph;
+	}
+	
+	@Override
+	public String toString() {
+		return "Link checks: " + rejected.sum() + " not links (" + filtered.sum() + " by filter)";
+	}
+}
@@ -0,0 +1,292 @@
+package graph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import utilities.ArticleDictionary;
+
+/**
+ * Read-only view of a Wikipedia link graph snapshot written by {@link LinkGraphWriter}. Every
+ * section of the file is memory mapped, so opening a graph does no parsing and keeps no object
+ * per article on the heap; pages are faulted in by the OS as they are used.
+ * 
+ * <p>Articles are identified by dense int IDs from 0 to {@link #nodeCount()} - 1. IDs are the
+ * rank of the title in UTF-8 byte order, so a title is found with a binary search over the
+ * title table. Links are stored in compressed sparse row form in both directions, each row
+ * sorted by ID.</p>
+ * 
+ * <pre>File layout (little endian, sections 8 byte aligned):<br>
+ * header          magic, version, node count, edge count, then offset and length of each section<br>
+ * title offsets   int[nodes + 1], start of each title in the title data<br>
+ * title data      UTF-8 titles, sorted<br>
+ * flags           byte[nodes], see {@link #REDIRECT} and {@link #DISAMBIGUATION}<br>
+ * out offsets     int[nodes + 1], start of each article's row in the out links<br>
+ * out links       int[edges], the articles each article links to<br>
+ * in offsets      int[nodes + 1]<br>
+ * in links        int[edges], the articles linking to each article</pre>
+ * 
+ * A redirect has exactly one out link, to the article it redirects to.
+ * 
+ * <p>Safe to use from any number of threads once opened.</p>
+ * 
+ * @author Michael
+ */
+public class LinkGraph {
+	public static final int MAGIC = 0x474c4757; //"WGLG"
+	public static final int VERSION = 1;
+	
+	/**
+	 * Flag of articles that only redirect to another article
+	 */
+	public static final byte REDIRECT = 1;
+	/**
+	 * Flag of disambiguation pages
+	 */
+	public static final byte DISAMBIGUATION = 2;
+	
+	static final int SECTION_TITLE_OFFSETS = 0;
+	static final int SECTION_TITLE_DATA = 1;
+	static final int SECTION_FLAGS = 2;
+	static final int SECTION_OUT_OFFSETS = 3;
+	static final int SECTION_OUT_LINKS = 4;
+	static final int SECTION_IN_OFFSETS = 5;
+	static final int SECTION_IN_LINKS = 6;
+	static final int SECTIONS = 7;
+	
+	/**
+	 * Magic, version, node count and edge count, then an offset and a length for every section
+	 */
+	static final int HEADER_LENGTH = 16 + SECTIONS * 16;
+	
+	private final int nodeCount;
+	private final int edgeCount;
+	
+	private final IntBuffer titleOffsets;
+	private final ByteBuffer titleData;
+	private final ByteBuffer flags;
+	private final IntBuffer outOffsets;
+	private final IntBuffer outLinks;
+	private final IntBuffer inOffsets;
+	private final IntBuffer inLinks;
+	
+	private LinkGraph(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		while(header.hasRemaining()) {
+			if(channel.read(header, header.position()) < 0)
+				throw new IOException("Link graph file is truncated");
+		}
+		header.flip();
+		
+		if(header.getInt() != MAGIC)
+			throw new IOException("Not a link graph file");
+		int version = header.getInt();
+		if(version != VERSION)
+			throw new IOException("Unsupported link graph version " + version);
+		nodeCount = header.getInt();
+		edgeCount = header.getInt();
+		
+		//Each section is mapped on its own, so no single mapping has to cover the whole file
+		ByteBuffer[] sections = new ByteBuffer[SECTIONS];
+		for(int i = 0; i < SECTIONS; i++) {
+			long offset = header.getLong();
+			long length = header.getLong();
+			if(offset < HEADER_LENGTH || length < 0 || length > Integer.MAX_VALUE || offset + length > channel.size())
+				throw new IOException("Link graph section " + i + " is out of bounds");
+			sections[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		
+		titleOffsets = sections[SECTION_TITLE_OFFSETS].asIntBuffer();
+		titleData = sections[SECTION_TITLE_DATA];
+		flags = sections[SECTION_FLAGS];
+		outOffsets = sections[SECTION_OUT_OFFSETS].asIntBuffer();
+		outLinks = sections[SECTION_OUT_LINKS].asIntBuffer();
+		inOffsets = sections[SECTION_IN_OFFSETS].asIntBuffer();
+		inLinks = sections[SECTION_IN_LINKS].asIntBuffer();
+		
+		if(titleOffsets.limit() != nodeCount + 1 || flags.limit() != nodeCount
+				|| outOffsets.limit() != nodeCount + 1 || inOffsets.limit() != nodeCount + 1
+				|| outLinks.limit() != edgeCount || inLinks.limit() != edgeCount)
+			throw new IOException("Link graph sections do not match the header");
+	}
+	
+	/**
+	 * Maps the snapshot at the given path. The mappings stay valid after the file channel is closed.
+	 */
+	public static LinkGraph open(Path file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return new LinkGraph(channel);
+		}
+	}
+	
+	public int nodeCount() {
+		return nodeCount;
+	}
+	
+	public int edgeCount() {
+		return edgeCount;
+	}
+	
+	/**
+	 * Title of the article with the given ID.
+	 */
+	public String title(int node) {
+		int start = titleOffsets.get(node);
+		int length = titleOffsets.get(node + 1) - start;
+		byte[] bytes = new byte[length];
+		ByteBuffer data = titleData.duplicate();
+		data.position(start);
+		data.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Returns the ID of the article with the given title, or -1 if there is none. The title is
+	 * normalized first, see {@link #normalizeTitle(String)}.
+	 */
+	public int find(String title) {
+		byte[] key = normalizeTitle(title).getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = nodeCount - 1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			int compare = compareTitle(mid, key);
+			if(compare < 0)
+				low = mid + 1;
+			else if(compare > 0)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Compares the stored title of a node with the key in unsigned byte order, without copying it.
+	 */
+	private int compareTitle(int node, byte[] key) {
+		int start = titleOffsets.get(node);
+		int length = titleOffsets.get(node + 1) - start;
+		int common = Math.min(length, key.length);
+		for(int i = 0; i < common; i++) {
+			int compare = Byte.toUnsignedInt(titleData.get(start + i)) - Byte.toUnsignedInt(key[i]);
+			if(compare != 0)
+				return compare;
+		}
+		return length - key.length;
+	}
+	
+	public byte flags(int node) {
+		return flags.get(node);
+	}
+	
+	public boolean isRedirect(int node) {
+		return (flags.get(node) & REDIRECT) != 0;
+	}
+	
+	public boolean isDisambiguation(int node) {
+		return (flags.get(node) & DISAMBIGUATION) != 0;
+	}
+	
+	/**
+	 * Returns the article a redirect points to, or the node itself if it is not a redirect.
+	 */
+	public int resolve(int node) {
+		if(isRedirect(node) && outDegree(node) > 0)
+			return outLinks.get(outOffsets.get(node));
+		return node;
+	}
+	
+	public int outDegree(int node) {
+		return outOffsets.get(node + 1) - outOffsets.get(node);
+	}
+	
+	/**
+	 * The index-th article the node links to, in ID order.
+	 */
+	public int outLink(int node, int index) {
+		return outLinks.get(outOffsets.get(node) + index);
+	}
+	
+	public int inDegree(int node) {
+		return inOffsets.get(node + 1) - inOffsets.get(node);
+	}
+	
+	/**
+	 * The index-th article linking to the node, in ID order.
+	 */
+	public int inLink(int node, int index) {
+		return inLinks.get(inOffsets.get(node) + index);
+	}
+	
+	/**
+	 * Position of the node's first out link in {@link #outLinks()}. Row ends where the next node's begins.
+	 */
+	public int outStart(int node) {
+		return outOffsets.get(node);
+	}
+	
+	/**
+	 * Position of the node's first in link in {@link #inLinks()}.
+	 */
+	public int inStart(int node) {
+		return inOffsets.get(node);
+	}
+	
+	/**
+	 * Every out link row back to back, for scanning without a call per link. Shares the mapping;
+	 * the returned buffer is independent of the graph's own position.
+	 */
+	public IntBuffer outLinks() {
+		return outLinks.duplicate();
+	}
+	
+	public IntBuffer inLinks() {
+		return inLinks.duplicate();
+	}
+	
+	/**
+	 * True if the article links directly to the target. Binary searches the sorted row.
+	 */
+	public boolean hasLink(int from, int to) {
+		int low = outOffsets.get(from);
+		int high = outOffsets.get(from + 1) - 1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			int link = outLinks.get(mid);
+			if(link < to)
+				low = mid + 1;
+			else if(link > to)
+				high = mid - 1;
+			else
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Normalizes a title the way Wikipedia does: underscores become spaces, surrounding whitespace
+	 * is removed and the first letter is capitalized. The same as the article dictionary's, so IDs
+	 * in the graph and in the dictionary always agree.
+	 */
+	public static String normalizeTitle(String title) {
+		return ArticleDictionary.normalize(title);
+	}
+	
+	/**
+	 * Title as it appears in an article URL, the same as the article dictionary writes it.
+	 */
+	public static String toUrlTitle(String title) {
+		return ArticleDictionary.toUrlTitle(title);
+	}
+	
+	@Override
+	public String toString() {
+		return "LinkGraph: " + nodeCount + " articles, " + edgeCount + " links";
+	}
+}
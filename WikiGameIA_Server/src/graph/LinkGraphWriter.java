@@ -0,0 +1,351 @@
+package graph;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes a link graph snapshot in the format read by {@link LinkGraph}. Sections are streamed to
+ * the file through one direct buffer and may be written in any order; the header with the section
+ * table is written on {@link #close()}.
+ * 
+ * <p>{@link #write(Path, String[], byte[], int[], int[], int)} builds a whole snapshot from
+ * titles and an edge list held in memory. Larger graphs can write their sections directly.</p>
+ * 
+ * @author Michael
+ */
+public class LinkGraphWriter implements Closeable {
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+	private long position = LinkGraph.HEADER_LENGTH;
+	
+	private final long[] sectionOffsets = new long[LinkGraph.SECTIONS];
+	private final long[] sectionLengths = new long[LinkGraph.SECTIONS];
+	private final boolean[] written = new boolean[LinkGraph.SECTIONS];
+	
+	private int nodeCount = -1;
+	private int edgeCount = -1;
+	
+	public LinkGraphWriter(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+	}
+	
+	/**
+	 * Writes the title table. Titles must already be normalized, unique and sorted in unsigned UTF-8
+	 * byte order, since an article's ID is the index of its title.
+	 */
+	public void writeTitles(String[] titles) throws IOException {
+		setNodeCount(titles.length);
+		
+		int[] offsets = new int[titles.length + 1];
+		byte[] previous = null;
+		beginSection(LinkGraph.SECTION_TITLE_DATA);
+		for(int i = 0; i < titles.length; i++) {
+			byte[] title = titles[i].getBytes(StandardCharsets.UTF_8);
+			if(previous != null && Arrays.compareUnsigned(previous, title) >= 0)
+				throw new IllegalArgumentException("Titles are not sorted and unique at " + titles[i]);
+			previous = title;
+			
+			long offset = position + buffer.position() - sectionOffsets[LinkGraph.SECTION_TITLE_DATA];
+			if(offset + title.length > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Title data is over 2 GB");
+			offsets[i] = (int) offset;
+			put(title);
+		}
+		offsets[titles.length] = (int) (position + buffer.position() - sectionOffsets[LinkGraph.SECTION_TITLE_DATA]);
+		endSection(LinkGraph.SECTION_TITLE_DATA);
+		
+		beginSection(LinkGraph.SECTION_TITLE_OFFSETS);
+		putInts(IntBuffer.wrap(offsets));
+		endSection(LinkGraph.SECTION_TITLE_OFFSETS);
+	}
+	
+	/**
+	 * Writes the title table from titles already encoded as UTF-8, for callers that never hold
+	 * them as Strings. The same ordering rules as {@link #writeTitles(String[])} apply.
+	 * 
+	 * @param data Every title back to back
+	 * @param offsets Start of each title in data, with the end of the last one after it
+	 */
+	public void writeTitles(byte[] data, int[] offsets) throws IOException {
+		int titles = offsets.length - 1;
+		setNodeCount(titles);
+		for(int i = 1; i < titles; i++) {
+			if(Arrays.compareUnsigned(data, offsets[i - 1], offsets[i], data, offsets[i], offsets[i + 1]) >= 0)
+				throw new IllegalArgumentException("Titles are not sorted and unique at " + i);
+		}
+		
+		beginSection(LinkGraph.SECTION_TITLE_DATA);
+		int offset = offsets[0];
+		while(offset < offsets[titles]) {
+			if(!buffer.hasRemaining())
+				flush();
+			int length = Math.min(buffer.remaining(), offsets[titles] - offset);
+			buffer.put(data, offset, length);
+			offset += length;
+		}
+		endSection(LinkGraph.SECTION_TITLE_DATA);
+		
+		beginSection(LinkGraph.SECTION_TITLE_OFFSETS);
+		for(int i = 0; i <= titles; i++) {
+			if(buffer.remaining() < 4)
+				flush();
+			buffer.putInt(offsets[i] - offsets[0]);
+		}
+		endSection(LinkGraph.SECTION_TITLE_OFFSETS);
+	}
+	
+	/**
+	 * Writes the flags of every article, indexed by ID.
+	 */
+	public void writeFlags(byte[] flags) throws IOException {
+		setNodeCount(flags.length);
+		beginSection(LinkGraph.SECTION_FLAGS);
+		put(flags);
+		endSection(LinkGraph.SECTION_FLAGS);
+	}
+	
+	/**
+	 * Writes the out links in compressed sparse row form. Each row must be sorted and free of duplicates.
+	 * 
+	 * @param offsets Start of each article's row in links, with the total link count last
+	 * @param links Every row back to back, from the buffer's position to its limit
+	 */
+	public void writeOutLinks(int[] offsets, IntBuffer links) throws IOException {
+		writeAdjacency(offsets, links, LinkGraph.SECTION_OUT_OFFSETS, LinkGraph.SECTION_OUT_LINKS);
+	}
+	
+	/**
+	 * Writes the in links in compressed sparse row form, as for {@link #writeOutLinks(int[], IntBuffer)}.
+	 */
+	public void writeInLinks(int[] offsets, IntBuffer links) throws IOException {
+		writeAdjacency(offsets, links, LinkGraph.SECTION_IN_OFFSETS, LinkGraph.SECTION_IN_LINKS);
+	}
+	
+	private void writeAdjacency(int[] offsets, IntBuffer links, int offsetSection, int linkSection) throws IOException {
+		setNodeCount(offsets.length - 1);
+		if(offsets[offsets.length - 1] != links.remaining())
+			throw new IllegalArgumentException("Row offsets do not match the number of links");
+		setEdgeCount(links.remaining());
+		
+		beginSection(offsetSection);
+		putInts(IntBuffer.wrap(offsets));
+		endSection(offsetSection);
+		
+		beginSection(linkSection);
+		putInts(links.duplicate());
+		endSection(linkSection);
+	}
+	
+	private void setNodeCount(int count) {
+		if(nodeCount >= 0 && nodeCount != count)
+			throw new IllegalArgumentException("Section has " + count + " articles, expected " + nodeCount);
+		nodeCount = count;
+	}
+	
+	private void setEdgeCount(int count) {
+		if(edgeCount >= 0 && edgeCount != count)
+			throw new IllegalArgumentException("Section has " + count + " links, expected " + edgeCount);
+		edgeCount = count;
+	}
+	
+	private void beginSection(int section) throws IOException {
+		if(written[section])
+			throw new IllegalStateException("Section " + section + " is already written");
+		//Align every section to 8 bytes
+		while((position + buffer.position()) % 8 != 0)
+			put((byte) 0);
+		sectionOffsets[section] = position + buffer.position();
+	}
+	
+	private void endSection(int section) throws IOException {
+		sectionLengths[section] = position + buffer.position() - sectionOffsets[section];
+		if(sectionLengths[section] > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Section " + section + " is over 2 GB");
+		written[section] = true;
+	}
+	
+	private void put(byte value) throws IOException {
+		if(!buffer.hasRemaining())
+			flush();
+		buffer.put(value);
+	}
+	
+	private void put(byte[] bytes) throws IOException {
+		int offset = 0;
+		while(offset < bytes.length) {
+			if(!buffer.hasRemaining())
+				flush();
+			int length = Math.min(buffer.remaining(), bytes.length - offset);
+			buffer.put(bytes, offset, length);
+			offset += length;
+		}
+	}
+	
+	private void putInts(IntBuffer ints) throws IOException {
+		while(ints.hasRemaining()) {
+			if(buffer.remaining() < 4)
+				flush();
+			IntBuffer view = buffer.asIntBuffer();
+			int count = Math.min(view.remaining(), ints.remaining());
+			int limit = ints.limit();
+			ints.limit(ints.position() + count);
+			view.put(ints);
+			ints.limit(limit);
+			buffer.position(buffer.position() + count * 4);
+		}
+	}
+	
+	private void flush() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining())
+			position += channel.write(buffer, position);
+		buffer.clear();
+	}
+	
+	/**
+	 * Flushes the last section and writes the header. Every section must have been written.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			for(int i = 0; i < LinkGraph.SECTIONS; i++) {
+				if(!written[i])
+					throw new IllegalStateException("Section " + i + " was not written");
+			}
+			flush();
+			
+			ByteBuffer header = ByteBuffer.allocate(LinkGraph.HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(LinkGraph.MAGIC).putInt(LinkGraph.VERSION).putInt(nodeCount).putInt(edgeCount);
+			for(int i = 0; i < LinkGraph.SECTIONS; i++)
+				header.putLong(sectionOffsets[i]).putLong(sectionLengths[i]);
+			header.flip();
+			long offset = 0;
+			while(header.hasRemaining())
+				offset += channel.write(header, offset);
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Builds a snapshot from titles and an edge list held in memory. Titles are normalized and sorted
+	 * to assign IDs; duplicate titles are merged, duplicate links and self links are dropped.
+	 * 
+	 * @param titles Article titles, indexed by the IDs used in sources and targets
+	 * @param flags Flags of each article, indexed the same way, or null for none
+	 * @param sources Article each link is from
+	 * @param targets Article each link is to
+	 * @param edges Number of links in sources and targets
+	 */
+	public static void write(Path file, String[] titles, byte[] flags, int[] sources, int[] targets, int edges)
+			throws IOException {
+		//Sort the titles in byte order; an article's ID is the rank of its title
+		byte[][] encoded = new byte[titles.length][];
+		Integer[] order = new Integer[titles.length];
+		for(int i = 0; i < titles.length; i++) {
+			encoded[i] = LinkGraph.normalizeTitle(titles[i]).getBytes(StandardCharsets.UTF_8);
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(encoded[a], encoded[b]));
+		
+		int[] ids = new int[titles.length];
+		String[] sorted = new String[titles.length];
+		byte[] sortedFlags = new byte[titles.length];
+		int nodes = 0;
+		for(int i = 0; i < order.length; i++) {
+			int old = order[i];
+			if(nodes == 0 || !Arrays.equals(encoded[order[i - 1]], encoded[old]))
+				sorted[nodes++] = new String(encoded[old], StandardCharsets.UTF_8);
+			ids[old] = nodes - 1;
+			if(flags != null)
+				sortedFlags[nodes - 1] |= flags[old];
+		}
+		sorted = Arrays.copyOf(sorted, nodes);
+		sortedFlags = Arrays.copyOf(sortedFlags, nodes);
+		
+		int[] from = new int[edges];
+		int[] to = new int[edges];
+		for(int i = 0; i < edges; i++) {
+			from[i] = ids[sources[i]];
+			to[i] = ids[targets[i]];
+		}
+		
+		int[] outOffsets = new int[nodes + 1];
+		int[] outLinks = buildRows(nodes, from, to, edges, outOffsets);
+		int[] inOffsets = new int[nodes + 1];
+		int[] inLinks = reverseRows(nodes, outOffsets, outLinks, inOffsets);
+		
+		try(LinkGraphWriter writer = new LinkGraphWriter(file)) {
+			writer.writeTitles(sorted);
+			writer.writeFlags(sortedFlags);
+			writer.writeOutLinks(outOffsets, IntBuffer.wrap(outLinks, 0, outOffsets[nodes]));
+			writer.writeInLinks(inOffsets, IntBuffer.wrap(inLinks));
+		}
+	}
+	
+	/**
+	 * Groups an edge list into sorted rows by source with a counting sort, dropping duplicate and self links.
+	 * 
+	 * @param offsets Filled with the start of each row, length nodes + 1
+	 * @return The rows back to back; only the first offsets[nodes] entries are used
+	 */
+	public static int[] buildRows(int nodes, int[] sources, int[] targets, int edges, int[] offsets) {
+		Arrays.fill(offsets, 0);
+		for(int i = 0; i < edges; i++)
+			offsets[sources[i] + 1]++;
+		for(int i = 0; i < nodes; i++)
+			offsets[i + 1] += offsets[i];
+		
+		int[] links = new int[edges];
+		int[] next = Arrays.copyOf(offsets, nodes);
+		for(int i = 0; i < edges; i++)
+			links[next[sources[i]]++] = targets[i];
+		
+		//Sort each row and compact it in place
+		int write = 0;
+		for(int node = 0; node < nodes; node++) {
+			int start = offsets[node];
+			int end = offsets[node + 1];
+			Arrays.sort(links, start, end);
+			offsets[node] = write;
+			for(int i = start; i < end; i++) {
+				if(links[i] != node && (write == offsets[node] || links[write - 1] != links[i]))
+					links[write++] = links[i];
+			}
+		}
+		offsets[nodes] = write;
+		return links;
+	}
+	
+	/**
+	 * Transposes sorted rows. Walking the rows in ID order leaves every transposed row sorted too.
+	 * 
+	 * @param reverseOffsets Filled with the start of each transposed row, length nodes + 1
+	 */
+	public static int[] reverseRows(int nodes, int[] offsets, int[] links, int[] reverseOffsets) {
+		int edges = offsets[nodes];
+		Arrays.fill(reverseOffsets, 0);
+		for(int i = 0; i < edges; i++)
+			reverseOffsets[links[i] + 1]++;
+		for(int i = 0; i < nodes; i++)
+			reverseOffsets[i + 1] += reverseOffsets[i];
+		
+		int[] reverse = new int[edges];
+		int[] next = Arrays.copyOf(reverseOffsets, nodes);
+		for(int node = 0; node < nodes; node++) {
+			for(int i = offsets[node]; i < offsets[node + 1]; i++)
+				reverse[next[links[i]]++] = node;
+		}
+		return reverse;
+	}
+}
@@ -0,0 +1,323 @@
+package graph;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shortest click paths between articles, by bidirectional breadth first search over a LinkGraph.
+ * 
+ * <p>The search grows a frontier forward from the start along out links and backward from the
+ * target along in links, one whole level at a time, always expanding the side with fewer links to
+ * follow. It stops at the first level where the two meet; since every article is checked against
+ * the other side as soon as it is reached, any meeting found in that level gives a shortest path.</p>
+ * 
+ * <p>Frontiers are int arrays and visited sets are bitsets, all allocated once and reused by
+ * every search, so a search on one thread allocates nothing but its result. Levels with many links
+ * to follow are split over a fork/join pool, marking articles visited with a compare and set.</p>
+ * 
+ * <p>A PathFinder is not thread safe; use one per thread. Any number may share a graph and a pool.</p>
+ * 
+ * @author Michael
+ */
+public class PathFinder {
+	/**
+	 * Links to follow in a level before it is expanded in parallel
+	 */
+	private static final int PARALLEL_LINKS = 1 << 16;
+	/**
+	 * Links each parallel task follows at most, before splitting
+	 */
+	private static final int TASK_LINKS = 1 << 13;
+	/**
+	 * Searches give up past this many clicks
+	 */
+	public static final int MAX_CLICKS = 64;
+	
+	private static final VarHandle BITS = MethodHandles.arrayElementVarHandle(long[].class);
+	
+	private final LinkGraph graph;
+	private final ForkJoinPool pool;
+	private final IntBuffer outLinks;
+	private final IntBuffer inLinks;
+	
+	private final Side forward;
+	private final Side backward;
+	
+	/**
+	 * Node where the two sides met in the current level, or -1
+	 */
+	private final AtomicInteger meeting = new AtomicInteger(-1);
+	
+	/**
+	 * Creates a finder that expands every level on the calling thread.
+	 */
+	public PathFinder(LinkGraph graph) {
+		this(graph, null);
+	}
+	
+	/**
+	 * @param pool Pool that large levels are split over, or null to search on the calling thread only
+	 */
+	public PathFinder(LinkGraph graph, ForkJoinPool pool) {
+		this.graph = graph;
+		this.pool = pool;
+		outLinks = graph.outLinks();
+		inLinks = graph.inLinks();
+		forward = new Side(graph.nodeCount(), true);
+		backward = new Side(graph.nodeCount(), false);
+	}
+	
+	/**
+	 * Returns the number of clicks on a shortest path between the articles, or -1 if there is none.
+	 */
+	public int distance(int start, int target) {
+		int[] path = findPath(start, target);
+		return path == null ? -1 : path.length - 1;
+	}
+	
+	/**
+	 * Finds a shortest click path from the start article to the target.
+	 * 
+	 * @return The articles on the path, start and target included, or null if the target cannot be
+	 * reached within {@link #MAX_CLICKS}
+	 */
+	public int[] findPath(int start, int target) {
+		if(start == target)
+			return new int[] {start};
+		
+		forward.reset(start);
+		backward.reset(target);
+		meeting.set(-1);
+		
+		while(forward.size > 0 && backward.size > 0 && forward.depth + backward.depth < MAX_CLICKS) {
+			//Expand the side with fewer links to follow
+			long forwardLinks = forward.linkCount();
+			long backwardLinks = backward.linkCount();
+			Side side = forwardLinks <= backwardLinks ? forward : backward;
+			Side other = side == forward ? backward : forward;
+			
+			if(pool != null && Math.min(forwardLinks, backwardLinks) > PARALLEL_LINKS)
+				side.expandParallel(other);
+			else
+				side.expand(other);
+			
+			int node = meeting.get();
+			if(node >= 0)
+				return path(node);
+		}
+		return null;
+	}
+	
+	/**
+	 * Joins the parent chains of both sides at the node where they met.
+	 */
+	private int[] path(int node) {
+		int before = 0;
+		for(int n = forward.parents[node]; n >= 0; n = forward.parents[n])
+			before++;
+		int after = 0;
+		for(int n = backward.parents[node]; n >= 0; n = backward.parents[n])
+			after++;
+		
+		int[] path = new int[before + 1 + after];
+		int i = before;
+		for(int n = node; n >= 0; n = forward.parents[n])
+			path[i--] = n;
+		i = before + 1;
+		for(int n = backward.parents[node]; n >= 0; n = backward.parents[n])
+			path[i++] = n;
+		return path;
+	}
+	
+	/**
+	 * One direction of the search: its visited set, parents and current frontier.
+	 */
+	private class Side {
+		private final boolean out;
+		private final long[] visited;
+		/**
+		 * Article each visited article was reached from, -1 for the root. Only valid where visited.
+		 */
+		private final int[] parents;
+		private int[] frontier = new int[1024];
+		private int[] next = new int[1024];
+		private int size;
+		private int depth;
+		
+		Side(int nodes, boolean out) {
+			this.out = out;
+			visited = new long[(nodes + 63) >>> 6];
+			parents = new int[nodes];
+		}
+		
+		void reset(int root) {
+			Arrays.fill(visited, 0);
+			visited[root >>> 6] |= 1L << root;
+			parents[root] = -1;
+			frontier[0] = root;
+			size = 1;
+			depth = 0;
+		}
+		
+		int start(int node) {
+			return out ? graph.outStart(node) : graph.inStart(node);
+		}
+		
+		IntBuffer linkBuffer() {
+			return out ? outLinks : inLinks;
+		}
+		
+		/**
+		 * Total number of links from the frontier, which is the work the next level costs.
+		 */
+		long linkCount() {
+			long links = 0;
+			for(int i = 0; i < size; i++)
+				links += start(frontier[i] + 1) - start(frontier[i]);
+			return links;
+		}
+		
+		/**
+		 * Expands the frontier by one level on this thread, stopping as soon as the other side is reached.
+		 */
+		void expand(Side other) {
+			IntBuffer links = linkBuffer();
+			int count = 0;
+			for(int i = 0; i < size; i++) {
+				int node = frontier[i];
+				for(int l = start(node), end = start(node + 1); l < end; l++) {
+					int link = links.get(l);
+					long bit = 1L << link;
+					if((visited[link >>> 6] & bit) != 0)
+						continue;
+					visited[link >>> 6] |= bit;
+					parents[link] = node;
+					
+					if((other.visited[link >>> 6] & bit) != 0) {
+						meeting.set(link);
+						return;
+					}
+					if(count == next.length)
+						next = Arrays.copyOf(next, count * 2);
+					next[count++] = link;
+				}
+			}
+			advance(count);
+		}
+		
+		/**
+		 * Expands the frontier by one level on the pool.
+		 */
+		void expandParallel(Side other) {
+			Expansion root = new Expansion(this, other, 0, size);
+			pool.invoke(root);
+			if(meeting.get() >= 0)
+				return;
+			
+			int count = root.collect(0);
+			advance(count);
+		}
+		
+		private void advance(int count) {
+			int[] previous = frontier;
+			frontier = next;
+			next = previous;
+			size = count;
+			depth++;
+		}
+		
+		/**
+		 * Marks the node visited, unless another task got there first.
+		 */
+		boolean markVisited(int node) {
+			int word = node >>> 6;
+			long bit = 1L << node;
+			long old;
+			do {
+				old = (long) BITS.getVolatile(visited, word);
+				if((old & bit) != 0)
+					return false;
+			} while(!BITS.compareAndSet(visited, word, old, old | bit));
+			return true;
+		}
+	}
+	
+	/**
+	 * Part of a parallel level: a range of the frontier, split while it has many links to follow.
+	 * Leaves keep what they reach in their own array, copied into the next frontier once all are done.
+	 */
+	private class Expansion extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final Side side;
+		private final Side other;
+		private final int from;
+		private final int to;
+		
+		private Expansion left;
+		private Expansion right;
+		private int[] reached;
+		private int count;
+		
+		Expansion(Side side, Side other, int from, int to) {
+			this.side = side;
+			this.other = other;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			long links = 0;
+			for(int i = from; i < to && links <= TASK_LINKS; i++)
+				links += side.start(side.frontier[i] + 1) - side.start(side.frontier[i]);
+			
+			if(links > TASK_LINKS && to - from > 1) {
+				int middle = (from + to) >>> 1;
+				left = new Expansion(side, other, from, middle);
+				right = new Expansion(side, other, middle, to);
+				invokeAll(left, right);
+				return;
+			}
+			
+			IntBuffer linkBuffer = side.linkBuffer();
+			reached = new int[(int) Math.min(links, Integer.MAX_VALUE - 8) + 1];
+			for(int i = from; i < to && meeting.get() < 0; i++) {
+				int node = side.frontier[i];
+				for(int l = side.start(node), end = side.start(node + 1); l < end; l++) {
+					int link = linkBuffer.get(l);
+					if(!side.markVisited(link))
+						continue;
+					side.parents[link] = node;
+					
+					if((other.visited[link >>> 6] & (1L << link)) != 0) {
+						meeting.compareAndSet(-1, link);
+						return;
+					}
+					if(count == reached.length)
+						reached = Arrays.copyOf(reached, count * 2);
+					reached[count++] = link;
+				}
+			}
+		}
+		
+		/**
+		 * Copies everything the leaves under this task reached into the side's next frontier.
+		 * 
+		 * @return Position in the next frontier after the copied nodes
+		 */
+		int collect(int position) {
+			if(left != null)
+				return right.collect(left.collect(position));
+			if(side.next.length < position + count)
+				side.next = Arrays.copyOf(side.next, Math.max(side.next.length * 2, position + count));
+			System.arraycopy(reached, 0, side.next, position, count);
+			return position + count;
+		}
+	}
+}
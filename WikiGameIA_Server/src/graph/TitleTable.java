@@ -0,0 +1,213 @@
+package graph;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Titles collected while reading a dump, kept as UTF-8 in one growing byte array instead of a
+ * String each, so every title of a full Wikipedia dump fits in a modest heap.
+ * 
+ * <p>Titles are added in dump order. {@link #sort()} then puts them in the order LinkGraph numbers
+ * articles, merges duplicates and builds a hash index, after which titles can be looked up by
+ * their bytes from any number of threads.</p>
+ * 
+ * @author Michael
+ */
+class TitleTable {
+	/**
+	 * Ranges at most this long are merge sorted on the calling thread
+	 */
+	private static final int SORT_THRESHOLD = 1 << 13;
+	
+	private byte[] data = new byte[1 << 20];
+	private int dataLength;
+	/**
+	 * Start of each title in data, with the end of the last title after it
+	 */
+	private int[] offsets = new int[1 << 16];
+	private int count;
+	
+	/**
+	 * Hash slots holding ID + 1, 0 for an empty slot. Built by sort.
+	 */
+	private int[] index;
+	private int mask;
+	
+	/**
+	 * Adds a title, normalized and encoded as UTF-8.
+	 * 
+	 * @return Index of the title in the order it was added
+	 */
+	int add(byte[] title) {
+		return add(title, 0, title.length);
+	}
+	
+	int add(byte[] title, int from, int length) {
+		if(index != null)
+			throw new IllegalStateException("Title table is already sorted");
+		if((long) dataLength + length > Integer.MAX_VALUE - 8)
+			throw new IllegalStateException("Title data is over 2 GB");
+		
+		if(dataLength + length > data.length)
+			data = Arrays.copyOf(data, (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) data.length * 2, dataLength + length)));
+		if(count + 2 > offsets.length)
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+		
+		System.arraycopy(title, from, data, dataLength, length);
+		offsets[count] = dataLength;
+		dataLength += length;
+		offsets[count + 1] = dataLength;
+		return count++;
+	}
+	
+	int size() {
+		return count;
+	}
+	
+	/**
+	 * Sorts the titles in unsigned byte order, merging equal ones, and indexes them for lookups.
+	 * 
+	 * @return The ID each title now has, indexed by the order it was added in
+	 */
+	int[] sort() {
+		int[] order = new int[count];
+		for(int i = 0; i < count; i++)
+			order[i] = i;
+		ForkJoinPool.commonPool().invoke(new MergeSort(order, new int[count], 0, count));
+		
+		//Copy the titles out in order, so the data ends up laid out the way the snapshot stores it
+		byte[] sortedData = new byte[dataLength];
+		int[] sortedOffsets = new int[count + 1];
+		int[] ids = new int[count];
+		int length = 0;
+		int unique = 0;
+		for(int i = 0; i < count; i++) {
+			int title = order[i];
+			if(unique == 0 || compare(title, order[i - 1]) != 0) {
+				int titleLength = offsets[title + 1] - offsets[title];
+				System.arraycopy(data, offsets[title], sortedData, length, titleLength);
+				sortedOffsets[unique++] = length;
+				length += titleLength;
+			}
+			ids[title] = unique - 1;
+		}
+		sortedOffsets[unique] = length;
+		
+		data = Arrays.copyOf(sortedData, length);
+		dataLength = length;
+		offsets = Arrays.copyOf(sortedOffsets, unique + 1);
+		count = unique;
+		
+		int slots = Integer.highestOneBit(Math.max(2, count) * 2 - 1) << 1;
+		index = new int[slots];
+		mask = slots - 1;
+		for(int id = 0; id < count; id++) {
+			int slot = hash(data, offsets[id], offsets[id + 1]) & mask;
+			while(index[slot] != 0)
+				slot = (slot + 1) & mask;
+			index[slot] = id + 1;
+		}
+		return ids;
+	}
+	
+	/**
+	 * Returns the ID of the title in the given bytes, or -1 if there is none. Only after sort.
+	 */
+	int find(byte[] key, int from, int to) {
+		int slot = hash(key, from, to) & mask;
+		int id;
+		while((id = index[slot]) != 0) {
+			id--;
+			if(Arrays.equals(data, offsets[id], offsets[id + 1], key, from, to))
+				return id;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+	
+	int find(byte[] key) {
+		return find(key, 0, key.length);
+	}
+	
+	/**
+	 * Every title back to back. Titles are in ID order once sorted.
+	 */
+	byte[] data() {
+		return data;
+	}
+	
+	/**
+	 * Start of each title in {@link #data()}, with the end of the last one after it.
+	 */
+	int[] offsets() {
+		return offsets;
+	}
+	
+	private int compare(int a, int b) {
+		return Arrays.compareUnsigned(data, offsets[a], offsets[a + 1], data, offsets[b], offsets[b + 1]);
+	}
+	
+	/**
+	 * FNV-1a over the bytes, with the bits mixed so the low ones are usable as a slot.
+	 */
+	private static int hash(byte[] bytes, int from, int to) {
+		int hash = 0x811c9dc5;
+		for(int i = from; i < to; i++)
+			hash = (hash ^ (bytes[i] & 0xff)) * 0x01000193;
+		return hash ^ (hash >>> 16);
+	}
+	
+	/**
+	 * Merge sort of title indexes, sorting both halves in parallel while they are large.
+	 */
+	private class MergeSort extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final int[] order;
+		private final int[] scratch;
+		private final int from;
+		private final int to;
+		
+		MergeSort(int[] order, int[] scratch, int from, int to) {
+			this.order = order;
+			this.scratch = scratch;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute() {
+			if(to - from <= SORT_THRESHOLD) {
+				sort(from, to);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new MergeSort(order, scratch, from, middle), new MergeSort(order, scratch, middle, to));
+			merge(from, middle, to);
+		}
+		
+		private void sort(int from, int to) {
+			if(to - from < 2)
+				return;
+			int middle = (from + to) >>> 1;
+			sort(from, middle);
+			sort(middle, to);
+			merge(from, middle, to);
+		}
+		
+		private void merge(int from, int middle, int to) {
+			if(compare(order[middle - 1], order[middle]) <= 0)
+				return;
+			System.arraycopy(order, from, scratch, from, to - from);
+			int left = from;
+			int right = middle;
+			for(int i = from; i < to; i++) {
+				if(right >= to || (left < middle && compare(scratch[left], scratch[right]) <= 0))
+					order[i] = scratch[left++];
+				else
+					order[i] = scratch[right++];
+			}
+		}
+	}
+}
@@ -0,0 +1,335 @@
+package graph;
+
+/**
+ * Renders the wikitext of an article into plain HTML for the offline article server. Only what a
+ * player reads and clicks is kept: paragraphs, headings, lists, bold and italic text, and links to
+ * other articles as "/wiki/(title)". Templates, tables, references, files, categories, comments
+ * and external links are dropped, since rendering them needs the whole of MediaWiki.
+ * 
+ * @author Michael
+ */
+final class WikitextRenderer {
+	/**
+	 * Elements dropped along with everything in them
+	 */
+	private static final String[] DROPPED_ELEMENTS = {"ref", "gallery", "math", "timeline", "score", "syntaxhighlight",
+			"source", "imagemap", "references", "nowiki", "templatedata", "mapframe"};
+	/**
+	 * Namespaces of links that embed or categorize instead of linking, or lead off the encyclopedia
+	 */
+	private static final String[] DROPPED_NAMESPACES = {"file", "image", "category", "media", "wikt", "wiktionary",
+			"commons", "s", "q", "n", "b", "v", "voy", "species", "d", "wikidata", "meta", "mw", "wp"};
+	private static final int MAX_HEADING = 6;
+	
+	private WikitextRenderer() {
+	}
+	
+	/**
+	 * Appends the article's HTML to out.
+	 */
+	static void render(String text, StringBuilder out) {
+		String cleaned = strip(text);
+		
+		boolean paragraph = false;
+		char list = 0;
+		int start = 0;
+		while(start < cleaned.length()) {
+			int end = cleaned.indexOf('\n', start);
+			if(end < 0)
+				end = cleaned.length();
+			String line = cleaned.substring(start, end).trim();
+			start = end + 1;
+			
+			char marker = line.isEmpty() ? 0 : line.charAt(0);
+			boolean listItem = marker == '*' || marker == '#';
+			if(list != 0 && (!listItem || marker != list)) {
+				out.append(list == '*' ? "</ul>" : "</ol>");
+				list = 0;
+			}
+			if(paragraph && (line.isEmpty() || listItem || marker == '=' || line.startsWith("----"))) {
+				out.append("</p>");
+				paragraph = false;
+			}
+			if(line.isEmpty())
+				continue;
+			
+			if(marker == '=' && line.length() > 2 && line.endsWith("=")) {
+				int level = 0;
+				while(level < line.length() / 2 && line.charAt(level) == '=' && line.charAt(line.length() - 1 - level) == '=')
+					level++;
+				//Every = is markup, though HTML has no headings past <h6>
+				int tag = Math.min(level, MAX_HEADING);
+				out.append("<h").append(tag).append('>');
+				inline(line.substring(level, line.length() - level).trim(), out);
+				out.append("</h").append(tag).append(">\n");
+			} else if(listItem) {
+				if(list == 0) {
+					list = marker;
+					out.append(list == '*' ? "<ul>" : "<ol>");
+				}
+				int item = 0;
+				while(item < line.length() && "*#:;".indexOf(line.charAt(item)) >= 0)
+					item++;
+				out.append("<li>");
+				inline(line.substring(item).trim(), out);
+				out.append("</li>\n");
+			} else if(line.startsWith("----")) {
+				out.append("<hr>\n");
+			} else {
+				int indent = 0;
+				while(indent < line.length() && (line.charAt(indent) == ':' || line.charAt(indent) == ';'))
+					indent++;
+				//Lines left empty once templates and files are gone
+				String rest = line.substring(indent).trim();
+				if(rest.isEmpty())
+					continue;
+				if(!paragraph) {
+					out.append("<p>");
+					paragraph = true;
+				} else {
+					out.append('\n');
+				}
+				inline(rest, out);
+			}
+		}
+		if(paragraph)
+			out.append("</p>");
+		if(list != 0)
+			out.append(list == '*' ? "</ul>" : "</ol>");
+	}
+	
+	/**
+	 * Removes comments, templates, tables, dropped elements and the tags of other elements,
+	 * keeping their content.
+	 */
+	private static String strip(String text) {
+		StringBuilder out = new StringBuilder(text.length());
+		int i = 0;
+		while(i < text.length()) {
+			char c = text.charAt(i);
+			if(c == '<') {
+				if(text.startsWith("<!--", i)) {
+					i = skipPast(text, i + 4, "-->");
+					continue;
+				}
+				String dropped = droppedElement(text, i);
+				if(dropped != null) {
+					int close = text.indexOf('>', i);
+					if(close < 0)
+						break;
+					//Self closing, ex. <ref name="a" />
+					if(text.charAt(close - 1) == '/')
+						i = close + 1;
+					else
+						i = skipPast(text, close + 1, "</" + dropped + ">");
+					continue;
+				}
+				if(i + 1 < text.length() && (Character.isLetter(text.charAt(i + 1)) || text.charAt(i + 1) == '/')) {
+					int close = text.indexOf('>', i);
+					if(close < 0)
+						break;
+					i = close + 1;
+					continue;
+				}
+			} else if(c == '{' && i + 1 < text.length()) {
+				char next = text.charAt(i + 1);
+				if(next == '{') {
+					i = skipNested(text, i, "{{", "}}");
+					continue;
+				}
+				if(next == '|' && (i == 0 || text.charAt(i - 1) == '\n')) {
+					i = skipNested(text, i, "{|", "|}");
+					continue;
+				}
+			}
+			out.append(c);
+			i++;
+		}
+		return out.toString();
+	}
+	
+	/**
+	 * Name of the dropped element whose opening tag starts at i, or null.
+	 */
+	private static String droppedElement(String text, int i) {
+		for(String element : DROPPED_ELEMENTS) {
+			int end = i + 1 + element.length();
+			if(text.regionMatches(true, i + 1, element, 0, element.length()) && end < text.length()
+					&& (text.charAt(end) == '>' || text.charAt(end) == ' ' || text.charAt(end) == '/'))
+				return element;
+		}
+		return null;
+	}
+	
+	private static int skipPast(String text, int from, String end) {
+		int found = indexOfIgnoreCase(text, end, from);
+		return found < 0 ? text.length() : found + end.length();
+	}
+	
+	private static int indexOfIgnoreCase(String text, String target, int from) {
+		for(int i = from; i + target.length() <= text.length(); i++) {
+			if(text.regionMatches(true, i, target, 0, target.length()))
+				return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Index just past the close matching the open at i, counting nested opens.
+	 */
+	private static int skipNested(String text, int i, String open, String close) {
+		int depth = 0;
+		while(i < text.length()) {
+			if(text.startsWith(open, i)) {
+				depth++;
+				i += open.length();
+			} else if(text.startsWith(close, i)) {
+				depth--;
+				i += close.length();
+				if(depth == 0)
+					return i;
+			} else {
+				i++;
+			}
+		}
+		return i;
+	}
+	
+	/**
+	 * Renders links, bold and italic text in a line, escaping everything else.
+	 */
+	private static void inline(String line, StringBuilder out) {
+		boolean bold = false;
+		boolean italic = false;
+		int i = 0;
+		while(i < line.length()) {
+			char c = line.charAt(i);
+			if(c == '\'' && line.startsWith("'''", i)) {
+				out.append(bold ? "</b>" : "<b>");
+				bold = !bold;
+				i += 3;
+			} else if(c == '\'' && line.startsWith("''", i)) {
+				out.append(italic ? "</i>" : "<i>");
+				italic = !italic;
+				i += 2;
+			} else if(c == '[' && line.startsWith("[[", i)) {
+				i = link(line, i, out);
+			} else if(c == '[' && (line.startsWith("[http", i) || line.startsWith("[//", i))) {
+				//External link: only its label is kept
+				int close = line.indexOf(']', i);
+				if(close < 0) {
+					escape(c, out);
+					i++;
+					continue;
+				}
+				int space = line.indexOf(' ', i);
+				if(space >= 0 && space < close)
+					escape(line, space + 1, close, out);
+				i = close + 1;
+			} else if(c == '&' && isEntity(line, i)) {
+				out.append(c);
+				i++;
+			} else {
+				escape(c, out);
+				i++;
+			}
+		}
+		if(italic)
+			out.append("</i>");
+		if(bold)
+			out.append("</b>");
+	}
+	
+	/**
+	 * Renders the [[link]] starting at i.
+	 * 
+	 * @return Index just past the link
+	 */
+	private static int link(String line, int i, StringBuilder out) {
+		int end = skipNested(line, i, "[[", "]]");
+		if(!line.startsWith("]]", end - 2)) {
+			//Never closed
+			out.append("[[");
+			return i + 2;
+		}
+		String inner = line.substring(i + 2, end - 2);
+		int bar = inner.indexOf('|');
+		String target = (bar >= 0 ? inner.substring(0, bar) : inner).trim();
+		String label = bar >= 0 ? inner.substring(bar + 1) : target;
+		
+		boolean leadingColon = target.startsWith(":");
+		if(leadingColon)
+			target = target.substring(1);
+		int colon = target.indexOf(':');
+		if(colon > 0) {
+			String prefix = target.substring(0, colon).trim();
+			String namespace = prefix.toLowerCase();
+			for(String dropped : DROPPED_NAMESPACES) {
+				if(namespace.equals(dropped))
+					return end;
+			}
+			//Other language editions, ex. [[fr:Paris]]. Language codes are written in lower case, while
+			//articles such as [[Sex: The Annabel Chong Story]] start with a capital
+			if(!leadingColon && prefix.length() >= 2 && prefix.length() <= 3 && prefix.chars().allMatch(c -> c >= 'a' && c <= 'z'))
+				return end;
+		}
+		if(label.isEmpty())
+			label = target;
+		
+		//Letters right after the link belong to its label, ex. [[dog]]s
+		int suffix = end;
+		while(suffix < line.length() && Character.isLetter(line.charAt(suffix)))
+			suffix++;
+		
+		int fragment = target.indexOf('#');
+		String title = LinkGraph.normalizeTitle(fragment >= 0 ? target.substring(0, fragment) : target);
+		if(title.isEmpty()) {
+			//A section of this article
+			escape(label, 0, label.length(), out);
+			escape(line, end, suffix, out);
+			return suffix;
+		}
+		out.append("<a href=\"/wiki/").append(LinkGraph.toUrlTitle(title));
+		if(fragment >= 0)
+			out.append('#').append(LinkGraph.toUrlTitle(target.substring(fragment + 1).trim()));
+		out.append("\">");
+		inline(label, out);
+		escape(line, end, suffix, out);
+		out.append("</a>");
+		return suffix;
+	}
+	
+	/**
+	 * True for an HTML entity at i, ex. "&amp;nbsp;", which is kept as it is.
+	 */
+	private static boolean isEntity(String line, int i) {
+		int j = i + 1;
+		while(j < line.length() && j - i <= 10 && (Character.isLetterOrDigit(line.charAt(j)) || line.charAt(j) == '#'))
+			j++;
+		return j > i + 1 && j < line.length() && line.charAt(j) == ';';
+	}
+	
+	private static void escape(String text, int from, int to, StringBuilder out) {
+		for(int i = from; i < to; i++)
+			escape(text.charAt(i), out);
+	}
+	
+	private static void escape(char c, StringBuilder out) {
+		switch(c) {
+		case '&':
+			out.append("&amp;");
+			break;
+		case '<':
+			out.append("&lt;");
+			break;
+		case '>':
+			out.append("&gt;");
+			break;
+		case '"':
+			out.append("&quot;");
+			break;
+		default:
+			out.append(c);
+		}
+	}
+}
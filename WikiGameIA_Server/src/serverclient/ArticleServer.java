@@ -0,0 +1,157 @@
+package serverclient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import graph.ArticleArchive;
+import graph.LinkGraph;
+
+/**
+ * Serves the articles of an {@link ArticleArchive} over HTTP the way Wikipedia does, so the game
+ * can be played without Wikipedia, ex. on a LAN with no internet access. Clients are pointed at it
+ * with --wiki=http://(host):(port).
+ * 
+ * <pre>GET /wiki/(title)          -> the article, or the article a redirect leads to
+ * GET /wiki/Special:Random   -> redirect to a random article</pre>
+ * 
+ * Pages are laid out the way the client's page rewriter expects Wikipedia's to be. Each request is
+ * served on its own thread, virtual if the runtime has them.
+ * 
+ * <pre>java serverclient.ArticleServer &lt;archive&gt; [--port=8080] [--bind=localhost]</pre>
+ * 
+ * @author Michael
+ */
+public class ArticleServer {
+	public static final int DEFAULT_PORT = 8080;
+	
+	private static final byte[] PAGE_START = ("<!DOCTYPE html>\n<html><head><meta charset=\"UTF-8\"><title>").getBytes(StandardCharsets.UTF_8);
+	private static final byte[] PAGE_HEADING = ("</title><style>body{font-family:sans-serif;max-width:60em;margin:1em auto;line-height:1.5}"
+			+ "a{color:#0645ad;text-decoration:none}</style></head>\n<body>\n<div id=\"bodyContent\"><h1>").getBytes(StandardCharsets.UTF_8);
+	private static final byte[] PAGE_CONTENT = "</h1>\n".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] PAGE_END = ("\n<div id=\"mw-data-after-content\"></div>\n<footer>Offline article archive</footer>\n</body></html>\n")
+			.getBytes(StandardCharsets.UTF_8);
+	
+	private final ArticleArchive archive;
+	private final HttpServer server;
+	
+	private final LongAdder served = new LongAdder();
+	private final LongAdder notFound = new LongAdder();
+	private final LongAdder serveNanos = new LongAdder();
+	private final AtomicLong maxServeNanos = new AtomicLong();
+	
+	public ArticleServer(ArticleArchive archive, InetSocketAddress address) throws IOException {
+		this.archive = archive;
+		//Headers and body are written separately, which Nagle's algorithm would hold back for the client's delayed ACK
+		if(System.getProperty("sun.net.httpserver.nodelay") == null)
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		server = HttpServer.create(address, 0);
+		ThreadFactory threads = BlockingConnection.connectionThreads();
+		server.setExecutor(runnable -> threads.newThread(runnable).start());
+		server.createContext("/wiki/", this::handle);
+	}
+	
+	public void start() {
+		server.start();
+	}
+	
+	public void stop() {
+		server.stop(0);
+	}
+	
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	
+	private void handle(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		try {
+			if(!exchange.getRequestMethod().equals("GET")) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			//Decoded, so titles arrive as they are written
+			String title = exchange.getRequestURI().getPath().substring("/wiki/".length());
+			if(title.equals("Special:Random")) {
+				exchange.getResponseHeaders().set("Location", "/wiki/" + LinkGraph.toUrlTitle(archive.title(archive.random())));
+				exchange.getResponseHeaders().set("Cache-Control", "no-store");
+				exchange.sendResponseHeaders(302, -1);
+				return;
+			}
+			
+			int id = archive.find(title);
+			if(id < 0) {
+				notFound.increment();
+				byte[] body = ("No article named " + escape(title)).getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+				exchange.sendResponseHeaders(404, body.length);
+				exchange.getResponseBody().write(body);
+				return;
+			}
+			
+			byte[] article = archive.article(id);
+			byte[] heading = escape(archive.title(archive.resolve(id))).getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+			exchange.sendResponseHeaders(200, PAGE_START.length + heading.length * 2 + PAGE_HEADING.length + PAGE_CONTENT.length
+					+ article.length + PAGE_END.length);
+			OutputStream body = exchange.getResponseBody();
+			body.write(PAGE_START);
+			body.write(heading);
+			body.write(PAGE_HEADING);
+			body.write(heading);
+			body.write(PAGE_CONTENT);
+			body.write(article);
+			body.write(PAGE_END);
+			
+			long time = System.nanoTime() - start;
+			served.increment();
+			serveNanos.add(time);
+			maxServeNanos.accumulateAndGet(time, Math::max);
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+	
+	@Override
+	public String toString() {
+		long pages = served.sum();
+		return String.format("Article server on port %d: %d pages served, %d not found, %.2f ms mean, %.2f ms max", getPort(), pages,
+				notFound.sum(), pages == 0 ? 0 : serveNanos.sum() / 1e6 / pages, maxServeNanos.get() / 1e6);
+	}
+	
+	public static void main(String[] args) throws IOException {
+		String archiveFile = null;
+		int port = DEFAULT_PORT;
+		String bind = "localhost";
+		for(String arg : args) {
+			if(arg.startsWith("--port="))
+				port = Integer.parseInt(arg.substring("--port=".length()));
+			else if(arg.startsWith("--bind="))
+				bind = arg.substring("--bind=".length());
+			else if(archiveFile == null)
+				archiveFile = arg;
+		}
+		if(archiveFile == null) {
+			System.out.println("Usage: java serverclient.ArticleServer <archive> [--port=8080] [--bind=localhost]");
+			System.exit(1);
+		}
+		
+		ArticleArchive archive = ArticleArchive.open(Paths.get(archiveFile));
+		ArticleServer server = new ArticleServer(archive, new InetSocketAddress(InetAddress.getByName(bind), port));
+		server.start();
+		System.out.println(archive + " served at http://" + bind + ":" + server.getPort() + "/wiki/");
+	}
+}
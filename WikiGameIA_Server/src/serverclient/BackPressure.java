@@ -0,0 +1,90 @@
+package serverclient;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import utilities.SharedFrame;
+
+/**
+ * Outbound limits shared by every connection, and counters of how often they are applied.
+ * 
+ * <p>Each connection may have up to the send budget queued before the slow consumer policy kicks
+ * in. Past the send limit, or once its frame queue is full, a connection is closed whatever the
+ * policy. Frames other than ready state updates are never coalesced or dropped, since the client
+ * cannot recover them.</p>
+ * 
+ * @author Michael
+ */
+public class BackPressure {
+	private final int sendBudget;
+	private final int sendLimit;
+	private final SlowConsumerPolicy policy;
+	
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong disconnected = new AtomicLong();
+	
+	public BackPressure(int sendBudget, int sendLimit, SlowConsumerPolicy policy) {
+		this.sendBudget = sendBudget;
+		this.sendLimit = sendLimit;
+		this.policy = policy;
+	}
+	
+	public int getSendBudget() {
+		return sendBudget;
+	}
+	
+	public int getSendLimit() {
+		return sendLimit;
+	}
+	
+	public SlowConsumerPolicy getPolicy() {
+		return policy;
+	}
+	
+	/**
+	 * Returns true if a newer frame for the same user makes this one obsolete, so it may be
+	 * coalesced or dropped. Only R/U ready state updates qualify.
+	 */
+	public static boolean isSupersedable(SharedFrame frame) {
+		char opcode = frame.getMessage().getOpcode();
+		return (opcode == 'R' || opcode == 'U') && frame.getMessage().fieldCount() > 0;
+	}
+	
+	/**
+	 * Key that supersedable frames are coalesced on: the user the state update is about.
+	 */
+	public static String supersedeKey(SharedFrame frame) {
+		return frame.getMessage().getField(0);
+	}
+	
+	void coalesced() {
+		coalesced.incrementAndGet();
+	}
+	
+	void dropped() {
+		dropped.incrementAndGet();
+	}
+	
+	void disconnected() {
+		disconnected.incrementAndGet();
+	}
+	
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+	
+	public long getDropped() {
+		return dropped.get();
+	}
+	
+	public long getDisconnected() {
+		return disconnected.get();
+	}
+	
+	@Override
+	public String toString() {
+		return "Back-pressure (" + policy.name().toLowerCase() + ", budget " + sendBudget + " B, limit " + sendLimit
+				+ " B) coalesced: " + coalesced.get() + " dropped: " + dropped.get()
+				+ " slow disconnects: " + disconnected.get();
+	}
+}
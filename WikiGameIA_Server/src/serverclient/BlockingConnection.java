@@ -0,0 +1,177 @@
+package serverclient;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import utilities.BufferPool;
+import utilities.FrameReader;
+import utilities.Message;
+import utilities.ProtocolException;
+import utilities.SharedFrame;
+
+/**
+ * Connection served with plain blocking I/O: one thread reads and dispatches frames, and a second
+ * thread drains the write queue, so a slow client never blocks the room that is sending to it.
+ * The write thread parks while the queue is empty and senders unpark it.
+ * Meant to run on virtual threads, where two threads per connection are cheap.
+ * 
+ * @author Michael
+ */
+public class BlockingConnection implements Connection {
+	private final SocketChannel channel;
+	private final String address;
+	private final SessionHandler sessionHandler;
+	private final FrameReader reader;
+	private final User user;
+	
+	private final OutboundQueue writeQueue;
+	private final WriteBatch writeBatch;
+	private final long writeDelay;
+	private final AtomicBoolean closed = new AtomicBoolean();
+	/**
+	 * Set once the write thread has stopped taking from the queue, after which senders release
+	 * anything they queue themselves
+	 */
+	private volatile boolean writerDone;
+	
+	private Thread readThread;
+	private Thread writeThread;
+	
+	public BlockingConnection(SocketChannel channel, int sessionId, SessionHandler sessionHandler, BufferPool pool,
+			BackPressure backPressure, ServerConfig config) throws IOException {
+		this.channel = channel;
+		this.sessionHandler = sessionHandler;
+		writeQueue = new OutboundQueue(backPressure);
+		writeBatch = new WriteBatch(config.getWriteBatch());
+		writeDelay = config.getWriteDelay() * 1_000_000;
+		address = channel.getRemoteAddress().toString();
+		reader = new FrameReader(pool);
+		//Address is the default username until the client registers one
+		user = new User(sessionId, address, this);
+	}
+	
+	/**
+	 * Starts the read and write threads for this connection.
+	 */
+	public void start(ThreadFactory threads) {
+		readThread = threads.newThread(this::readLoop);
+		writeThread = threads.newThread(this::writeLoop);
+		readThread.start();
+		writeThread.start();
+	}
+	
+	@Override
+	public String getAddress() {
+		return address;
+	}
+	
+	@Override
+	public void send(SharedFrame frame) {
+		if(closed.get())
+			return;
+		if(writeQueue.isOverLimit())
+			return; //Already being closed
+		if(!writeQueue.offer(frame)) {
+			System.out.println("Client at " + address + " is too far behind, closing connection.");
+			close();
+			return;
+		}
+		if(writerDone)
+			writeQueue.clear(); //Closed while queueing, nobody else will release it
+		else
+			LockSupport.unpark(writeThread);
+	}
+	
+	@Override
+	public void close() {
+		if(!closed.compareAndSet(false, true))
+			return;
+		
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		if(writeThread != null)
+			writeThread.interrupt();
+	}
+	
+	private void readLoop() {
+		try {
+			Message message;
+			while(reader.read(channel) >= 0) {
+				//A single read may contain any number of complete frames
+				while((message = reader.next()) != null)
+					sessionHandler.message(user, message);
+			}
+		} catch (ProtocolException e) {
+			System.out.println("Protocol error from client: " + e.getMessage());
+		} catch (IOException e) {
+			if(!closed.get()) {
+				System.out.println("Error while reading client data!");
+				e.printStackTrace();
+			}
+		} finally {
+			close();
+			reader.release();
+			System.out.println("Connection at address " + address + " closed.");
+			sessionHandler.disconnected(user);
+		}
+	}
+	
+	private void writeLoop() {
+		boolean idle = true;
+		try {
+			while(!closed.get()) {
+				if(writeBatch.fill(writeQueue) == 0) {
+					LockSupport.park(this);
+					idle = true;
+					continue;
+				}
+				
+				//Give the rest of a burst the write delay to arrive, then take it into the same batch
+				if(idle && writeDelay > 0) {
+					LockSupport.parkNanos(this, writeDelay);
+					writeBatch.fill(writeQueue);
+				}
+				idle = false;
+				
+				while(!writeBatch.write(channel)) {
+					if(closed.get())
+						return;
+				}
+			}
+		} catch (IOException e) {
+			if(!closed.get())
+				e.printStackTrace();
+		} finally {
+			close();
+			writerDone = true;
+			writeBatch.clear();
+			writeQueue.clear();
+		}
+	}
+	
+	/**
+	 * Returns a factory for virtual threads when the runtime has them (Java 21+), otherwise for
+	 * daemon platform threads.
+	 */
+	public static ThreadFactory connectionThreads() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			System.out.println("Virtual threads are not available, using platform threads.");
+			return runnable -> {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				return thread;
+			};
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package serverclient;
+
+import utilities.SharedFrame;
+
+/**
+ * Transport for a single client connection. Implemented once for the selector-based event loops
+ * and once for blocking thread-per-connection I/O, so the session and room logic is shared by
+ * both server modes.
+ * 
+ * @author Michael
+ */
+public interface Connection {
+	/**
+	 * Queues a frame to be written to the client. Safe to call from any thread. The connection takes
+	 * its own reference to the frame; the caller keeps theirs.
+	 */
+	void send(SharedFrame frame);
+	
+	/**
+	 * Closes the connection. Safe to call from any thread and more than once.
+	 */
+	void close();
+	
+	/**
+	 * Remote address of the client.
+	 */
+	String getAddress();
+}
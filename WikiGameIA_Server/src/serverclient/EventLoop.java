@@ -0,0 +1,347 @@
+package serverclient;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import utilities.BufferPool;
+import utilities.IntHashMap;
+import utilities.Message;
+import utilities.ProtocolException;
+
+/**
+ * A single network event loop. Each loop runs on its own thread with its own Selector, and every
+ * connection is pinned to exactly one loop for its whole life, so connection state is only ever
+ * touched by that loop's thread.
+ * 
+ * <p>Other threads hand work to a loop with {@link #execute(Runnable)}, which queues the task
+ * and wakes the selector. Each Room is also owned by a single loop; messages from connections on
+ * other loops are posted to it this way, so room state needs no locking.</p>
+ * 
+ * @author Michael
+ */
+public class EventLoop implements Runnable {
+	private final int id;
+	private final Selector selector;
+	private final BufferPool bufferPool;
+	private final BackPressure backPressure;
+	private final int writeBatch;
+	private final long writeDelay;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	/**
+	 * Delayed tasks ordered by deadline. Only touched on this loop's thread.
+	 */
+	private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+	
+	private SessionHandler sessionHandler;
+	
+	/**
+	 * Session ID-keyed connections pinned to this loop. The hot path never looks connections up
+	 * here; each one is attached to its SelectionKey.
+	 */
+	private final IntHashMap<NioConnection> sessions = new IntHashMap<>();
+	private volatile int connectionCount;
+	
+	private Thread thread;
+	
+	public EventLoop(int id, ServerConfig config, BufferPool bufferPool, BackPressure backPressure) throws IOException {
+		this.id = id;
+		this.bufferPool = bufferPool;
+		this.backPressure = backPressure;
+		writeBatch = config.getWriteBatch();
+		writeDelay = config.getWriteDelay();
+		selector = Selector.open();
+	}
+	
+	public void setSessionHandler(SessionHandler sessionHandler) {
+		this.sessionHandler = sessionHandler;
+	}
+	
+	public int getId() {
+		return id;
+	}
+	
+	/**
+	 * Maximum number of frames written to a connection with one gathering write.
+	 */
+	public int getWriteBatch() {
+		return writeBatch;
+	}
+	
+	/**
+	 * Milliseconds a connection waits after its first queued frame before writing, so the frames of
+	 * a burst go out together. 0 writes on the next select.
+	 */
+	public long getWriteDelay() {
+		return writeDelay;
+	}
+	
+	/**
+	 * Starts the loop on a new thread.
+	 */
+	public void start() {
+		thread = new Thread(this, "EventLoop-" + id);
+		thread.start();
+	}
+	
+	/**
+	 * Returns true if the calling thread is this loop's thread.
+	 */
+	public boolean inLoop() {
+		return Thread.currentThread() == thread;
+	}
+	
+	/**
+	 * Runs the task on this loop's thread. Safe to call from any thread.
+	 */
+	public void execute(Runnable task) {
+		tasks.offer(task);
+		if(!inLoop())
+			selector.wakeup();
+	}
+	
+	/**
+	 * Runs the task on this loop's thread once the delay has passed. Safe to call from any thread.
+	 */
+	public void schedule(Runnable task, long delayMillis) {
+		long deadline = System.nanoTime() + delayMillis * 1_000_000;
+		execute(() -> timers.add(new Timer(deadline, task)));
+	}
+	
+	/**
+	 * Wakes the loop's selector so it picks up interest changes made by another thread.
+	 */
+	public void wakeup() {
+		if(!inLoop())
+			selector.wakeup();
+	}
+	
+	/**
+	 * Hands a newly accepted connection to this loop. Called from the acceptor thread.
+	 */
+	public void register(SocketChannel clientChannel, int sessionId) {
+		execute(() -> accept(clientChannel, sessionId));
+	}
+	
+	public int getConnectionCount() {
+		return connectionCount;
+	}
+	
+	@Override
+	public void run() {
+		while(true) {
+			try {
+				//Blocks until there is network activity, another thread posts a task or the next timer is due.
+				//Tasks this loop posted to itself do not wake the selector, so never block while any are pending
+				long timeout = timerTimeout();
+				if(!tasks.isEmpty() || timeout < 0)
+					selector.selectNow();
+				else
+					selector.select(timeout);
+			} catch (IOException e) {
+				System.out.println("Selector failure in event loop " + id + "!");
+				e.printStackTrace();
+				return;
+			}
+			
+			Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+			
+			//Process all SelectionKeys available
+			while(keyIterator.hasNext()) {
+				SelectionKey key = keyIterator.next();
+				keyIterator.remove();
+				
+				//A failure handling one connection closes that connection, not the loop serving all the others
+				try {
+					if(key.isValid())
+						writeProcess(key);
+					
+					if(key.isValid())
+						readProcess(key);
+				} catch(RuntimeException e) {
+					System.out.println("Connection failed in event loop " + id + "!");
+					e.printStackTrace();
+					close((NioConnection) key.attachment());
+				}
+			}
+			
+			runTimers();
+			runTasks();
+		}
+	}
+	
+	/**
+	 * Milliseconds until the next timer is due, rounded up, 0 to wait indefinitely if there are no
+	 * timers, or -1 if one is already due.
+	 */
+	private long timerTimeout() {
+		Timer next = timers.peek();
+		if(next == null)
+			return 0;
+		long remaining = next.deadline - System.nanoTime();
+		if(remaining <= 0)
+			return -1;
+		return (remaining + 999_999) / 1_000_000;
+	}
+	
+	private void runTimers() {
+		long now = System.nanoTime();
+		Timer timer;
+		while((timer = timers.peek()) != null && timer.deadline - now <= 0) {
+			timers.poll();
+			try {
+				timer.task.run();
+			} catch(RuntimeException e) {
+				System.out.println("Timer failed in event loop " + id + "!");
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	private void runTasks() {
+		Runnable task;
+		while((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch(RuntimeException e) {
+				System.out.println("Task failed in event loop " + id + "!");
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Registers a new connection with this loop's selector. The user joins a room once they ask to.
+	 */
+	private void accept(SocketChannel clientChannel, int sessionId) {
+		try {
+			clientChannel.configureBlocking(false);
+			SelectionKey clientKey = clientChannel.register(selector, SelectionKey.OP_READ);
+			//Register read operations to client SocketChannel. Write interest is only added while the user has queued data
+			
+			String address = clientChannel.getRemoteAddress().toString();
+			System.out.println("Client address: " + address + " is session " + sessionId + " on event loop " + id);
+			
+			NioConnection connection = new NioConnection(clientChannel, address, bufferPool, backPressure, this);
+			connection.setKey(clientKey);
+			clientKey.attach(connection);
+			//Address is the default username until the client registers one
+			connection.setUser(new User(sessionId, address, connection));
+			sessions.put(sessionId, connection);
+			connectionCount = sessions.size();
+		} catch (IOException e) {
+			System.out.println("Error when accepting client connection!");
+			e.printStackTrace();
+			try {
+				clientChannel.close();
+			} catch (IOException e1) {
+				e1.printStackTrace();
+			}
+		}
+	}
+	
+	private void readProcess(SelectionKey key) {
+		if(!key.isReadable())
+			return;
+		
+		SocketChannel readChannel = (SocketChannel) key.channel();
+		NioConnection connection = (NioConnection) key.attachment();
+		try {
+			int read;
+			try{
+				read = connection.getReader().read(readChannel);
+			}
+			catch(SocketException e) {
+				read = -1;
+			}
+			
+			if(defaultProcess(read, connection))
+				return;
+			
+			//A single read may contain any number of complete frames
+			Message message;
+			while(!connection.isClosed() && (message = connection.getReader().next()) != null)
+				sessionHandler.message(connection.getUser(), message);
+			
+		} catch (ProtocolException e) {
+			System.out.println("Protocol error from client: " + e.getMessage());
+			close(connection);
+		} catch (IOException e) {
+			System.out.println("Error while reading client data!");
+			e.printStackTrace();
+			close(connection);
+		}
+	}
+	
+	/**
+	 * Write the connection's queued frames to the key channel. Anything the socket does not accept is
+	 * kept for the next writable event. The connection is closed if the write fails.
+	 * @param key
+	 */
+	private void writeProcess(SelectionKey key) {
+		if(key.isWritable()) {
+			NioConnection connection = (NioConnection) key.attachment();
+			try {
+				connection.flush();
+			} catch(IOException e) {
+				e.printStackTrace();
+				close(connection);
+			}
+		}
+	}
+	
+	/**
+	 * Handler for data that is always valid (regardless of gamestate). Returns true if the connection
+	 * has been closed.
+	 * @param read Result of the last read on the channel, -1 on end of stream
+	 * @return 
+	 */
+	private boolean defaultProcess(int read, NioConnection connection) {
+		if(read < 0) {
+			close(connection);
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Closes a connection, releases its buffers and removes the user from their room.
+	 * Must be called on this loop.
+	 */
+	void close(NioConnection connection) {
+		if(connection == null || connection.isClosed())
+			return;
+		
+		try {
+			connection.getChannel().close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		System.out.println("Connection at address " + connection.getAddress() + " closed.");
+		
+		sessions.remove(connection.getUser().getSessionId());
+		connectionCount = sessions.size();
+		connection.release();
+		sessionHandler.disconnected(connection.getUser());
+	}
+	
+	private static class Timer implements Comparable<Timer> {
+		final long deadline;
+		final Runnable task;
+		
+		Timer(long deadline, Runnable task) {
+			this.deadline = deadline;
+			this.task = task;
+		}
+		
+		@Override
+		public int compareTo(Timer other) {
+			return Long.compare(deadline - other.deadline, 0);
+		}
+	}
+}
@@ -1,321 +1,332 @@
 package serverclient;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
-import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
+import java.net.StandardSocketOptions;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
 
-import utilities.Queue;
+import graph.ArticleArchive;
+import graph.LandmarkIndex;
+import graph.LinkGraph;
+import utilities.ArticleDictionary;
+import utilities.BufferPool;
 
 /**
  * GameServer application for hosting Wikigame servers.
  * 
+ * <p>The main thread accepts connections and hands each one to one of several EventLoops in turn.
+ * Each loop has its own selector and thread, so the server scales with the number of cores. A
+ * single server hosts any number of game rooms, each owned by one of the loops.</p>
+ * 
+ * <p>In blocking mode, connections are instead served by a BlockingConnection on their own
+ * (virtual) threads, while rooms still run on the event loops.</p>
+ * 
  * @author Michael
- *
+ * 
  */
 public class GameServer {
-	static int portNumber = 25566; //default port#
+	private static ServerConfig config;
 	
-	private static Selector selector;
 	private static ServerSocketChannel socketChannel;
-	private static SelectionKey key;
+	private static EventLoop[] loops;
 	
 	/**
-	 *  IP Address-keyed userlist hashmap
+	 * Direct buffers for all connection reads and writes
 	 */
-	private static HashMap<String, User> userList;
-	
-	private static Queue writeQueue;
-	
+	private static BufferPool bufferPool;
 	/**
-	 * Gamestates
-	 * 0: Lobby
-	 * 1: Game
-	 * 2: Post
+	 * Outbound limits and slow consumer counters for every connection
 	 */
-	private static int gameState;
+	private static BackPressure backPressure;
 	
 	/**
-	 * Switch which calls different a more specific handle method depending
-	 * on the server game state.
+	 * Wikipedia link graph, or null if none was configured
+	 */
+	private static LinkGraph graph;
+	/**
+	 * Distance bounds over the link graph, or null if none was configured
+	 */
+	private static LandmarkIndex landmarks;
+	/**
+	 * Titles of the graph's articles by ID, for clients that name articles by ID, or null if none was configured
+	 */
+	private static ArticleDictionary dictionary;
+	/**
+	 * Ready-made puzzles from the link graph, or null if none was configured
+	 */
+	private static PuzzlePool puzzles;
+	/**
+	 * Shortest paths and move checks over the link graph, or null if none was configured
+	 */
+	private static PathSolver solver;
+	/**
+	 * Articles served over HTTP in place of Wikipedia, or null if none were configured
 	 */
-	static void handle() {
-		if(key.isAcceptable()) { // New user connection
-			SocketChannel clientChannel;
+	private static ArticleServer articleServer;
+	
+	private static RoomRegistry rooms;
+	private static SessionHandler sessionHandler;
+	private static ThreadFactory connectionThreads;
+	
+	public static void main(String[] args) throws IOException {
+		try {
+			config = ServerConfig.parse(args);
+		} catch(IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
+		
+		if(config.getGraphFile() != null) {
+			long start = System.nanoTime();
 			try {
-				clientChannel = socketChannel.accept();
-				clientChannel.configureBlocking(false);
-				clientChannel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
-				//Register read and write operations to client SocketChannel
-				
-				System.out.println("Client connected at " + clientChannel.getLocalAddress());
-				System.out.println("Client address: " + clientChannel.getRemoteAddress());
-				
-				//Add user to userList with address as default username. Casting is guaranteed to be correct, so long as the channel is bound
-				userList.put(clientChannel.getRemoteAddress().toString(), 
-						new User(clientChannel.getRemoteAddress().toString(), clientChannel));
-				
-				refreshUserList(clientChannel.getRemoteAddress().toString());
-			} catch (IOException e) {
-				System.out.println("Error when accepting client connection!");
-				e.printStackTrace();
+				graph = LinkGraph.open(Paths.get(config.getGraphFile()));
+			} catch(IOException e) {
+				System.out.println("Could not load link graph " + config.getGraphFile() + ": " + e.getMessage());
+				System.exit(1);
 				return;
 			}
+			System.out.println(graph + " loaded in " + (System.nanoTime() - start) / 1_000_000 + " ms");
 		}
-		if(key.isReadable()) {
-			SocketChannel readChannel = (SocketChannel) key.channel();
-			ByteBuffer buffer = ByteBuffer.allocate(1024);
+		if(config.getLandmarkFile() != null) {
+			if(graph == null) {
+				System.out.println("A landmark index needs a link graph, use --graph");
+				System.exit(1);
+				return;
+			}
 			try {
-				try{
-					readChannel.read(buffer);
-				}
-				catch(SocketException e) {
-					defaultProcess("", readChannel);
-					return;
-				}
-				
-				String data = new String(buffer.array()).trim();
-				String address = readChannel.getRemoteAddress().toString();
-				
-				if(defaultProcess(data, readChannel))
-					return;
-				
-				/*
-				 * DATA PROCESSING START
-				 * 
-				 * Expected recieved values:
-				 * I|(Username) -> set username of the user (SHOULD ONLY BE CALLED IMMEDIATELY FOLLOWING CONNECTION)
-				 * R -> change ready state of user to ready
-				 * U -> change ready state of user to not ready
-				 * Z|(article)|(article) -> Response from client for requested random browser pages.
-				 * F -> User won the game
-				 */
-				
-				//Special case for user initialization
-				if(data.charAt(0) == 'I') {
-					if(data.length() < 3) {
-						System.out.println("Invalid username registration from " + readChannel.getRemoteAddress().toString());
-						return;
-					}
-					String cUsername = data.substring(2);
-					
-					User tempUser = userList.remove(address);
-					if(tempUser == null) { // User does not exist
-						System.out.println("Nonexistent user command " + data + " from address " + address);
-						return;
-					}
-					tempUser.setUsername(cUsername);
-					userList.put(address, tempUser);
-					
-					System.out.println("User " + userList.get(address).getUsername() + " set for address " + readChannel.getRemoteAddress().toString());
-					
-					writeQueue.push("N|" + cUsername);
-					
-					return;
-				}
-				//Case for game start ready
-				if(data.charAt(0) == 'Z') {
-					String start = data.substring(2, data.indexOf('|', 2));
-					String target = data.substring(data.indexOf('|', 2) + 1);
-					writeQueue.push("S|" + start + "|" + target);
-					System.out.println("GAME STARTED!");
-					System.out.println("Start: " + start + " Goal: " + target);
-				}
-				
-				//User not registered (not in userlist)
-				if(!userList.containsKey(address)) {
-					System.out.println("Command " + data + " from unregistered address " + readChannel.getRemoteAddress().toString());
-					return;
-				}
-				
-				String username = userList.get(address).getUsername();
-				
-				switch(data.charAt(0)) {
-				case 'R':
-					userList.get(address).ready();
-					System.out.println("User " + username + " is ready.");
-					writeQueue.push("R|" + username);
-					break;
-				case 'U':
-					userList.get(address).unready();
-					System.out.println("User " + username + " is not ready.");
-					writeQueue.push("U|" + username);
-					break;
-				case 'F':
-					writeQueue.push("W|" + username);
-					System.out.println("User " + username + " has won!");
-					break;
-				default:
-					System.out.println("Invalid command " + data + " from user: " + userList.get(address).getUsername());
-				}
-				
-			} catch (IOException e) {
-				System.out.println("Error while handling lobby data!");
-				e.printStackTrace();
-				System.exit(0);
+				landmarks = LandmarkIndex.open(Paths.get(config.getLandmarkFile()), graph);
+			} catch(IOException e) {
+				System.out.println("Could not load landmark index " + config.getLandmarkFile() + ": " + e.getMessage());
+				System.exit(1);
 				return;
 			}
+			System.out.println(landmarks + " loaded");
 		}
-	}
-	
-	/**
-	 * Handler for data that is always valid (regardless of gamestate). Returns true if the connection
-	 * has been closed.
-	 * @return 
-	 * @throws IOException 
-	 */
-	static boolean defaultProcess(String data, SocketChannel readChannel) throws IOException {
-		if(data.length() <= 0) {
-			String address = readChannel.getRemoteAddress().toString();
-			readChannel.close();
-			System.out.println("Connection at address " + address + " closed.");
-			writeQueue.push("D|" + userList.get(address).toString());
-			userList.remove(address);
-			return true;
+		if(config.getDictionaryFile() != null) {
+			if(graph == null) {
+				System.out.println("An article dictionary needs a link graph, use --graph");
+				System.exit(1);
+				return;
+			}
+			try {
+				dictionary = loadDictionary(Paths.get(config.getDictionaryFile()));
+			} catch(IOException e) {
+				System.out.println("Could not load article dictionary " + config.getDictionaryFile() + ": " + e.getMessage());
+				System.exit(1);
+				return;
+			}
+			System.out.println(dictionary + " loaded");
 		}
-		return false;
-	}
-	
-	/**
-	 * Tells the clients to add the entire user-list. Used when adding new clients to update
-	 * the entire list.
-	 */
-	static void refreshUserList(String address) {
-		//for: user, add every use that is not themself
-		for(User user : userList.values()) {
-			if(user != userList.get(address))
-				userList.get(address).writeQueue.push("N|" + user.getUsername());
+		
+		if(config.getArticleFile() != null) {
+			try {
+				ArticleArchive archive = ArticleArchive.open(Paths.get(config.getArticleFile()));
+				articleServer = new ArticleServer(archive, new InetSocketAddress(InetAddress.getByName(config.getBindAddress()), config.getArticlePort()));
+			} catch(IOException e) {
+				System.out.println("Could not serve article archive " + config.getArticleFile() + ": " + e.getMessage());
+				System.exit(1);
+				return;
+			}
+			articleServer.start();
+			System.out.println("Articles served at http://" + config.getBindAddress() + ":" + articleServer.getPort()
+					+ "/wiki/, start clients with --wiki=http://(this host):" + articleServer.getPort());
 		}
+		
+		bufferPool = new BufferPool();
+		if(config.getSendLimit() < config.getSendBudget()) {
+			System.out.println("The send limit must not be below the send budget");
+			System.exit(1);
+			return;
+		}
+		backPressure = new BackPressure(config.getSendBudget(), config.getSendLimit(), config.getSlowPolicy());
+		
+		//Start the network event loops
+		loops = new EventLoop[config.getEventLoops()];
+		for(int i = 0; i < loops.length; i++)
+			loops[i] = new EventLoop(i, config, bufferPool, backPressure);
+		if(graph != null) {
+			solver = new PathSolver(graph);
+			puzzles = new PuzzlePool(graph, landmarks);
+			puzzles.start();
+		}
+		rooms = new RoomRegistry(loops, bufferPool, solver, puzzles);
+		sessionHandler = new SessionHandler(rooms, bufferPool, dictionary);
+		for(EventLoop loop : loops) {
+			loop.setSessionHandler(sessionHandler);
+			loop.start();
+		}
+		if(config.isBlockingMode())
+			connectionThreads = BlockingConnection.connectionThreads();
+		
+		//Socketchannel creation and binding. Accepting is done blocking on this thread
+		socketChannel = ServerSocketChannel.open();
+		socketChannel.bind(new InetSocketAddress(InetAddress.getByName(config.getBindAddress()), config.getPort()));
+		
+		System.out.println("WikiGame server started on port: " + config.getPort() + " with " + loops.length + " event loops"
+				+ (config.isBlockingMode() ? " in blocking mode" : ""));
+		/*
+		 * Print list of commands
+		 */
+		
+		System.out.println("***Commands***\n"
+				+ "start <room> [clicks]	Starts the game in a room, optionally with a puzzle of a difficulty:\n"
+				+ "		a number of clicks (4), a range (3-5), or easy, medium or hard.\n"
+				+ "abort <room>	Ends the game in a room, regardless of game state.\n"
+				+ "rooms		Lists all rooms.\n"
+				+ "stats		Prints network statistics.");
+		
+		ServerConsole console = new ServerConsole();
+		console.start();
+		
+		acceptLoop();
 	}
 	
 	/**
-	 * Lobby nio data handler.
+	 * Opens the article dictionary at the given path, or writes one from the link graph if there is
+	 * no file yet. The file is what clients load to name articles by ID.
 	 * 
-	 * <pre>Expected recieved values:<br>
-	 * I|(Username) -> set username of the user (SHOULD ONLY BE CALLED IMMEDIATELY FOLLOWING CONNECTION)<br>
-	 * R -> change ready state of user to ready<br>
-	 * U -> change ready state of user to not ready<br>
-	 * Z|(article)|(article) -> Response from client for requested random browser pages.</pre>
+	 * @throws IOException If the file cannot be read or written, or belongs to a different graph
 	 */
-	static void handleLobby() {
+	private static ArticleDictionary loadDictionary(Path file) throws IOException {
+		if(Files.exists(file)) {
+			ArticleDictionary loaded = ArticleDictionary.open(file);
+			int last = graph.nodeCount() - 1;
+			if(loaded.size() != graph.nodeCount() || (last >= 0 && (!loaded.title(0).equals(graph.title(0))
+					|| !loaded.title(last).equals(graph.title(last)))))
+				throw new IOException("The dictionary was written from a different link graph");
+			return loaded;
+		}
+		
+		long start = System.nanoTime();
+		ArticleDictionary.Builder builder = new ArticleDictionary.Builder();
+		for(int node = 0; node < graph.nodeCount(); node++)
+			builder.add(graph.title(node));
+		ArticleDictionary built = builder.build();
+		built.write(file);
+		System.out.println("Wrote article dictionary " + file + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+		return built;
 	}
 	
 	/**
-	 * Write to the key channel. Returns true if write operation succeeded.
-	 * @param key
-	 * @return
-	 * @throws IOException 
+	 * Accepts connections forever, pinning each one to the next event loop in turn, or starting
+	 * its own threads in blocking mode.
 	 */
-	private static void writeProcess(SelectionKey key) throws IOException {
-		if(key.isWritable()) {
-			SocketChannel channel = (SocketChannel) key.channel();
-			ByteBuffer buffer;
-			
-			User user = userList.get(channel.getRemoteAddress().toString());
-			
-			while(!user.writeQueue.isEmpty()) {
-				buffer = ByteBuffer.wrap(user.writeQueue.pop().getBytes());
-				try {
-					channel.write(buffer);
-				} catch(IOException e) {
-					e.printStackTrace();
+	private static void acceptLoop() {
+		int next = 0;
+		int sessionId = 0;
+		while(true) {
+			try {
+				SocketChannel clientChannel = socketChannel.accept();
+				//Frames are batched before they are written, so Nagle's algorithm would only add delay
+				clientChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				System.out.println("Client connected at " + clientChannel.getLocalAddress());
+				
+				//Session IDs are never 0, which marks an empty slot in the session tables
+				if(++sessionId <= 0)
+					sessionId = 1;
+				
+				if(config.isBlockingMode()) {
+					new BlockingConnection(clientChannel, sessionId, sessionHandler, bufferPool, backPressure, config)
+							.start(connectionThreads);
+					continue;
 				}
+				loops[next].register(clientChannel, sessionId);
+				next = (next + 1) % loops.length;
+			} catch (IOException e) {
+				System.out.println("Error when accepting client connection!");
+				e.printStackTrace();
 			}
 		}
 	}
 	
-	public static void main(String[] args) throws IOException {
-		BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
-		
-		gameState = 0;
-		userList = new HashMap<>();
-		selector = Selector.open();
-		writeQueue = new Queue();
-		
-		//Socketchannel creation and binding
-		socketChannel = ServerSocketChannel.open();
-		socketChannel.configureBlocking(false);
-		socketChannel.bind(new InetSocketAddress(InetAddress.getByName("localhost"), 25566));
-		
-		socketChannel.register(selector, SelectionKey.OP_ACCEPT);
-		
-		System.out.println("WikiGame server started on port: " + portNumber);
-		/*
-		 * Print list of commands
-		 */
-		
-		System.out.println("***Commands***\n"
-				+ "start		Starts the game\n"
-				+ "abort		Ends the game, regardless of game state.");
-		
-		int written = 0;
+	/**
+	 * Runs a single operator command from the ServerConsole. Room commands are posted to the
+	 * event loop that owns the room.
+	 */
+	static void runCommand(String s) {
+		String[] args = s.split("\\s+");
 		
-		while(true) {
-			
-			//Server commands
-			String s = "";
-			while(input.ready()) {
-				s += (char)input.read();
+		switch(args[0]) {
+		case "start":
+		case "abort":
+			if(args.length < 2) {
+				System.out.println("Usage: " + args[0] + " <room>" + (args[0].equals("start") ? " [clicks]" : ""));
+				return;
 			}
-			System.out.print(s);
-			s = s.trim();
-			
-			if(s.equals("start"))
-				startGame();
-			else if(s.equals("abort"))
-				writeQueue.push("A");
-			else if(!s.equals(""))
-				System.out.println("Invalid command!");
-			
-			if(selector.select() <= 0)
-				continue;
-			
-			Set<SelectionKey> keySet = selector.selectedKeys();
-			Iterator<SelectionKey> keyIterator = keySet.iterator();
-			
-			//Process all SelectionKeys available
-			while(keyIterator.hasNext()) {
-				key = keyIterator.next();
-				keyIterator.remove();
-				
-				if(key.isValid())
-					writeProcess(key);
-				
-				handle();
+			Room room = rooms.get(args[1]);
+			if(room == null) {
+				System.out.println("No room named " + args[1]);
+				return;
 			}
-			//Distrbute all write operations to all users
-			while(!writeQueue.isEmpty()) {
-				for(User user : userList.values()) {
-					user.writeQueue.push(writeQueue.peek());
+			if(args[0].equals("start") && args.length > 2) {
+				int[] clicks = parseDifficulty(args[2]);
+				if(clicks == null) {
+					System.out.println("Invalid difficulty " + args[2] + ", use a number of clicks, a range like 3-5, or easy, medium or hard");
+					return;
 				}
-				writeQueue.pop();
-			}
+				room.getLoop().execute(() -> room.startGame(clicks[0], clicks[1]));
+			} else if(args[0].equals("start"))
+				room.getLoop().execute(room::startGame);
+			else
+				room.getLoop().execute(room::abort);
+			break;
+		case "rooms":
+			List<Room> roomList = rooms.list();
+			System.out.println(roomList.size() + " rooms");
+			for(Room r : roomList)
+				System.out.println(r.getName() + "	" + r.getState() + "	" + r.getUserCount() + " users	(event loop " + r.getLoop().getId() + ")");
+			break;
+		case "stats":
+			printStats();
+			break;
+		default:
+			System.out.println("Invalid command!");
 		}
 	}
 	
-	static void startGame() {
-		//Request articles from an individual client
-		if(!userList.values().iterator().hasNext()) {
-			System.out.print("No users! Cannot start the game.");
-			return;
+	/**
+	 * Parses a difficulty given to the start command into the least and most clicks of its shortest
+	 * path, or returns null if it is invalid.
+	 */
+	private static int[] parseDifficulty(String difficulty) {
+		switch(difficulty) {
+		case "easy":
+			return new int[] {PuzzlePool.MIN_CLICKS, 3};
+		case "medium":
+			return new int[] {4, 5};
+		case "hard":
+			return new int[] {6, LandmarkIndex.MAX_DISTANCE};
 		}
-		
-		User user = userList.values().iterator().next();
-		user.writeQueue.push("Z");
-		System.out.println("Requesting random page from user " + user.getUsername());
+		try {
+			int dash = difficulty.indexOf('-');
+			int min = Integer.parseInt(dash < 0 ? difficulty : difficulty.substring(0, dash));
+			int max = dash < 0 ? min : Integer.parseInt(difficulty.substring(dash + 1));
+			if(min < PuzzlePool.MIN_CLICKS || max < min)
+				return null;
+			return new int[] {min, max};
+		} catch(NumberFormatException e) {
+			return null;
+		}
+	}
+	
+	private static void printStats() {
+		System.out.println(bufferPool);
+		System.out.println(backPressure);
+		if(puzzles != null)
+			System.out.println(puzzles);
+		if(solver != null)
+			System.out.println(solver.getLinkChecker());
+		if(articleServer != null)
+			System.out.println(articleServer);
+		for(int i = 0; i < loops.length; i++)
+			System.out.println("Event loop " + i + ": " + loops[i].getConnectionCount() + " connections");
 	}
 }
@@ -0,0 +1,181 @@
+package serverclient;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import utilities.BufferPool;
+import utilities.FrameReader;
+import utilities.SharedFrame;
+
+/**
+ * Connection served by an EventLoop. All state here belongs to the loop's thread; other threads
+ * only go through {@link #send(SharedFrame)} and {@link #close()}. Frames sent from any thread go
+ * straight into a lock-free queue that only the loop drains.
+ * 
+ * @author Michael
+ */
+public class NioConnection implements Connection {
+	private final SocketChannel channel;
+	private final String address;
+	private final EventLoop loop;
+	private volatile SelectionKey key;
+	private User user;
+	
+	private final OutboundQueue writeQueue;
+	/**
+	 * Set while write interest is registered (or about to be), so only the first of a run of
+	 * senders touches the SelectionKey and wakes the loop
+	 */
+	private final AtomicBoolean writeScheduled = new AtomicBoolean();
+	
+	/**
+	 * Frames taken from writeQueue that are not completely written yet
+	 */
+	private final WriteBatch writeBatch;
+	
+	private FrameReader reader;
+	private volatile boolean closed;
+	
+	public NioConnection(SocketChannel channel, String address, BufferPool pool, BackPressure backPressure, EventLoop loop) {
+		this.channel = channel;
+		this.address = address;
+		this.loop = loop;
+		writeQueue = new OutboundQueue(backPressure);
+		writeBatch = new WriteBatch(loop.getWriteBatch());
+		reader = new FrameReader(pool);
+	}
+	
+	public SocketChannel getChannel() {
+		return channel;
+	}
+	
+	@Override
+	public String getAddress() {
+		return address;
+	}
+	
+	public void setKey(SelectionKey key) {
+		this.key = key;
+	}
+	
+	public EventLoop getLoop() {
+		return loop;
+	}
+	
+	public User getUser() {
+		return user;
+	}
+	
+	public void setUser(User user) {
+		this.user = user;
+	}
+	
+	/**
+	 * Queues a frame from any thread and registers write interest, so the selector only wakes for
+	 * writes while there is something to send. The queue takes its own reference to the frame.
+	 * A connection that falls too far behind is closed.
+	 */
+	@Override
+	public void send(SharedFrame frame) {
+		if(closed)
+			return;
+		
+		if(writeQueue.isOverLimit())
+			return; //Already being closed
+		if(!writeQueue.offer(frame)) {
+			System.out.println("Client at " + address + " is too far behind, closing connection.");
+			close();
+			return;
+		}
+		
+		if(closed) {
+			//Closed while queueing; the loop may already have drained the queue
+			loop.execute(writeQueue::clear);
+			return;
+		}
+		
+		if(writeScheduled.compareAndSet(false, true))
+			scheduleWrite();
+	}
+	
+	@Override
+	public void close() {
+		loop.execute(() -> loop.close(this));
+	}
+	
+	/**
+	 * Adds write interest to the key, after the loop's write delay if it has one so that a burst of
+	 * sends is written together.
+	 */
+	private void scheduleWrite() {
+		if(loop.getWriteDelay() > 0)
+			loop.schedule(this::addWriteInterest, loop.getWriteDelay());
+		else
+			addWriteInterest();
+	}
+	
+	/**
+	 * Interest changes from other threads only take effect on the next select, so the loop is
+	 * woken for them.
+	 */
+	private void addWriteInterest() {
+		SelectionKey key = this.key;
+		if(key == null)
+			return;
+		try {
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		} catch(CancelledKeyException e) {
+			return; //Closed, release() drains the queue
+		}
+		loop.wakeup();
+	}
+	
+	/**
+	 * Writes as much of the queue as the socket accepts, up to a batch of frames per gathering
+	 * write. Partially written frames are kept and resumed on the next call. Once the queue is
+	 * empty, write interest is dropped.
+	 * 
+	 * @return true if everything queued has been written
+	 * @throws IOException
+	 */
+	public boolean flush() throws IOException {
+		while(writeBatch.fill(writeQueue) > 0) {
+			if(!writeBatch.write(channel))
+				return false; //Socket buffer full, wait for the next OP_WRITE
+		}
+		if(key != null && key.isValid())
+			key.interestOps(SelectionKey.OP_READ);
+		writeScheduled.set(false);
+		
+		//A sender may have queued a frame after the last poll but seen writeScheduled still set
+		if(!writeQueue.isEmpty() && writeScheduled.compareAndSet(false, true)) {
+			scheduleWrite();
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Accumulating frame decoder for data read from this connection.
+	 */
+	public FrameReader getReader() {
+		return reader;
+	}
+	
+	public boolean isClosed() {
+		return closed;
+	}
+	
+	/**
+	 * Gives back all pooled resources held by the connection. Called once the channel is closed.
+	 */
+	public void release() {
+		closed = true;
+		reader.release();
+		writeBatch.clear();
+		writeQueue.clear();
+	}
+}
@@ -0,0 +1,218 @@
+package serverclient;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import utilities.MpscArrayQueue;
+import utilities.SharedFrame;
+
+/**
+ * Frames waiting to be written to one connection, and the number of bytes they add up to. Any
+ * thread may offer frames; only the connection's writer (its event loop, or its write thread)
+ * takes them.
+ * 
+ * <p>While the queued bytes and frames are within budget every frame is queued as is. Past it, the
+ * {@link SlowConsumerPolicy} decides what happens to ready state updates. Coalesced updates are
+ * held aside, one per user, and are queued once the writer has caught up. Any other frame queued
+ * while updates are held goes in behind them, so the client sees every change in order.</p>
+ * 
+ * @author Michael
+ */
+public class OutboundQueue {
+	/**
+	 * Maximum number of frames queued for a connection
+	 */
+	public static final int CAPACITY = 1024;
+	/**
+	 * Number of queued frames past which the connection counts as over its send budget, however
+	 * few bytes they add up to, so small frames reach the slow consumer policy before the queue fills
+	 */
+	public static final int FRAME_BUDGET = CAPACITY / 2;
+	
+	private final BackPressure backPressure;
+	private final MpscArrayQueue<SharedFrame> queue = new MpscArrayQueue<>(CAPACITY);
+	private final AtomicLong queuedBytes = new AtomicLong();
+	/**
+	 * Set once the connection has gone over its limit. Nothing more is queued after that.
+	 */
+	private final AtomicBoolean overLimit = new AtomicBoolean();
+	
+	/**
+	 * Latest coalesced state update for each user. Guarded by this.
+	 */
+	private LinkedHashMap<String, SharedFrame> held;
+	private volatile boolean holding;
+	
+	public OutboundQueue(BackPressure backPressure) {
+		this.backPressure = backPressure;
+	}
+	
+	/**
+	 * Queues the frame, unless the slow consumer policy coalesces or drops it. The queue takes
+	 * its own reference to any frame it keeps. Safe to call from any thread.
+	 * 
+	 * @return false if the connection is over its limit and should be closed
+	 */
+	public boolean offer(SharedFrame frame) {
+		if(overLimit.get())
+			return false;
+		
+		long queued = queuedBytes.get() + frame.length();
+		if(queued > backPressure.getSendLimit())
+			return overLimit();
+		
+		if(queued > backPressure.getSendBudget() || queue.size() > FRAME_BUDGET || holding) {
+			switch(backPressure.getPolicy()) {
+			case COALESCE:
+				if(BackPressure.isSupersedable(frame)) {
+					hold(frame);
+					return true;
+				}
+				if(holding)
+					return offerBehindHeld(frame);
+				break;
+			case DROP:
+				if(BackPressure.isSupersedable(frame)) {
+					backPressure.dropped();
+					return true;
+				}
+				break;
+			case DISCONNECT:
+				return overLimit();
+			}
+		}
+		return push(frame.retain());
+	}
+	
+	/**
+	 * Queues a frame the caller already holds a reference for. On failure that reference is released.
+	 */
+	private boolean push(SharedFrame frame) {
+		queuedBytes.addAndGet(frame.length());
+		if(!queue.offer(frame)) {
+			queuedBytes.addAndGet(-frame.length());
+			frame.release();
+			return overLimit();
+		}
+		return true;
+	}
+	
+	/**
+	 * Marks the connection as over its limit, counting it once for the slow disconnect metric.
+	 * 
+	 * @return false, for offer to pass on
+	 */
+	private boolean overLimit() {
+		if(overLimit.compareAndSet(false, true))
+			backPressure.disconnected();
+		return false;
+	}
+	
+	/**
+	 * True once the connection has gone over its limit and is about to be closed.
+	 */
+	public boolean isOverLimit() {
+		return overLimit.get();
+	}
+	
+	/**
+	 * Keeps the frame as the latest state of its user, replacing any earlier one still held.
+	 */
+	private synchronized void hold(SharedFrame frame) {
+		if(held == null)
+			held = new LinkedHashMap<>();
+		
+		//Removed first so the user moves to the back, behind anything held before this update
+		SharedFrame previous = held.remove(BackPressure.supersedeKey(frame));
+		held.put(BackPressure.supersedeKey(frame), frame.retain());
+		holding = true;
+		
+		if(previous != null) {
+			previous.release();
+			backPressure.coalesced();
+		}
+	}
+	
+	private synchronized boolean offerBehindHeld(SharedFrame frame) {
+		return queueHeld() && push(frame.retain());
+	}
+	
+	/**
+	 * Moves every held update into the queue. Must hold the lock.
+	 */
+	private boolean queueHeld() {
+		boolean queued = true;
+		if(held != null) {
+			for(SharedFrame frame : held.values())
+				queued &= push(frame);
+			held.clear();
+		}
+		holding = false;
+		return queued;
+	}
+	
+	/**
+	 * Queues the held updates once everything before them has been taken. Writer only.
+	 * 
+	 * @return true if any frames were queued
+	 */
+	public boolean releaseHeld() {
+		if(!holding || !queue.isEmpty())
+			return false;
+		synchronized(this) {
+			if(!holding)
+				return false;
+			queueHeld();
+			return true;
+		}
+	}
+	
+	/**
+	 * Returns the next frame to write without removing it, or null if there is none ready. Writer only.
+	 */
+	public SharedFrame peek() {
+		return queue.peek();
+	}
+	
+	/**
+	 * Removes the next frame to write, or returns null if there is none ready. The caller takes
+	 * over the queue's reference. Writer only.
+	 */
+	public SharedFrame poll() {
+		SharedFrame frame = queue.poll();
+		if(frame != null)
+			queuedBytes.addAndGet(-frame.length());
+		return frame;
+	}
+	
+	/**
+	 * True if nothing is queued or held.
+	 */
+	public boolean isEmpty() {
+		return queue.isEmpty() && !holding;
+	}
+	
+	/**
+	 * Bytes currently queued, not counting held updates.
+	 */
+	public long getQueuedBytes() {
+		return queuedBytes.get();
+	}
+	
+	/**
+	 * Releases everything queued and held. Writer only, or once the writer has stopped.
+	 */
+	public synchronized void clear() {
+		SharedFrame frame;
+		while((frame = poll()) != null)
+			frame.release();
+		
+		if(held != null) {
+			for(SharedFrame heldFrame : held.values())
+				heldFrame.release();
+			held.clear();
+		}
+		holding = false;
+	}
+}
@@ -0,0 +1,119 @@
+package serverclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import graph.LinkChecker;
+import graph.LinkGraph;
+import graph.PathFinder;
+import utilities.ArticleDictionary;
+
+/**
+ * Finds shortest click paths between articles for the rooms, off the event loops so a search never
+ * holds up network traffic. Each solver thread keeps its own PathFinder; large search levels are
+ * split over a shared fork/join pool. Also checks the moves players make against the graph.
+ *
+ * @author Michael
+ */
+public class PathSolver {
+	/**
+	 * Searches run at once. Each finder holds two bitsets and two ints per article.
+	 */
+	private static final int THREADS = 2;
+
+	private final LinkGraph graph;
+	private final ForkJoinPool pool = new ForkJoinPool();
+	private final ExecutorService executor;
+	private final ThreadLocal<PathFinder> finders;
+	private final LinkChecker links;
+
+	public PathSolver(LinkGraph graph) {
+		this.graph = graph;
+		links = new LinkChecker(graph);
+		finders = ThreadLocal.withInitial(() -> new PathFinder(graph, pool));
+		executor = Executors.newFixedThreadPool(THREADS, r -> {
+			Thread thread = new Thread(r, "PathSolver");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Finds a shortest path between two articles in the background. Titles may be given as they
+	 * appear in article URLs.
+	 *
+	 * @return Titles of the articles along the path, or an empty list if either article is not in the
+	 * graph or the target cannot be reached
+	 */
+	public CompletableFuture<List<String>> solve(String start, String target) {
+		return CompletableFuture.supplyAsync(() -> {
+			long time = System.nanoTime();
+			int from = find(start);
+			int to = find(target);
+			if(from < 0 || to < 0)
+				return Collections.<String>emptyList();
+
+			int[] path = finders.get().findPath(from, to);
+			if(path == null)
+				return Collections.<String>emptyList();
+
+			List<String> titles = new ArrayList<>(path.length);
+			for(int node : path)
+				titles.add(graph.title(node));
+			System.out.println("Shortest path from " + start + " to " + target + ": " + (path.length - 1)
+					+ " clicks, found in " + (System.nanoTime() - time) / 1_000_000 + " ms");
+			return titles;
+		}, executor);
+	}
+
+	/**
+	 * Returns the article a title leads to, following a redirect, or -1 if there is none.
+	 */
+	public int find(String title) {
+		//A section of the article
+		int fragment = title.indexOf('#');
+		if(fragment >= 0)
+			title = title.substring(0, fragment);
+
+		int node = graph.find(title);
+		if(node < 0 && title.indexOf('%') >= 0)
+			node = graph.find(ArticleDictionary.fromUrlTitle(title));
+		return node < 0 ? -1 : graph.resolve(node);
+	}
+
+	/**
+	 * Returns the article an ID sent by a client leads to, following a redirect, or -1 if there is
+	 * no such ID.
+	 */
+	public int resolve(int id) {
+		return id < 0 || id >= graph.nodeCount() ? -1 : graph.resolve(id);
+	}
+
+	/**
+	 * Title of an article as it appears in its URL, or null if there is no such ID.
+	 */
+	public String urlTitle(int id) {
+		return id < 0 || id >= graph.nodeCount() ? null : LinkGraph.toUrlTitle(graph.title(id));
+	}
+
+	/**
+	 * True if the article links directly to the target, so a player may click from one to the other.
+	 * Takes microseconds; safe to call on an event loop.
+	 */
+	public boolean isLink(int from, int to) {
+		return links.hasLink(from, to);
+	}
+
+	public LinkChecker getLinkChecker() {
+		return links;
+	}
+
+	public LinkGraph getGraph() {
+		return graph;
+	}
+}
@@ -0,0 +1,49 @@
+package serverclient;
+
+import java.util.List;
+
+/**
+ * Start and target articles of a round, with a shortest path between them.
+ * 
+ * @author Michael
+ */
+public class Puzzle {
+	private final String start;
+	private final String target;
+	private final List<String> path;
+	
+	/**
+	 * @param start Start article, as it appears in the article's URL
+	 * @param target Target article, as it appears in the article's URL
+	 * @param path Titles along a shortest path from start to target
+	 */
+	public Puzzle(String start, String target, List<String> path) {
+		this.start = start;
+		this.target = target;
+		this.path = path;
+	}
+	
+	public String getStart() {
+		return start;
+	}
+	
+	public String getTarget() {
+		return target;
+	}
+	
+	public List<String> getPath() {
+		return path;
+	}
+	
+	/**
+	 * Clicks on a shortest path.
+	 */
+	public int getClicks() {
+		return path.size() - 1;
+	}
+	
+	@Override
+	public String toString() {
+		return start + " -> " + target + " (" + getClicks() + " clicks)";
+	}
+}
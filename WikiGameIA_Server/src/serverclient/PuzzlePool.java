@@ -0,0 +1,245 @@
+package serverclient;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import graph.LandmarkIndex;
+import graph.LinkGraph;
+import graph.PathFinder;
+
+/**
+ * Ready-made puzzles, so a round starts the moment it is asked for. A background thread samples
+ * start and target articles uniformly from the link graph and keeps a bounded pool of pairs that
+ * make a fair round: neither article is a redirect or a disambiguation page, and the target can be
+ * reached from the start in at least {@link #MIN_CLICKS} clicks. The shortest path found while
+ * checking that comes with the puzzle.
+ * 
+ * <p>Rooms take puzzles from any thread; the producer refills the pool as they do. A puzzle of a
+ * given difficulty is taken from the pool if one happens to be there, otherwise it is searched for
+ * on a separate thread. With a {@link LandmarkIndex}, pairs whose distance bounds rule out the
+ * difficulty are skipped without a search, so only likely pairs cost a breadth first search.</p>
+ * 
+ * @author Michael
+ */
+public class PuzzlePool implements Runnable {
+	/**
+	 * Puzzles kept ready
+	 */
+	public static final int CAPACITY = 32;
+	/**
+	 * Pairs closer than this are too easy to play
+	 */
+	public static final int MIN_CLICKS = 2;
+	/**
+	 * Articles, or pairs, sampled in a row before the graph is deemed to have none that qualify
+	 */
+	private static final int MAX_SAMPLES = 100_000;
+	/**
+	 * Pairs searched for a puzzle of a given difficulty before giving up
+	 */
+	private static final int MAX_SEARCHES = 2_000;
+	/**
+	 * Pairs sampled for a puzzle of a given difficulty before giving up, when bounds rule most of them out
+	 */
+	private static final int MAX_BOUNDED_SAMPLES = 1_000_000;
+	
+	private final LinkGraph graph;
+	/**
+	 * Used by the producer thread only
+	 */
+	private final PathFinder finder;
+	/**
+	 * Distance bounds for puzzles of a given difficulty, or null
+	 */
+	private final LandmarkIndex landmarks;
+	private final ArrayBlockingQueue<Puzzle> puzzles = new ArrayBlockingQueue<>(CAPACITY);
+	private final Thread thread;
+	/**
+	 * Searches for puzzles of a given difficulty, one at a time
+	 */
+	private final ExecutorService requests;
+	/**
+	 * Used by the request thread only, created with it
+	 */
+	private PathFinder requestFinder;
+	
+	private final AtomicLong generated = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong taken = new AtomicLong();
+	private final AtomicLong missed = new AtomicLong();
+	private final AtomicLong bounded = new AtomicLong();
+	
+	/**
+	 * @param landmarks Distance bounds to narrow searches for a given difficulty, or null
+	 */
+	public PuzzlePool(LinkGraph graph, LandmarkIndex landmarks) {
+		this.graph = graph;
+		this.landmarks = landmarks;
+		finder = new PathFinder(graph);
+		thread = new Thread(this, "PuzzlePool");
+		thread.setDaemon(true);
+		requests = Executors.newSingleThreadExecutor(r -> {
+			Thread requestThread = new Thread(r, "PuzzleRequests");
+			requestThread.setDaemon(true);
+			return requestThread;
+		});
+	}
+	
+	public void start() {
+		thread.start();
+	}
+	
+	/**
+	 * Takes a ready puzzle, or returns null if the pool has run dry. Never blocks.
+	 */
+	public Puzzle poll() {
+		Puzzle puzzle = puzzles.poll();
+		if(puzzle == null)
+			missed.incrementAndGet();
+		else
+			taken.incrementAndGet();
+		return puzzle;
+	}
+	
+	/**
+	 * Finds a puzzle whose shortest path takes between the given numbers of clicks, inclusive. A
+	 * matching puzzle already in the pool is used straight away; otherwise pairs are sampled in the
+	 * background, skipping those the landmark bounds rule out.
+	 * 
+	 * @return The puzzle, or null if none was found within a bounded number of tries
+	 */
+	public CompletableFuture<Puzzle> request(int minClicks, int maxClicks) {
+		for(Iterator<Puzzle> iterator = puzzles.iterator(); iterator.hasNext();) {
+			Puzzle puzzle = iterator.next();
+			if(puzzle.getClicks() >= minClicks && puzzle.getClicks() <= maxClicks && puzzles.remove(puzzle)) {
+				taken.incrementAndGet();
+				return CompletableFuture.completedFuture(puzzle);
+			}
+		}
+		return CompletableFuture.supplyAsync(() -> generate(minClicks, maxClicks), requests);
+	}
+	
+	/**
+	 * Fills the pool forever, waiting while it is full.
+	 */
+	@Override
+	public void run() {
+		try {
+			while(true) {
+				Puzzle puzzle = generate();
+				if(puzzle == null) {
+					System.out.println("No articles in the link graph qualify for puzzles, puzzle pool stopped.");
+					return;
+				}
+				puzzles.put(puzzle);
+			}
+		} catch(InterruptedException e) {
+			//Server shutting down
+		}
+	}
+	
+	/**
+	 * Samples pairs until one makes a fair round.
+	 * 
+	 * @return The puzzle, or null if the graph has no pair that qualifies
+	 */
+	private Puzzle generate() {
+		for(int i = 0; i < MAX_SAMPLES; i++) {
+			int start = randomArticle();
+			int target = randomArticle();
+			if(start < 0 || target < 0)
+				return null;
+			
+			int[] path = finder.findPath(start, target);
+			if(path == null || path.length - 1 < MIN_CLICKS) {
+				rejected.incrementAndGet();
+				continue;
+			}
+			
+			List<String> titles = new ArrayList<>(path.length);
+			for(int node : path)
+				titles.add(graph.title(node));
+			generated.incrementAndGet();
+			return new Puzzle(LinkGraph.toUrlTitle(titles.get(0)), LinkGraph.toUrlTitle(titles.get(path.length - 1)), titles);
+		}
+		return null;
+	}
+	
+	/**
+	 * Samples pairs until one is the given number of clicks apart. On the request thread only.
+	 */
+	private Puzzle generate(int minClicks, int maxClicks) {
+		if(requestFinder == null)
+			requestFinder = new PathFinder(graph);
+		long time = System.nanoTime();
+		int samples = landmarks == null ? MAX_SEARCHES : MAX_BOUNDED_SAMPLES;
+		int searches = 0;
+		for(int i = 0; i < samples && searches < MAX_SEARCHES; i++) {
+			int start = randomArticle();
+			int target = randomArticle();
+			if(start < 0 || target < 0)
+				return null;
+			
+			if(landmarks != null) {
+				int lower = landmarks.lowerBound(start, target);
+				int upper = landmarks.upperBound(start, target);
+				if(lower > maxClicks || upper < minClicks) {
+					bounded.incrementAndGet();
+					continue;
+				}
+			}
+			
+			searches++;
+			int[] path = requestFinder.findPath(start, target);
+			if(path == null || path.length - 1 < Math.max(minClicks, MIN_CLICKS) || path.length - 1 > maxClicks) {
+				rejected.incrementAndGet();
+				continue;
+			}
+			
+			List<String> titles = new ArrayList<>(path.length);
+			for(int node : path)
+				titles.add(graph.title(node));
+			generated.incrementAndGet();
+			System.out.println("Found a " + (path.length - 1) + " click puzzle after " + (i + 1) + " pairs, " + searches
+					+ " searched, in " + (System.nanoTime() - time) / 1_000_000 + " ms");
+			return new Puzzle(LinkGraph.toUrlTitle(titles.get(0)), LinkGraph.toUrlTitle(titles.get(path.length - 1)), titles);
+		}
+		return null;
+	}
+	
+	/**
+	 * Samples an article uniformly, skipping redirects and disambiguation pages.
+	 * 
+	 * @return The article's ID, or -1 if none was found
+	 */
+	private int randomArticle() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for(int i = 0; i < MAX_SAMPLES && graph.nodeCount() > 0; i++) {
+			int node = random.nextInt(graph.nodeCount());
+			if(!graph.isRedirect(node) && !graph.isDisambiguation(node))
+				return node;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Number of puzzles ready right now.
+	 */
+	public int size() {
+		return puzzles.size();
+	}
+	
+	@Override
+	public String toString() {
+		return "Puzzle pool: " + puzzles.size() + "/" + CAPACITY + " ready, " + generated.get() + " generated, "
+				+ rejected.get() + " pairs rejected, " + bounded.get() + " ruled out by landmarks, " + taken.get() + " taken, "
+				+ missed.get() + " missed";
+	}
+}
@@ -0,0 +1,442 @@
+package serverclient;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import utilities.BufferPool;
+import utilities.IntHashMap;
+import utilities.Message;
+import utilities.SharedFrame;
+
+/**
+ * A single game room: its players, its state and its broadcasts. A room is owned by one
+ * EventLoop and every method (other than the getters for name, state and user count) must be
+ * called on that loop's thread, so none of the state here needs locking. Players may be connected
+ * through any loop, and a broadcast only touches the players in this room.
+ * 
+ * @author Michael
+ */
+public class Room {
+	private final String name;
+	private final EventLoop loop;
+	private final BufferPool bufferPool;
+	private final RoomRegistry registry;
+	/**
+	 * Finds the shortest path of each round, or null without a link graph
+	 */
+	private final PathSolver solver;
+	/**
+	 * Ready-made puzzles, or null without a link graph
+	 */
+	private final PuzzlePool puzzles;
+	
+	private final ArrayList<User> userList = new ArrayList<>();
+	/**
+	 * Session ID-keyed members, for constant time membership checks per message
+	 */
+	private final IntHashMap<User> members = new IntHashMap<>();
+	private volatile int userCount;
+	
+	private volatile RoomState state = RoomState.LOBBY;
+	
+	/**
+	 * User asked for start and target articles while STARTING, or null while waiting for a puzzle
+	 */
+	private User articleSource;
+	/**
+	 * Counts requests for puzzles of a given difficulty, so one that arrives after its start was
+	 * cancelled is ignored
+	 */
+	private int puzzleRequest;
+	
+	/**
+	 * Counts rounds, so a shortest path found after its round ended is ignored
+	 */
+	private int round;
+	/**
+	 * Titles along a shortest path of the current round, empty if there is none, or null until found
+	 */
+	private List<String> shortestPath;
+	/**
+	 * Start and target of the current round in the link graph, or -1 if moves are not being checked
+	 */
+	private int startArticle = -1;
+	private int targetArticle = -1;
+	/**
+	 * Session ID-keyed moves of each player this round, while moves are being checked
+	 */
+	private IntHashMap<Route> routes = new IntHashMap<>();
+	
+	/**
+	 * Set once the room has emptied out and been removed from the registry
+	 */
+	private boolean closed;
+	
+	public Room(String name, EventLoop loop, BufferPool bufferPool, RoomRegistry registry, PathSolver solver,
+			PuzzlePool puzzles) {
+		this.name = name;
+		this.loop = loop;
+		this.bufferPool = bufferPool;
+		this.registry = registry;
+		this.solver = solver;
+		this.puzzles = puzzles;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * The event loop that owns this room.
+	 */
+	public EventLoop getLoop() {
+		return loop;
+	}
+	
+	/**
+	 * Adds a user to the room, sends them the current user list and tells everyone about them.
+	 */
+	public void join(User user) {
+		if(closed) {
+			//Room emptied out and was removed while the join was in flight, join its replacement
+			registry.rejoin(user, this);
+			return;
+		}
+		if(members.containsKey(user.getSessionId()))
+			return;
+		
+		refreshUserList(user);
+		userList.add(user);
+		members.put(user.getSessionId(), user);
+		userCount = userList.size();
+		System.out.println("User " + user.getUsername() + " joined room " + name);
+		
+		broadcast(new Message('N', user.getUsername()));
+	}
+	
+	/**
+	 * Removes a user who disconnected or moved to another room, and tells everyone else. The room
+	 * closes once the last user leaves.
+	 */
+	public void leave(User user) {
+		if(members.remove(user.getSessionId()) == null)
+			return;
+		userList.remove(user);
+		userCount = userList.size();
+		routes.remove(user.getSessionId());
+		
+		if(userList.isEmpty()) {
+			closed = true;
+			registry.remove(this);
+			return;
+		}
+		
+		if(state == RoomState.STARTING && user == articleSource) {
+			System.out.println("User asked for articles left room " + name + ", start cancelled.");
+			state = RoomState.LOBBY;
+			articleSource = null;
+		}
+		broadcast(new Message('D', user.getUsername()));
+	}
+	
+	/**
+	 * Processes a single decoded message from a client in this room.
+	 * 
+	 * <pre>Expected recieved values:<br>
+	 * R -> change ready state of user to ready<br>
+	 * U -> change ready state of user to not ready<br>
+	 * Z|(article)|(article) -> Response from client for requested random browser pages.<br>
+	 * M|(article) -> User navigated to an article<br>
+	 * (Z and M carry 4-byte article IDs instead of titles from users with the article dictionary)<br>
+	 * F|(clicks) -> User won the game in the given number of clicks</pre>
+	 */
+	public void process(User user, Message message) {
+		//User not in this room (left before the message was processed)
+		if(members.get(user.getSessionId()) != user) {
+			System.out.println("Command " + message + " from user " + user.getUsername() + " outside room " + name);
+			return;
+		}
+		
+		String username = user.getUsername();
+		
+		switch(message.getOpcode()) {
+		case 'Z':
+			//Game start ready
+			if(state != RoomState.STARTING || user != articleSource) {
+				System.out.println("Unrequested articles from user " + username + " in room " + name);
+				return;
+			}
+			String start = message.getField(0);
+			String target = message.getField(1);
+			if(user.usesArticleIds() && solver != null) {
+				start = solver.urlTitle(message.getIntField(0));
+				target = solver.urlTitle(message.getIntField(1));
+				if(start == null || target == null) {
+					System.out.println("Invalid article IDs from user " + username + " in room " + name + ", start cancelled.");
+					state = RoomState.LOBBY;
+					articleSource = null;
+					return;
+				}
+			}
+			beginRound(start, target, null);
+			break;
+		case 'R':
+			user.ready();
+			System.out.println("User " + username + " is ready.");
+			broadcast(new Message('R', username));
+			break;
+		case 'U':
+			user.unready();
+			System.out.println("User " + username + " is not ready.");
+			broadcast(new Message('U', username));
+			break;
+		case 'M':
+			if(state == RoomState.GAME && startArticle >= 0)
+				move(user, message);
+			break;
+		case 'F':
+			if(state != RoomState.GAME) {
+				System.out.println("Finish from user " + username + " while no game is running in room " + name);
+				return;
+			}
+			String clicks = message.getField(0);
+			if(startArticle >= 0) {
+				//Only a player the server followed to the target has won
+				Route route = routes.get(user.getSessionId());
+				if(route == null || route.getArticle() != targetArticle) {
+					System.out.println("Rejected finish from user " + username + " in room " + name + ", who is not on the target.");
+					return;
+				}
+				clicks = Integer.toString(route.getClicks());
+			}
+			state = RoomState.POST;
+			broadcast(winMessage(username, clicks));
+			System.out.println("User " + username + " has won in room " + name + "!");
+			break;
+		default:
+			System.out.println("Invalid command " + message + " from user: " + username);
+		}
+	}
+	
+	/**
+	 * Starts a round between the given articles.
+	 * 
+	 * @param path Titles along a shortest path if already known, otherwise it is looked for in the background
+	 */
+	private void beginRound(String start, String target, List<String> path) {
+		state = RoomState.GAME;
+		articleSource = null;
+		
+		routes = new IntHashMap<>();
+		startArticle = solver == null ? -1 : solver.find(start);
+		targetArticle = solver == null ? -1 : solver.find(target);
+		if(startArticle < 0 || targetArticle < 0) {
+			if(solver != null)
+				System.out.println("Round articles are not in the link graph, moves in room " + name + " are not checked.");
+			startArticle = -1;
+			targetArticle = -1;
+		}
+		
+		broadcastStart(start, target);
+		System.out.println("GAME STARTED in room " + name + "!");
+		System.out.println("Start: " + start + " Goal: " + target);
+		
+		int thisRound = ++round;
+		shortestPath = path;
+		if(path != null || solver == null)
+			return;
+		
+		//The result comes back to this room's loop and is kept for the win message
+		solver.solve(start, target).thenAcceptAsync(found -> {
+			if(round == thisRound)
+				shortestPath = found;
+		}, loop::execute);
+	}
+	
+	/**
+	 * Sends S|(start)|(target) to every user, with the articles as IDs to users with the article
+	 * dictionary when both are in the graph. Each form is encoded only once.
+	 */
+	private void broadcastStart(String start, String target) {
+		SharedFrame titles = SharedFrame.encode(new Message('S', start, target), bufferPool);
+		SharedFrame ids = null;
+		for(User user : userList) {
+			if(user.usesArticleIds() && startArticle >= 0) {
+				if(ids == null)
+					ids = SharedFrame.encode(Message.ofInts('S', startArticle, targetArticle), bufferPool);
+				user.send(ids);
+			} else {
+				user.send(titles);
+			}
+		}
+		titles.release();
+		if(ids != null)
+			ids.release();
+	}
+	
+	/**
+	 * Checks a user's move to an article: it must be linked from the article they are on, or one
+	 * they already reached this round (going back). A move that is neither is not followed, and the
+	 * user is told with X|(article).
+	 */
+	private void move(User user, Message message) {
+		Route route = routes.get(user.getSessionId());
+		if(route == null) {
+			route = new Route(startArticle);
+			routes.put(user.getSessionId(), route);
+		}
+		
+		boolean ids = user.usesArticleIds();
+		int article = ids ? solver.resolve(message.getIntField(0)) : solver.find(message.getField(0));
+		if(article == route.getArticle())
+			return;
+		if(article >= 0 && (route.hasVisited(article) || solver.isLink(route.getArticle(), article))) {
+			route.moveTo(article);
+			return;
+		}
+		
+		String title = ids ? String.valueOf(solver.urlTitle(message.getIntField(0))) : message.getField(0);
+		System.out.println("Rejected move by user " + user.getUsername() + " in room " + name + " from "
+				+ solver.getGraph().title(route.getArticle()) + " to " + title);
+		send(user, ids ? Message.ofInts('X', message.getIntField(0)) : new Message('X', title));
+	}
+	
+	/**
+	 * Builds the win message: W|(username)|(clicks), followed by the clicks on a shortest path and
+	 * the titles along it when one was found in time.
+	 */
+	private Message winMessage(String username, String clicks) {
+		try {
+			clicks = Integer.toString(Integer.parseInt(clicks));
+		} catch(NumberFormatException e) {
+			clicks = "";
+		}
+		if(shortestPath == null || shortestPath.isEmpty())
+			return new Message('W', username, clicks);
+		
+		List<String> fields = new ArrayList<>(shortestPath.size() + 3);
+		fields.add(username);
+		fields.add(clicks);
+		fields.add(Integer.toString(shortestPath.size() - 1));
+		fields.addAll(shortestPath);
+		return new Message('W', fields.toArray(new String[0]));
+	}
+	
+	/**
+	 * Tells a new client about every user already in the room.
+	 */
+	private void refreshUserList(User newUser) {
+		for(User user : userList) {
+			send(newUser, new Message('N', user.getUsername()));
+		}
+	}
+	
+	/**
+	 * Sends a message to every user in the room. The message is encoded only once.
+	 */
+	public void broadcast(Message message) {
+		SharedFrame frame = SharedFrame.encode(message, bufferPool);
+		for(User user : userList) {
+			user.send(frame);
+		}
+		frame.release();
+	}
+	
+	/**
+	 * Sends a message to a single user.
+	 */
+	public void send(User user, Message message) {
+		SharedFrame frame = SharedFrame.encode(message, bufferPool);
+		user.send(frame);
+		frame.release();
+	}
+	
+	/**
+	 * Starts a round with a puzzle from the pool, or requests start and target articles from an
+	 * individual client if there is none ready.
+	 */
+	public void startGame() {
+		if(userList.isEmpty()) {
+			System.out.println("No users! Cannot start the game.");
+			return;
+		}
+		if(state != RoomState.LOBBY && state != RoomState.POST) {
+			System.out.println("Room " + name + " is already " + state + "!");
+			return;
+		}
+		
+		Puzzle puzzle = puzzles == null ? null : puzzles.poll();
+		if(puzzle != null) {
+			beginRound(puzzle.getStart(), puzzle.getTarget(), puzzle.getPath());
+			return;
+		}
+		if(puzzles != null)
+			System.out.println("Puzzle pool is empty, asking a client for articles.");
+		
+		articleSource = userList.get(0);
+		state = RoomState.STARTING;
+		send(articleSource, new Message('Z'));
+		System.out.println("Requesting random page from user " + articleSource.getUsername());
+	}
+	
+	/**
+	 * Starts a round with a puzzle whose shortest path takes between the given numbers of clicks,
+	 * inclusive. The room stays STARTING while the puzzle is searched for, and starts the usual way if
+	 * none is found.
+	 */
+	public void startGame(int minClicks, int maxClicks) {
+		if(puzzles == null) {
+			System.out.println("No link graph loaded, starting room " + name + " without a difficulty.");
+			startGame();
+			return;
+		}
+		if(userList.isEmpty()) {
+			System.out.println("No users! Cannot start the game.");
+			return;
+		}
+		if(state != RoomState.LOBBY && state != RoomState.POST) {
+			System.out.println("Room " + name + " is already " + state + "!");
+			return;
+		}
+		
+		state = RoomState.STARTING;
+		articleSource = null;
+		int thisRequest = ++puzzleRequest;
+		System.out.println("Looking for a " + minClicks + "-" + maxClicks + " click puzzle for room " + name);
+		puzzles.request(minClicks, maxClicks).thenAcceptAsync(puzzle -> {
+			if(closed || state != RoomState.STARTING || articleSource != null || puzzleRequest != thisRequest)
+				return;
+			if(puzzle != null) {
+				beginRound(puzzle.getStart(), puzzle.getTarget(), puzzle.getPath());
+				return;
+			}
+			System.out.println("No " + minClicks + "-" + maxClicks + " click puzzle found for room " + name + ".");
+			state = RoomState.LOBBY;
+			startGame();
+		}, loop::execute);
+	}
+	
+	/**
+	 * Ends the game, regardless of game state.
+	 */
+	public void abort() {
+		broadcast(new Message('A'));
+		state = RoomState.LOBBY;
+		articleSource = null;
+		puzzleRequest++;
+	}
+	
+	/**
+	 * Current state. Safe to read from any thread.
+	 */
+	public RoomState getState() {
+		return state;
+	}
+	
+	/**
+	 * Number of users in the room. Safe to read from any thread.
+	 */
+	public int getUserCount() {
+		return userCount;
+	}
+}
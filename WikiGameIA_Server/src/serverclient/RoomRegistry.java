@@ -0,0 +1,113 @@
+package serverclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import utilities.BufferPool;
+
+/**
+ * Name-keyed registry of every game room in the server. Rooms are created on first join and
+ * spread over the event loops in turn; each room then lives on its loop until it empties out.
+ * Safe to use from any thread.
+ * 
+ * @author Michael
+ */
+public class RoomRegistry {
+	public static final int MAX_NAME_LENGTH = 32;
+	
+	private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+	private final EventLoop[] loops;
+	private final BufferPool bufferPool;
+	/**
+	 * Shortest path search for scoring rounds, or null without a link graph
+	 */
+	private final PathSolver solver;
+	/**
+	 * Ready-made puzzles, or null without a link graph
+	 */
+	private final PuzzlePool puzzles;
+	private final AtomicInteger nextLoop = new AtomicInteger();
+	
+	public RoomRegistry(EventLoop[] loops, BufferPool bufferPool, PathSolver solver, PuzzlePool puzzles) {
+		this.loops = loops;
+		this.bufferPool = bufferPool;
+		this.solver = solver;
+		this.puzzles = puzzles;
+	}
+	
+	/**
+	 * Returns the room with the given name, creating it if it does not exist.
+	 */
+	public Room getOrCreate(String name) {
+		return rooms.computeIfAbsent(name, n -> {
+			EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+			System.out.println("Room " + n + " created on event loop " + loop.getId());
+			return new Room(n, loop, bufferPool, this, solver, puzzles);
+		});
+	}
+	
+	/**
+	 * Returns the room with the given name, or null if there is none.
+	 */
+	public Room get(String name) {
+		return rooms.get(name);
+	}
+	
+	/**
+	 * Moves the user into the named room, creating it if needed. The user leaves their current room
+	 * first. Must be called on the thread serving the user's connection.
+	 */
+	public void join(User user, String name) {
+		Room old = user.getRoom();
+		if(old != null) {
+			if(old.getName().equals(name))
+				return;
+			old.getLoop().execute(() -> old.leave(user));
+		}
+		
+		Room room = getOrCreate(name);
+		user.setRoom(room);
+		room.getLoop().execute(() -> room.join(user));
+	}
+	
+	/**
+	 * Retries a join that reached a room after it closed, by joining the room that replaced it.
+	 * Called on the closed room's loop.
+	 */
+	void rejoin(User user, Room closedRoom) {
+		Room room = getOrCreate(closedRoom.getName());
+		if(!user.replaceRoom(closedRoom, room))
+			return; //User has moved on or disconnected since
+		room.getLoop().execute(() -> room.join(user));
+	}
+	
+	/**
+	 * Removes an empty room. Called by the room on its own loop.
+	 */
+	void remove(Room room) {
+		if(rooms.remove(room.getName(), room))
+			System.out.println("Room " + room.getName() + " closed.");
+	}
+	
+	/**
+	 * Snapshot of all current rooms.
+	 */
+	public List<Room> list() {
+		return new ArrayList<>(rooms.values());
+	}
+	
+	/**
+	 * Checks if a room name is acceptable: not blank, not too long and without whitespace.
+	 */
+	public static boolean isValidName(String name) {
+		if(name.isEmpty() || name.length() > MAX_NAME_LENGTH)
+			return false;
+		for(int i = 0; i < name.length(); i++) {
+			if(Character.isWhitespace(name.charAt(i)))
+				return false;
+		}
+		return true;
+	}
+}
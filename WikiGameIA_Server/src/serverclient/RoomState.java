@@ -0,0 +1,25 @@
+package serverclient;
+
+/**
+ * States of a game room.
+ * 
+ * @author Michael
+ */
+public enum RoomState {
+	/**
+	 * Players are joining and readying up
+	 */
+	LOBBY,
+	/**
+	 * Waiting for a client to reply with start and target articles
+	 */
+	STARTING,
+	/**
+	 * Game in progress
+	 */
+	GAME,
+	/**
+	 * Someone has won, players are on the post-game screen
+	 */
+	POST
+}
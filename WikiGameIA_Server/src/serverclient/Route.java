@@ -0,0 +1,48 @@
+package serverclient;
+
+import utilities.IntHashMap;
+
+/**
+ * One player's moves through the current round, as checked by the server: the article they are
+ * on, every article they have reached and the clicks taken. Owned by the room's loop.
+ * 
+ * @author Michael
+ */
+class Route {
+	private int article;
+	private int clicks;
+	/**
+	 * Articles reached this round, which the player may go back to without following a link. Keyed
+	 * by article + 1, since article 0 is a real article but key 0 marks an empty slot
+	 */
+	private final IntHashMap<Boolean> visited = new IntHashMap<>();
+	
+	Route(int start) {
+		article = start;
+		visited.put(start + 1, Boolean.TRUE);
+	}
+	
+	/**
+	 * The article the player is on.
+	 */
+	int getArticle() {
+		return article;
+	}
+	
+	boolean hasVisited(int article) {
+		return visited.containsKey(article + 1);
+	}
+	
+	/**
+	 * Moves the player to an article they were allowed to go to, counting the click.
+	 */
+	void moveTo(int article) {
+		this.article = article;
+		visited.put(article + 1, Boolean.TRUE);
+		clicks++;
+	}
+	
+	int getClicks() {
+		return clicks;
+	}
+}
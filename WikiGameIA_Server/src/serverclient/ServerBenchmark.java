@@ -0,0 +1,234 @@
+package serverclient;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import utilities.FrameCodec;
+import utilities.FrameReader;
+import utilities.Message;
+
+/**
+ * Compares the nio and blocking server modes. For each mode a GameServer is started in a child JVM
+ * and the benchmark measures:
+ * 
+ * <pre>connections/sec  -> clients connected, registered and joined to a room per second<br>
+ * latency          -> time from sending R/U until the sender gets its own broadcast back<br>
+ * memory           -> resident memory and threads of the server process per connection</pre>
+ * 
+ * Resident memory is read from /proc, so it is only reported on Linux.
+ * 
+ * <pre>Usage: ServerBenchmark [connections] [room size] [latency samples]</pre>
+ * 
+ * @author Michael
+ */
+public class ServerBenchmark {
+	private static final String[] MODES = {"nio", "blocking"};
+	
+	private int connections = 1000;
+	private int roomSize = 10;
+	private int samples = 2000;
+	
+	public static void main(String[] args) throws Exception {
+		ServerBenchmark benchmark = new ServerBenchmark();
+		if(args.length > 0)
+			benchmark.connections = Integer.parseInt(args[0]);
+		if(args.length > 1)
+			benchmark.roomSize = Integer.parseInt(args[1]);
+		if(args.length > 2)
+			benchmark.samples = Integer.parseInt(args[2]);
+		
+		System.out.println(benchmark.connections + " connections, " + benchmark.roomSize + " per room, "
+				+ benchmark.samples + " latency samples");
+		for(String mode : MODES)
+			benchmark.run(mode);
+	}
+	
+	private void run(String mode) throws Exception {
+		int port = freePort();
+		Process server = startServer(mode, port);
+		List<SocketChannel> clients = new ArrayList<>();
+		Selector selector = Selector.open();
+		try {
+			long[] baseline = processStatus(server.pid());
+			
+			//Connect every client, register and join a room, then wait for each to see itself join
+			long start = System.nanoTime();
+			FrameReader[] readers = new FrameReader[connections];
+			for(int i = 0; i < connections; i++) {
+				SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+				channel.write(FrameCodec.encode(new Message('I', "bench" + i)));
+				channel.write(FrameCodec.encode(new Message('J', "bench" + (i / roomSize))));
+				channel.configureBlocking(false);
+				channel.register(selector, SelectionKey.OP_READ, i);
+				clients.add(channel);
+				readers[i] = new FrameReader();
+			}
+			awaitOwnMessages(selector, readers, 'N', 1);
+			double connectSeconds = (System.nanoTime() - start) / 1e9;
+			
+			Thread.sleep(500);
+			long[] connected = processStatus(server.pid());
+			
+			//Latency: toggle ready on one client at a time and time its own echo
+			long[] latencies = new long[samples];
+			for(int i = 0; i < samples; i++) {
+				int client = i % connections;
+				char opcode = (i / connections) % 2 == 0 ? 'R' : 'U';
+				long sent = System.nanoTime();
+				clients.get(client).write(FrameCodec.encode(new Message(opcode)));
+				awaitOwnMessage(selector, readers, client, opcode);
+				latencies[i] = System.nanoTime() - sent;
+			}
+			Arrays.sort(latencies);
+			
+			System.out.println();
+			System.out.println("Mode: " + mode);
+			System.out.printf("  connections/sec: %.0f (%d in %.2f s)%n", connections / connectSeconds, connections, connectSeconds);
+			System.out.printf("  latency p50: %.3f ms  p99: %.3f ms  max: %.3f ms%n",
+					latencies[samples / 2] / 1e6, latencies[samples * 99 / 100] / 1e6, latencies[samples - 1] / 1e6);
+			if(baseline != null && connected != null) {
+				System.out.printf("  memory per connection: %.1f KB RSS%n", (connected[0] - baseline[0]) / (double) connections);
+				System.out.println("  server threads: " + baseline[1] + " idle, " + connected[1] + " connected");
+			}
+			else {
+				System.out.println("  memory per connection: n/a (no /proc)");
+			}
+		} finally {
+			for(SocketChannel channel : clients)
+				channel.close();
+			selector.close();
+			server.destroy();
+			server.waitFor();
+		}
+	}
+	
+	/**
+	 * Reads from all clients until every client has received a message with the given opcode
+	 * naming itself.
+	 */
+	private void awaitOwnMessages(Selector selector, FrameReader[] readers, char opcode, int count) throws IOException {
+		boolean[] done = new boolean[readers.length];
+		int remaining = readers.length;
+		while(remaining > 0) {
+			selector.select(5000);
+			if(selector.selectedKeys().isEmpty())
+				throw new IOException("Timed out with " + remaining + " clients waiting");
+			
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while(keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				int client = (Integer) key.attachment();
+				if(readers[client].read((SocketChannel) key.channel()) < 0)
+					throw new IOException("Server closed client " + client);
+				
+				Message message;
+				while((message = readers[client].next()) != null) {
+					if(!done[client] && message.getOpcode() == opcode && message.getField(0).equals("bench" + client)) {
+						done[client] = true;
+						remaining--;
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Reads from all clients (discarding broadcasts) until the given client receives its own message.
+	 */
+	private void awaitOwnMessage(Selector selector, FrameReader[] readers, int target, char opcode) throws IOException {
+		String name = "bench" + target;
+		while(true) {
+			selector.select(5000);
+			if(selector.selectedKeys().isEmpty())
+				throw new IOException("Timed out waiting for " + opcode + " of client " + target);
+			
+			boolean found = false;
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while(keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				int client = (Integer) key.attachment();
+				readers[client].read((SocketChannel) key.channel());
+				
+				Message message;
+				while((message = readers[client].next()) != null) {
+					if(client == target && message.getOpcode() == opcode && message.getField(0).equals(name))
+						found = true;
+				}
+			}
+			if(found)
+				return;
+		}
+	}
+	
+	private static Process startServer(String mode, int port) throws IOException, InterruptedException {
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				GameServer.class.getName(), "--port=" + port, "--mode=" + mode);
+		builder.redirectErrorStream(true);
+		Process process = builder.start();
+		
+		//Drain the server's output so it never blocks on a full pipe, and wait until it is listening
+		CountDownLatch started = new CountDownLatch(1);
+		Thread output = new Thread(() -> {
+			try(BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+				String line;
+				while((line = reader.readLine()) != null) {
+					if(line.startsWith("WikiGame server started"))
+						started.countDown();
+				}
+			} catch (IOException e) {
+				//Server exited
+			}
+		});
+		output.setDaemon(true);
+		output.start();
+		
+		OutputStream console = process.getOutputStream();
+		console.flush();
+		started.await();
+		return process;
+	}
+	
+	/**
+	 * Returns {resident KB, thread count} of a process, or null if /proc is not available.
+	 */
+	private static long[] processStatus(long pid) throws IOException {
+		File status = new File("/proc/" + pid + "/status");
+		if(!status.exists())
+			return null;
+		
+		long[] result = new long[2];
+		for(String line : Files.readAllLines(status.toPath(), StandardCharsets.UTF_8)) {
+			String[] parts = line.split("\\s+");
+			if(parts[0].equals("VmRSS:"))
+				result[0] = Long.parseLong(parts[1]);
+			else if(parts[0].equals("Threads:"))
+				result[1] = Long.parseLong(parts[1]);
+		}
+		return result;
+	}
+	
+	private static int freePort() throws IOException {
+		try(ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package serverclient;
+
+/**
+ * Startup settings for the GameServer, read from "--name=value" command line arguments.
+ * 
+ * <pre>Options:<br>
+ * --port=(port)         Port to listen on (default 25566)<br>
+ * --bind=(address)      Address to bind to (default localhost)<br>
+ * --loops=(count)       Number of network event loops (default: number of cores)<br>
+ * --mode=(nio|blocking) Serve connections from the selector event loops, or with blocking I/O on
+ *                       a virtual thread per connection (default nio)<br>
+ * --send-budget=(bytes) Bytes queued for a client before the slow consumer policy applies (default 16384)<br>
+ * --send-limit=(bytes)  Bytes queued for a client before it is disconnected (default 262144)<br>
+ * --slow-policy=(coalesce|drop|disconnect)
+ *                       What happens to a client past its send budget: superseded ready state updates
+ *                       are coalesced, ready state updates are dropped, or the client is disconnected
+ *                       (default coalesce)<br>
+ * --write-batch=(count) Maximum frames written to a client with one gathering write (default 64)<br>
+ * --write-delay=(ms)    Time a client's first queued frame waits for more before it is written, so
+ *                       broadcast bursts are batched (default 0, write immediately)<br>
+ * --graph=(file)        Link graph snapshot to load (default none)<br>
+ * --landmarks=(file)    Landmark distance index of the graph, for puzzles of a chosen difficulty (default none)<br>
+ * --dictionary=(file)   Article dictionary clients name articles by ID with, written from the graph
+ *                       if the file does not exist (default none)<br>
+ * --articles=(file)     Article archive to serve over HTTP in place of Wikipedia (default none)<br>
+ * --article-port=(port) Port the articles are served on (default 8080)</pre>
+ * 
+ * @author Michael
+ */
+public class ServerConfig {
+	private int port = 25566;
+	private String bindAddress = "localhost";
+	private int eventLoops = Runtime.getRuntime().availableProcessors();
+	private boolean blockingMode = false;
+	private int sendBudget = 16 * 1024;
+	private int sendLimit = 256 * 1024;
+	private SlowConsumerPolicy slowPolicy = SlowConsumerPolicy.COALESCE;
+	private int writeBatch = 64;
+	private long writeDelay = 0;
+	private String graphFile;
+	private String landmarkFile;
+	private String dictionaryFile;
+	private String articleFile;
+	private int articlePort = ArticleServer.DEFAULT_PORT;
+	
+	/**
+	 * Parses the command line arguments into a config. Options that are not given keep their defaults.
+	 * 
+	 * @throws IllegalArgumentException If an option is unknown or has an invalid value.
+	 */
+	public static ServerConfig parse(String[] args) {
+		ServerConfig config = new ServerConfig();
+		for(String arg : args) {
+			int split = arg.indexOf('=');
+			if(!arg.startsWith("--") || split < 0)
+				throw new IllegalArgumentException("Invalid option " + arg);
+			
+			String name = arg.substring(2, split);
+			String value = arg.substring(split + 1);
+			config.set(name, value);
+		}
+		return config;
+	}
+	
+	private void set(String name, String value) {
+		try {
+			switch(name) {
+			case "port":
+				port = Integer.parseInt(value);
+				break;
+			case "bind":
+				bindAddress = value;
+				break;
+			case "loops":
+				eventLoops = Integer.parseInt(value);
+				if(eventLoops < 1)
+					throw new IllegalArgumentException("There must be at least one event loop");
+				break;
+			case "mode":
+				if(value.equals("nio"))
+					blockingMode = false;
+				else if(value.equals("blocking"))
+					blockingMode = true;
+				else
+					throw new IllegalArgumentException("Unknown mode " + value);
+				break;
+			case "send-budget":
+				sendBudget = Integer.parseInt(value);
+				if(sendBudget < 1)
+					throw new IllegalArgumentException("The send budget must be positive");
+				break;
+			case "send-limit":
+				sendLimit = Integer.parseInt(value);
+				if(sendLimit < 1)
+					throw new IllegalArgumentException("The send limit must be positive");
+				break;
+			case "slow-policy":
+				try {
+					slowPolicy = SlowConsumerPolicy.valueOf(value.toUpperCase());
+				} catch(IllegalArgumentException e) {
+					throw new IllegalArgumentException("Unknown slow consumer policy " + value);
+				}
+				break;
+			case "write-batch":
+				writeBatch = Integer.parseInt(value);
+				if(writeBatch < 1)
+					throw new IllegalArgumentException("The write batch must be at least one frame");
+				break;
+			case "write-delay":
+				writeDelay = Long.parseLong(value);
+				if(writeDelay < 0)
+					throw new IllegalArgumentException("The write delay must not be negative");
+				break;
+			case "graph":
+				graphFile = value;
+				break;
+			case "landmarks":
+				landmarkFile = value;
+				break;
+			case "dictionary":
+				dictionaryFile = value;
+				break;
+			case "articles":
+				articleFile = value;
+				break;
+			case "article-port":
+				articlePort = Integer.parseInt(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option --" + name);
+			}
+		} catch(NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value for --" + name + ": " + value);
+		}
+	}
+	
+	public int getPort() {
+		return port;
+	}
+	
+	public String getBindAddress() {
+		return bindAddress;
+	}
+	
+	public int getEventLoops() {
+		return eventLoops;
+	}
+	
+	public int getSendBudget() {
+		return sendBudget;
+	}
+	
+	public int getSendLimit() {
+		return sendLimit;
+	}
+	
+	public SlowConsumerPolicy getSlowPolicy() {
+		return slowPolicy;
+	}
+	
+	public int getWriteBatch() {
+		return writeBatch;
+	}
+	
+	/**
+	 * Write delay in milliseconds, 0 if frames are written as soon as possible.
+	 */
+	public long getWriteDelay() {
+		return writeDelay;
+	}
+	
+	/**
+	 * Path of the link graph snapshot, or null if the server runs without one.
+	 */
+	public String getGraphFile() {
+		return graphFile;
+	}
+	
+	/**
+	 * Path of the landmark distance index, or null if there is none.
+	 */
+	public String getLandmarkFile() {
+		return landmarkFile;
+	}
+	
+	/**
+	 * Path of the article dictionary, or null if articles are only named by title.
+	 */
+	public String getDictionaryFile() {
+		return dictionaryFile;
+	}
+	
+	/**
+	 * Path of the article archive served in place of Wikipedia, or null if clients use Wikipedia.
+	 */
+	public String getArticleFile() {
+		return articleFile;
+	}
+	
+	public int getArticlePort() {
+		return articlePort;
+	}
+	
+	/**
+	 * True if connections are served with blocking I/O instead of by the event loops. Rooms still
+	 * run on the event loops in both modes.
+	 */
+	public boolean isBlockingMode() {
+		return blockingMode;
+	}
+}
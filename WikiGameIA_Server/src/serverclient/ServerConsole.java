@@ -0,0 +1,44 @@
+package serverclient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Operator console for the GameServer. Reads commands from standard input on its own thread.
+ * Commands that touch a room are posted to the room's event loop, waking its selector so the
+ * command runs immediately instead of waiting for network traffic. The event loops never touch stdin.
+ * 
+ * @author Michael
+ */
+public class ServerConsole implements Runnable {
+	public ServerConsole() {
+	}
+	
+	/**
+	 * Starts reading commands on a daemon thread.
+	 */
+	public void start() {
+		Thread thread = new Thread(this, "ServerConsole");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	@Override
+	public void run() {
+		BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
+		try {
+			String line;
+			while((line = input.readLine()) != null) {
+				line = line.trim();
+				if(line.isEmpty())
+					continue;
+				
+				GameServer.runCommand(line);
+			}
+		} catch (IOException e) {
+			System.out.println("Console input closed!");
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package serverclient;
+
+import java.util.List;
+
+import utilities.ArticleDictionary;
+import utilities.BufferPool;
+import utilities.FrameCodec;
+import utilities.Message;
+import utilities.SharedFrame;
+
+/**
+ * Handles decoded messages for a connected user, independent of how the connection is served.
+ * Session messages are handled on the calling thread; everything else is passed to the user's
+ * room on the loop that owns it.
+ * 
+ * @author Michael
+ */
+public class SessionHandler {
+	private final RoomRegistry rooms;
+	private final BufferPool bufferPool;
+	/**
+	 * Fingerprint of the server's article dictionary as sent in the handshake, or null if there is none
+	 */
+	private final String fingerprint;
+	
+	/**
+	 * @param dictionary Article dictionary clients may name articles by ID with, or null
+	 */
+	public SessionHandler(RoomRegistry rooms, BufferPool bufferPool, ArticleDictionary dictionary) {
+		this.rooms = rooms;
+		this.bufferPool = bufferPool;
+		fingerprint = dictionary == null ? null : String.format("%016x", dictionary.getFingerprint());
+	}
+	
+	/**
+	 * Processes a single decoded message. Called on the thread serving the user's connection.
+	 * 
+	 * <pre>Session values:<br>
+	 * I|(Username)[|(dictionary fingerprint)] -> set username of the user (SHOULD ONLY BE CALLED IMMEDIATELY
+	 * FOLLOWING CONNECTION). If the fingerprint matches the server's article dictionary, articles are
+	 * named by 4-byte ID from then on, confirmed with H|(fingerprint)<br>
+	 * J|(room) -> join the room, creating it if it does not exist<br>
+	 * L -> list rooms, answered with L|(room)|(room)...</pre>
+	 */
+	public void message(User user, Message message) {
+		switch(message.getOpcode()) {
+		case 'I':
+			if(message.getField(0).isEmpty() || user.getRoom() != null) {
+				System.out.println("Invalid username registration from " + user.getUsername());
+				return;
+			}
+			System.out.println("User " + message.getField(0) + " set for address " + user.getUsername());
+			user.setUsername(message.getField(0));
+			if(fingerprint != null && fingerprint.equals(message.getField(1))) {
+				user.setArticleIds(true);
+				SharedFrame handshake = SharedFrame.encode(new Message('H', fingerprint), bufferPool);
+				user.send(handshake);
+				handshake.release();
+			}
+			return;
+		case 'J':
+			String roomName = message.getField(0);
+			if(!RoomRegistry.isValidName(roomName)) {
+				System.out.println("Invalid room name " + roomName + " from user " + user.getUsername());
+				return;
+			}
+			rooms.join(user, roomName);
+			return;
+		case 'L':
+			List<Room> roomList = rooms.list();
+			String[] names = new String[Math.min(roomList.size(), FrameCodec.MAX_FIELDS)];
+			for(int i = 0; i < names.length; i++)
+				names[i] = roomList.get(i).getName();
+			SharedFrame frame = SharedFrame.encode(new Message('L', names), bufferPool);
+			user.send(frame);
+			frame.release();
+			return;
+		}
+		
+		Room room = user.getRoom();
+		if(room == null) {
+			System.out.println("Command " + message + " from user " + user.getUsername() + " outside of a room");
+			return;
+		}
+		if(room.getLoop().inLoop())
+			room.process(user, message);
+		else
+			room.getLoop().execute(() -> room.process(user, message));
+	}
+	
+	/**
+	 * Removes a user whose connection has closed from their room.
+	 */
+	public void disconnected(User user) {
+		Room room = user.leaveRoom();
+		if(room != null)
+			room.getLoop().execute(() -> room.leave(user));
+	}
+}
@@ -0,0 +1,23 @@
+package serverclient;
+
+/**
+ * What the server does with a connection that has more queued for it than its send budget,
+ * usually because the client has stalled.
+ * 
+ * @author Michael
+ */
+public enum SlowConsumerPolicy {
+	/**
+	 * Only the latest ready state of each user is kept; earlier R/U frames that were not yet sent
+	 * are replaced
+	 */
+	COALESCE,
+	/**
+	 * Ready state updates are dropped until the connection catches up
+	 */
+	DROP,
+	/**
+	 * The connection is closed
+	 */
+	DISCONNECT
+}
@@ -1,25 +1,37 @@
 package serverclient;
 
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.nio.channels.SocketChannel;
-
-import utilities.Queue;
+import utilities.SharedFrame;
 
+/**
+ * A connected player. Session state (username, room) belongs to the thread serving the user's
+ * connection and game state (ready, finished) belongs to the loop that owns the user's Room.
+ */
 public class User {
+	private final int sessionId;
 	private String username;
 	
-	private SocketChannel channel;
-	
-	public Queue writeQueue;
+	private final Connection connection;
+	private Room room;
 	
 	private boolean ready;
 	private boolean finished;
+	/**
+	 * Set during the handshake if the client has the server's article dictionary, so articles are
+	 * sent to and from it by ID
+	 */
+	private volatile boolean articleIds;
 	
-	public User(String username, SocketChannel channel) {
+	public User(int sessionId, String username, Connection connection) {
+		this.sessionId = sessionId;
 		this.username = username;
-		this.channel = channel;
-		writeQueue = new Queue();
+		this.connection = connection;
+	}
+	
+	/**
+	 * Numeric ID of the user's connection, unique within the server process.
+	 */
+	public int getSessionId() {
+		return sessionId;
 	}
 	
 	public void setUsername(String username) {
@@ -55,7 +67,56 @@ public class User {
 		finished = false;
 	}
 	
-	public SocketChannel getChannel() {
-		return channel;
+	public boolean usesArticleIds() {
+		return articleIds;
+	}
+	
+	public void setArticleIds(boolean articleIds) {
+		this.articleIds = articleIds;
+	}
+	
+	public Connection getConnection() {
+		return connection;
+	}
+	
+	/**
+	 * The room the user is in, or null if they have not joined one.
+	 */
+	public synchronized Room getRoom() {
+		return room;
+	}
+	
+	public synchronized void setRoom(Room room) {
+		this.room = room;
+	}
+	
+	/**
+	 * Moves the user to another room only if they are still in the expected one.
+	 * 
+	 * @return true if the room was replaced
+	 */
+	public synchronized boolean replaceRoom(Room expected, Room room) {
+		if(this.room != expected)
+			return false;
+		this.room = room;
+		return true;
+	}
+	
+	/**
+	 * Takes the user out of their room, for when the connection closes.
+	 * 
+	 * @return The room the user was in, or null
+	 */
+	public synchronized Room leaveRoom() {
+		Room old = room;
+		room = null;
+		return old;
+	}
+	
+	/**
+	 * Sends a frame to this user. Safe to call from any thread.
+	 */
+	public void send(SharedFrame frame) {
+		connection.send(frame);
 	}
 }
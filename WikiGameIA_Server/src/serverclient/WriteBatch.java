@@ -0,0 +1,95 @@
+package serverclient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+import utilities.SharedFrame;
+
+/**
+ * Frames taken off a connection's OutboundQueue to be written together with one gathering write,
+ * so a burst of broadcasts costs one system call instead of one per frame. Frames the socket does
+ * not fully accept stay in the batch until a later write. Only used by the connection's writer.
+ * 
+ * @author Michael
+ */
+public class WriteBatch {
+	private final SharedFrame[] frames;
+	private final ByteBuffer[] views;
+	/**
+	 * First frame that is not completely written
+	 */
+	private int start;
+	private int count;
+	
+	/**
+	 * @param maxFrames Maximum number of frames written with one call
+	 */
+	public WriteBatch(int maxFrames) {
+		frames = new SharedFrame[maxFrames];
+		views = new ByteBuffer[maxFrames];
+	}
+	
+	/**
+	 * Takes frames from the queue until the batch is full or nothing more is ready. State updates
+	 * held by the slow consumer policy are released once the queue runs dry.
+	 * 
+	 * @return Number of frames in the batch
+	 */
+	public int fill(OutboundQueue queue) {
+		if(start > 0 && start == count)
+			start = count = 0;
+		
+		while(count < frames.length) {
+			SharedFrame frame = queue.poll();
+			if(frame == null) {
+				//Caught up, so state updates held back by the slow consumer policy can go out
+				if(queue.releaseHeld())
+					continue;
+				break;
+			}
+			frames[count] = frame;
+			views[count] = frame.view();
+			count++;
+		}
+		return count - start;
+	}
+	
+	/**
+	 * Writes as much of the batch as the channel accepts, releasing every frame that is done.
+	 * 
+	 * @return true if the whole batch has been written
+	 */
+	public boolean write(GatheringByteChannel channel) throws IOException {
+		if(start < count)
+			channel.write(views, start, count - start);
+		
+		while(start < count && !views[start].hasRemaining()) {
+			frames[start].release();
+			frames[start] = null;
+			views[start] = null;
+			start++;
+		}
+		if(start < count)
+			return false;
+		
+		start = count = 0;
+		return true;
+	}
+	
+	public boolean isEmpty() {
+		return start == count;
+	}
+	
+	/**
+	 * Releases every frame still in the batch.
+	 */
+	public void clear() {
+		for(int i = start; i < count; i++) {
+			frames[i].release();
+			frames[i] = null;
+			views[i] = null;
+		}
+		start = count = 0;
+	}
+}
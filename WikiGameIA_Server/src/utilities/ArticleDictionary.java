@@ -0,0 +1,406 @@
+package utilities;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Every article title, numbered with dense IDs, so the client and server can name articles with a
+ * 4-byte ID instead of a title and compare them as ints. Both sides load the same dictionary file;
+ * the server checks they match by its fingerprint. The server's dictionary is built from its link
+ * graph, so an article's ID is its ID in the graph.
+ * 
+ * <p>Titles are normalized (see {@link #normalize(String)}), sorted by their UTF-8 bytes and front
+ * coded in blocks of {@link #BLOCK_SIZE}: the first title of a block is stored whole, every other
+ * as the length of the prefix it shares with the title before it and the rest. Looking a title up
+ * binary searches the first titles of the blocks, then decodes one block.</p>
+ * 
+ * <pre>File layout (little endian):<br>
+ * header   magic, version, title count, data length, fingerprint (long)<br>
+ * blocks   int[blocks + 1], start of each block in the data, with the end of the data after them<br>
+ * data     per block, the first title as a varint length and bytes, then each other title as a
+ *          varint shared prefix length, varint suffix length and suffix bytes</pre>
+ * 
+ * <p>Safe to use from any number of threads once built or opened.</p>
+ * 
+ * @author Michael
+ */
+public class ArticleDictionary {
+	public static final int MAGIC = 0x44414757; //"WGAD"
+	public static final int VERSION = 1;
+	public static final int BLOCK_SIZE = 16;
+	
+	private static final int HEADER_LENGTH = 24;
+	/**
+	 * Punctuation Wikipedia leaves readable in article URLs
+	 */
+	private static final String URL_READABLE = ";@$!*(),/~:";
+	
+	private final int count;
+	private final long fingerprint;
+	private final ByteBuffer blocks;
+	private final ByteBuffer data;
+	
+	private ArticleDictionary(int count, long fingerprint, ByteBuffer blocks, ByteBuffer data) {
+		this.count = count;
+		this.fingerprint = fingerprint;
+		this.blocks = blocks;
+		this.data = data;
+	}
+	
+	/**
+	 * Maps the dictionary file at the given path.
+	 */
+	public static ArticleDictionary open(Path file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if(channel.size() < HEADER_LENGTH)
+				throw new IOException("Not an article dictionary file");
+			ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+			if(mapped.getInt(0) != MAGIC)
+				throw new IOException("Not an article dictionary file");
+			int version = mapped.getInt(4);
+			if(version != VERSION)
+				throw new IOException("Unsupported article dictionary version " + version);
+			int count = mapped.getInt(8);
+			int dataLength = mapped.getInt(12);
+			long fingerprint = mapped.getLong(16);
+			
+			int blockCount = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			long blocksLength = (blockCount + 1) * 4L;
+			if(count < 0 || dataLength < 0 || channel.size() != HEADER_LENGTH + blocksLength + dataLength)
+				throw new IOException("Article dictionary file has the wrong size");
+			
+			ByteBuffer blocks = slice(mapped, HEADER_LENGTH, (int) blocksLength);
+			ByteBuffer data = slice(mapped, HEADER_LENGTH + (int) blocksLength, dataLength);
+			return new ArticleDictionary(count, fingerprint, blocks, data);
+		}
+	}
+	
+	private static ByteBuffer slice(ByteBuffer buffer, int from, int length) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(from).limit(from + length);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	/**
+	 * Writes the dictionary to a file, which {@link #open(Path)} can map.
+	 */
+	public void write(Path file) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(data.limit()).putLong(fingerprint);
+		header.flip();
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			for(ByteBuffer buffer : new ByteBuffer[] {header, blocks.duplicate(), data.duplicate()}) {
+				while(buffer.hasRemaining())
+					channel.write(buffer);
+			}
+		}
+	}
+	
+	/**
+	 * Number of titles; IDs go from 0 to one below this.
+	 */
+	public int size() {
+		return count;
+	}
+	
+	/**
+	 * Hash of every title in order. Two dictionaries with the same fingerprint give the same IDs.
+	 */
+	public long getFingerprint() {
+		return fingerprint;
+	}
+	
+	/**
+	 * Title with the given ID.
+	 */
+	public String title(int id) {
+		if(id < 0 || id >= count)
+			throw new IndexOutOfBoundsException("No article with ID " + id);
+		Cursor cursor = new Cursor(id / BLOCK_SIZE);
+		for(int i = id % BLOCK_SIZE; i >= 0; i--)
+			cursor.next();
+		return new String(cursor.title, 0, cursor.length, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Returns the ID of a title, or -1 if there is none. The title is normalized first, and may be
+	 * given as it appears in an article URL.
+	 */
+	public int find(String title) {
+		//A section of the article
+		int fragment = title.indexOf('#');
+		if(fragment >= 0)
+			title = title.substring(0, fragment);
+		
+		int id = findExact(normalize(title).getBytes(StandardCharsets.UTF_8));
+		if(id < 0 && title.indexOf('%') >= 0)
+			id = findExact(normalize(fromUrlTitle(title)).getBytes(StandardCharsets.UTF_8));
+		return id;
+	}
+	
+	/**
+	 * Returns the ID of a title given as normalized UTF-8, or -1 if there is none.
+	 */
+	public int findExact(byte[] key) {
+		int blockCount = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		
+		//Last block whose first title is not after the key
+		int low = 0;
+		int high = blockCount - 1;
+		int block = -1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			int compare = compareFirst(mid, key);
+			if(compare == 0)
+				return mid * BLOCK_SIZE;
+			if(compare < 0) {
+				block = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		if(block < 0)
+			return -1;
+		
+		Cursor cursor = new Cursor(block);
+		cursor.next();
+		int end = Math.min(BLOCK_SIZE, count - block * BLOCK_SIZE);
+		for(int i = 1; i < end; i++) {
+			cursor.next();
+			int compare = Arrays.compareUnsigned(cursor.title, 0, cursor.length, key, 0, key.length);
+			if(compare == 0)
+				return block * BLOCK_SIZE + i;
+			if(compare > 0)
+				return -1;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Compares the first title of a block with the key in unsigned byte order, without copying it.
+	 */
+	private int compareFirst(int block, byte[] key) {
+		int position = blocks.getInt(block * 4);
+		int length = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = data.get(position++);
+			length |= (b & 0x7f) << shift;
+			shift += 7;
+		} while(b < 0);
+		
+		int common = Math.min(length, key.length);
+		for(int i = 0; i < common; i++) {
+			int compare = Byte.toUnsignedInt(data.get(position + i)) - Byte.toUnsignedInt(key[i]);
+			if(compare != 0)
+				return compare;
+		}
+		return length - key.length;
+	}
+	
+	/**
+	 * Decodes the titles of one block in order.
+	 */
+	private class Cursor {
+		private int position;
+		private byte[] title = new byte[64];
+		private int length;
+		private boolean first = true;
+		
+		Cursor(int block) {
+			position = blocks.getInt(block * 4);
+		}
+		
+		void next() {
+			int prefix = first ? 0 : readVarint();
+			int suffix = readVarint();
+			first = false;
+			if(prefix + suffix > title.length)
+				title = Arrays.copyOf(title, Math.max(title.length * 2, prefix + suffix));
+			for(int i = 0; i < suffix; i++)
+				title[prefix + i] = data.get(position + i);
+			position += suffix;
+			length = prefix + suffix;
+		}
+		
+		private int readVarint() {
+			int value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = data.get(position++);
+				value |= (b & 0x7f) << shift;
+				shift += 7;
+			} while(b < 0);
+			return value;
+		}
+	}
+	
+	/**
+	 * Normalizes a title the way Wikipedia does: underscores become spaces, surrounding whitespace
+	 * is removed and the first letter is capitalized.
+	 */
+	public static String normalize(String title) {
+		String normalized = title.replace('_', ' ').trim();
+		if(normalized.isEmpty())
+			return normalized;
+		int first = normalized.codePointAt(0);
+		int upper = Character.toUpperCase(first);
+		if(upper == first)
+			return normalized;
+		return new StringBuilder(normalized.length()).appendCodePoint(upper)
+				.append(normalized, Character.charCount(first), normalized.length()).toString();
+	}
+	
+	/**
+	 * Title as it appears in an article URL: spaces become underscores and the rest is percent
+	 * encoded the way Wikipedia does, leaving the punctuation it leaves readable.
+	 */
+	public static String toUrlTitle(String title) {
+		String encoded = URLEncoder.encode(title.replace(' ', '_'), StandardCharsets.UTF_8);
+		StringBuilder url = new StringBuilder(encoded.length());
+		for(int i = 0; i < encoded.length(); i++) {
+			char c = encoded.charAt(i);
+			//An escape is three characters, the last of which may end the title
+			if(c == '%' && i + 3 <= encoded.length()) {
+				char decoded = (char) Integer.parseInt(encoded.substring(i + 1, i + 3), 16);
+				if(URL_READABLE.indexOf(decoded) >= 0) {
+					url.append(decoded);
+					i += 2;
+					continue;
+				}
+			}
+			url.append(c);
+		}
+		return url.toString();
+	}
+	
+	/**
+	 * Decodes the percent escapes of a title taken from an article URL. Unlike URLDecoder, a '+' is
+	 * kept, since titles are not form encoded: "C++" is written as it is. Anything that is not a
+	 * valid escape is kept as it is too.
+	 */
+	public static String fromUrlTitle(String url) {
+		if(url.indexOf('%') < 0)
+			return url;
+		StringBuilder title = new StringBuilder(url.length());
+		//Bytes of consecutive escapes, decoded together since a character may take several
+		byte[] bytes = new byte[url.length() / 3];
+		int count = 0;
+		for(int i = 0; i < url.length(); i++) {
+			char c = url.charAt(i);
+			int high = c == '%' && i + 3 <= url.length() ? Character.digit(url.charAt(i + 1), 16) : -1;
+			int low = high >= 0 ? Character.digit(url.charAt(i + 2), 16) : -1;
+			if(low >= 0) {
+				bytes[count++] = (byte) (high << 4 | low);
+				i += 2;
+				continue;
+			}
+			if(count > 0) {
+				title.append(new String(bytes, 0, count, StandardCharsets.UTF_8));
+				count = 0;
+			}
+			title.append(c);
+		}
+		if(count > 0)
+			title.append(new String(bytes, 0, count, StandardCharsets.UTF_8));
+		return title.toString();
+	}
+	
+	@Override
+	public String toString() {
+		return "ArticleDictionary: " + count + " titles, " + (data.limit() + blocks.limit()) / 1024 + " KB, fingerprint "
+				+ String.format("%016x", fingerprint);
+	}
+	
+	/**
+	 * Builds a dictionary from titles added in order.
+	 */
+	public static class Builder {
+		private byte[] data = new byte[1 << 16];
+		private int dataLength;
+		private int[] blockStarts = new int[1 << 10];
+		private int count;
+		private byte[] previous = new byte[0];
+		/**
+		 * FNV-1a over every title and its length
+		 */
+		private long fingerprint = 0xcbf29ce484222325L;
+		
+		/**
+		 * Adds the next title. Titles must be normalized, and added in unsigned UTF-8 byte order
+		 * without duplicates; each gets the next ID.
+		 * 
+		 * @return The title's ID
+		 */
+		public int add(String title) {
+			return add(title.getBytes(StandardCharsets.UTF_8));
+		}
+		
+		public int add(byte[] title) {
+			if(count > 0 && Arrays.compareUnsigned(previous, title) >= 0)
+				throw new IllegalArgumentException("Titles must be added in order without duplicates: "
+						+ new String(title, StandardCharsets.UTF_8));
+			
+			ensure(title.length + 10);
+			if(count % BLOCK_SIZE == 0) {
+				if(count / BLOCK_SIZE == blockStarts.length)
+					blockStarts = Arrays.copyOf(blockStarts, blockStarts.length * 2);
+				blockStarts[count / BLOCK_SIZE] = dataLength;
+				writeVarint(title.length);
+				System.arraycopy(title, 0, data, dataLength, title.length);
+				dataLength += title.length;
+			} else {
+				int prefix = Arrays.mismatch(previous, title);
+				if(prefix < 0)
+					prefix = title.length;
+				writeVarint(prefix);
+				writeVarint(title.length - prefix);
+				System.arraycopy(title, prefix, data, dataLength, title.length - prefix);
+				dataLength += title.length - prefix;
+			}
+			
+			for(byte b : title)
+				fingerprint = (fingerprint ^ (b & 0xff)) * 0x100000001b3L;
+			fingerprint = (fingerprint ^ title.length) * 0x100000001b3L;
+			previous = title;
+			return count++;
+		}
+		
+		private void ensure(int length) {
+			if((long) dataLength + length > Integer.MAX_VALUE - 8)
+				throw new IllegalStateException("Article dictionary is over 2 GB");
+			if(dataLength + length > data.length)
+				data = Arrays.copyOf(data, (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) data.length * 2, dataLength + length)));
+		}
+		
+		private void writeVarint(int value) {
+			while((value & ~0x7f) != 0) {
+				data[dataLength++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			data[dataLength++] = (byte) value;
+		}
+		
+		public ArticleDictionary build() {
+			int blockCount = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			ByteBuffer blocks = ByteBuffer.allocate((blockCount + 1) * 4).order(ByteOrder.LITTLE_ENDIAN);
+			for(int i = 0; i < blockCount; i++)
+				blocks.putInt(blockStarts[i]);
+			blocks.putInt(dataLength);
+			blocks.flip();
+			ByteBuffer dataBuffer = ByteBuffer.wrap(Arrays.copyOf(data, dataLength)).order(ByteOrder.LITTLE_ENDIAN);
+			return new ArticleDictionary(count, fingerprint, blocks, dataBuffer);
+		}
+	}
+}
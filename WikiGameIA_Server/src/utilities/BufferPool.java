@@ -0,0 +1,112 @@
+package utilities;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct ByteBuffers bucketed into fixed size classes. Buffers are handed out cleared and
+ * should be given back with {@link #release(ByteBuffer)} once they are no longer in use, so the
+ * network loop does not allocate in steady state.
+ * 
+ * <p>Requests larger than the biggest size class are allocated directly and are not pooled.</p>
+ * 
+ * @author Michael
+ */
+public class BufferPool {
+	private static final int[] SIZE_CLASSES = {256, 1024, 4096, 16 * 1024, FrameCodec.LENGTH_PREFIX + FrameCodec.MAX_FRAME_LENGTH};
+	
+	private final ByteBuffer[][] free;
+	private final int[] freeCount;
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	
+	/**
+	 * @param maxPerClass Maximum number of idle buffers kept for each size class
+	 */
+	public BufferPool(int maxPerClass) {
+		free = new ByteBuffer[SIZE_CLASSES.length][maxPerClass];
+		freeCount = new int[SIZE_CLASSES.length];
+	}
+	
+	public BufferPool() {
+		this(256);
+	}
+	
+	/**
+	 * Returns a cleared direct buffer with a capacity of at least minCapacity.
+	 */
+	public ByteBuffer acquire(int minCapacity) {
+		int sizeClass = sizeClass(minCapacity);
+		if(sizeClass < 0) {
+			misses.incrementAndGet();
+			return ByteBuffer.allocateDirect(minCapacity);
+		}
+		
+		ByteBuffer[] bucket = free[sizeClass];
+		synchronized(bucket) {
+			if(freeCount[sizeClass] > 0) {
+				ByteBuffer buffer = bucket[--freeCount[sizeClass]];
+				bucket[freeCount[sizeClass]] = null;
+				hits.incrementAndGet();
+				buffer.clear();
+				return buffer;
+			}
+		}
+		misses.incrementAndGet();
+		return ByteBuffer.allocateDirect(SIZE_CLASSES[sizeClass]);
+	}
+	
+	/**
+	 * Gives a buffer back to the pool. Buffers that did not come from the pool, or that do not fit
+	 * in a full bucket, are left for the garbage collector.
+	 */
+	public void release(ByteBuffer buffer) {
+		if(buffer == null || !buffer.isDirect())
+			return;
+		
+		int sizeClass = sizeClass(buffer.capacity());
+		if(sizeClass < 0 || SIZE_CLASSES[sizeClass] != buffer.capacity())
+			return;
+		
+		ByteBuffer[] bucket = free[sizeClass];
+		synchronized(bucket) {
+			if(freeCount[sizeClass] < bucket.length)
+				bucket[freeCount[sizeClass]++] = buffer;
+		}
+	}
+	
+	/**
+	 * Index of the smallest size class that fits the capacity, or -1 if none does.
+	 */
+	private static int sizeClass(int capacity) {
+		for(int i = 0; i < SIZE_CLASSES.length; i++) {
+			if(capacity <= SIZE_CLASSES[i])
+				return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Number of acquires served from an idle pooled buffer.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * Number of acquires that had to allocate a new buffer.
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	@Override
+	public String toString() {
+		long h = hits.get();
+		long m = misses.get();
+		long total = h + m;
+		return "BufferPool hits: " + h + " misses: " + m
+				+ " hit rate: " + (total == 0 ? 0 : h * 100 / total) + "%";
+	}
+}
@@ -0,0 +1,139 @@
+package utilities;
+
+/**
+ * Open-addressing hash map from primitive int keys to objects. Keys are stored unboxed and probed
+ * linearly, so lookups do no allocation or object hashing. Removal shifts later entries back
+ * instead of leaving tombstones.
+ * 
+ * <p>Key 0 is reserved to mark empty slots and cannot be stored. Not thread safe.</p>
+ * 
+ * @author Michael
+ */
+public class IntHashMap<V> {
+	private int[] keys;
+	private Object[] values;
+	private int size;
+	private int mask;
+	
+	public IntHashMap() {
+		this(16);
+	}
+	
+	public IntHashMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(expectedSize * 2 - 1, 8)) << 1;
+		allocate(capacity);
+	}
+	
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+	}
+	
+	/**
+	 * Spreads the key bits so sequential IDs do not cluster.
+	 */
+	private int slot(int key) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		if(key == 0)
+			return null;
+		for(int i = slot(key); keys[i] != 0; i = (i + 1) & mask) {
+			if(keys[i] == key)
+				return (V) values[i];
+		}
+		return null;
+	}
+	
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+	
+	/**
+	 * Maps the key to the value, replacing any previous value.
+	 * 
+	 * @return The previous value, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if(key == 0)
+			throw new IllegalArgumentException("Key 0 is reserved");
+		if(value == null)
+			throw new IllegalArgumentException("Null values are not allowed");
+		
+		int i = slot(key);
+		for(; keys[i] != 0; i = (i + 1) & mask) {
+			if(keys[i] == key) {
+				V old = (V) values[i];
+				values[i] = value;
+				return old;
+			}
+		}
+		keys[i] = key;
+		values[i] = value;
+		if(++size > keys.length / 2)
+			resize(keys.length * 2);
+		return null;
+	}
+	
+	/**
+	 * Removes the mapping for the key.
+	 * 
+	 * @return The removed value, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		if(key == 0)
+			return null;
+		
+		int i = slot(key);
+		for(; keys[i] != key; i = (i + 1) & mask) {
+			if(keys[i] == 0)
+				return null;
+		}
+		V old = (V) values[i];
+		
+		//Shift back later entries of the probe chain into the gap
+		int gap = i;
+		for(int j = (gap + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+			int home = slot(keys[j]);
+			//Move the entry if its home slot is not between the gap and its current slot
+			if(((j - home) & mask) >= ((j - gap) & mask)) {
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				gap = j;
+			}
+		}
+		keys[gap] = 0;
+		values[gap] = null;
+		size--;
+		return old;
+	}
+	
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldKeys[i] == 0)
+				continue;
+			int j = slot(oldKeys[i]);
+			while(keys[j] != 0)
+				j = (j + 1) & mask;
+			keys[j] = oldKeys[i];
+			values[j] = oldValues[i];
+		}
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+}
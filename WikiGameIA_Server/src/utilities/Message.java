@@ -0,0 +1,89 @@
+package utilities;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A single decoded protocol message: one opcode character followed by zero or more fields.
+ * Fields are kept as raw UTF-8 bytes and only turned into Strings when asked for.
+ * 
+ * @author Michael
+ */
+public class Message {
+	private final char opcode;
+	private final byte[][] fields;
+	
+	/**
+	 * Creates an outbound message from string fields.
+	 */
+	public Message(char opcode, String... fields) {
+		this.opcode = opcode;
+		this.fields = new byte[fields.length][];
+		for(int i = 0; i < fields.length; i++)
+			this.fields[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Creates an outbound message whose fields are ints, each sent as 4 bytes (big-endian), such as
+	 * article IDs.
+	 */
+	public static Message ofInts(char opcode, int... fields) {
+		byte[][] encoded = new byte[fields.length][];
+		for(int i = 0; i < fields.length; i++) {
+			int value = fields[i];
+			encoded[i] = new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+		}
+		return new Message(opcode, encoded);
+	}
+	
+	/**
+	 * Creates a message from already-encoded fields. Used by the frame decoder.
+	 */
+	Message(char opcode, byte[][] fields) {
+		this.opcode = opcode;
+		this.fields = fields;
+	}
+	
+	public char getOpcode() {
+		return opcode;
+	}
+	
+	public int fieldCount() {
+		return fields.length;
+	}
+	
+	/**
+	 * Returns the given field decoded as a UTF-8 string, or an empty string if the field does not exist.
+	 */
+	public String getField(int index) {
+		if(index >= fields.length)
+			return "";
+		return new String(fields[index], StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Returns the given field read as a 4-byte int, see {@link #ofInts(char, int...)}, or -1 if the
+	 * field does not exist or is not 4 bytes long.
+	 */
+	public int getIntField(int index) {
+		if(index >= fields.length || fields[index].length != 4)
+			return -1;
+		byte[] field = fields[index];
+		return (field[0] & 0xff) << 24 | (field[1] & 0xff) << 16 | (field[2] & 0xff) << 8 | (field[3] & 0xff);
+	}
+	
+	byte[] getRawField(int index) {
+		return fields[index];
+	}
+	
+	/**
+	 * Legacy text form of the message, ex. "S|start|target". Only used for logging.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(opcode);
+		for(int i = 0; i < fields.length; i++)
+			sb.append('|').append(getField(i));
+		return sb.toString();
+	}
+}
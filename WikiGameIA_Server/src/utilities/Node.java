@@ -1,11 +1,11 @@
 package utilities;
 
-public class Node {
-	public String value;
-	public Node next;
+public class Node<E> {
+	public E value;
+	public Node<E> next;
 	
-	Node(String value, Node next){
+	Node(E value, Node<E> next){
 		this.value = value;
 		this.next = next;
 	}
-}
\ No newline at end of file
+}
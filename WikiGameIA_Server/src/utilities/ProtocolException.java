@@ -0,0 +1,17 @@
+package utilities;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a peer sends bytes that cannot be decoded into a valid frame. The connection
+ * should be closed, since the stream can no longer be resynchronized.
+ * 
+ * @author Michael
+ */
+public class ProtocolException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	public ProtocolException(String message) {
+		super(message);
+	}
+}
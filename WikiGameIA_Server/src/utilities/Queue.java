@@ -5,37 +5,37 @@ package utilities;
  * 
  * @author Michael
  */
-public class Queue {
+public class Queue<E> {
 
-	Node head;
-	Node tail;
+	Node<E> head;
+	Node<E> tail;
 	
 	public Queue() {
 	}
 	
-	public Queue(String s) {
-		head = new Node(s, null);
+	public Queue(E s) {
+		head = new Node<>(s, null);
 		tail = head;
 	}
 	
-	public void push(String s) {
+	public void push(E s) {
 		if(isEmpty()) {
-			head = new Node(s, null);
+			head = new Node<>(s, null);
 			tail = head;
 			return;
 		}
 		
-		tail.next = new Node(s, null);
+		tail.next = new Node<>(s, null);
 		tail = tail.next;
 	}
 	
-	public String pop() {
-		String val = head.value;
+	public E pop() {
+		E val = head.value;
 		head = head.next;
 		return val;
 	}
 	
-	public String peek() {
+	public E peek() {
 		return head.value;
 	}
 	
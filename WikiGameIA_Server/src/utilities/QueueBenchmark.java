@@ -0,0 +1,209 @@
+package utilities;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Microbenchmark of the outbound queues. Each case is warmed up before it is measured, and the
+ * best of the measured rounds is reported.
+ * 
+ * <pre>single thread -> offer/poll in bursts of 64 on one thread, with bytes allocated per message<br>
+ * producers     -> 1 to 8 threads offering to one consumer thread</pre>
+ * 
+ * The plain linked Queue is only measured single threaded, since it is not safe to share; under
+ * contention it is guarded with a lock instead. Producers and the consumer park briefly when the
+ * queue is full or empty, so the results are also meaningful on a single core.
+ * 
+ * <pre>Usage: QueueBenchmark [messages per round] [rounds]</pre>
+ * 
+ * @author Michael
+ */
+public class QueueBenchmark {
+	private static final int BURST = 64;
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int[] PRODUCERS = {1, 2, 4, 8};
+	
+	private static final Object MESSAGE = new Object();
+	
+	private int messages = 10_000_000;
+	private int rounds = 5;
+	
+	/**
+	 * Queue operations under test. Implementations offer only fail when a bounded queue is full.
+	 */
+	private abstract static class Target {
+		final String name;
+		
+		Target(String name) {
+			this.name = name;
+		}
+		
+		abstract boolean offer(Object o);
+		
+		abstract Object poll();
+	}
+	
+	public static void main(String[] args) throws Exception {
+		QueueBenchmark benchmark = new QueueBenchmark();
+		if(args.length > 0)
+			benchmark.messages = Integer.parseInt(args[0]);
+		if(args.length > 1)
+			benchmark.rounds = Integer.parseInt(args[1]);
+		
+		System.out.println(benchmark.messages + " messages per round, best of " + benchmark.rounds + " rounds");
+		
+		System.out.println();
+		System.out.println("Single thread              Mmsg/s   bytes/msg");
+		benchmark.singleThread(linkedQueue());
+		benchmark.singleThread(mpscQueue());
+		benchmark.singleThread(concurrentQueue());
+		
+		for(int producers : PRODUCERS) {
+			System.out.println();
+			System.out.println(producers + " producer(s), 1 consumer   Mmsg/s");
+			benchmark.contended(synchronizedQueue(), producers);
+			benchmark.contended(mpscQueue(), producers);
+			benchmark.contended(concurrentQueue(), producers);
+		}
+	}
+	
+	private static Target linkedQueue() {
+		Queue<Object> queue = new Queue<>();
+		return new Target("Queue") {
+			boolean offer(Object o) {
+				queue.push(o);
+				return true;
+			}
+			
+			Object poll() {
+				return queue.isEmpty() ? null : queue.pop();
+			}
+		};
+	}
+	
+	private static Target synchronizedQueue() {
+		Queue<Object> queue = new Queue<>();
+		return new Target("synchronized Queue") {
+			boolean offer(Object o) {
+				synchronized(queue) {
+					queue.push(o);
+				}
+				return true;
+			}
+			
+			Object poll() {
+				synchronized(queue) {
+					return queue.isEmpty() ? null : queue.pop();
+				}
+			}
+		};
+	}
+	
+	private static Target mpscQueue() {
+		MpscArrayQueue<Object> queue = new MpscArrayQueue<>(1024);
+		return new Target("MpscArrayQueue") {
+			boolean offer(Object o) {
+				return queue.offer(o);
+			}
+			
+			Object poll() {
+				return queue.poll();
+			}
+		};
+	}
+	
+	private static Target concurrentQueue() {
+		ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<>();
+		return new Target("ConcurrentLinkedQueue") {
+			boolean offer(Object o) {
+				return queue.offer(o);
+			}
+			
+			Object poll() {
+				return queue.poll();
+			}
+		};
+	}
+	
+	private void singleThread(Target target) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		
+		long best = Long.MAX_VALUE;
+		long allocated = 0;
+		for(int round = 0; round < WARMUP_ROUNDS + rounds; round++) {
+			long bytes = threads.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			for(int i = 0; i < messages; i += BURST) {
+				for(int j = 0; j < BURST; j++)
+					target.offer(MESSAGE);
+				for(int j = 0; j < BURST; j++)
+					target.poll();
+			}
+			long time = System.nanoTime() - start;
+			bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+			
+			if(round >= WARMUP_ROUNDS && time < best) {
+				best = time;
+				allocated = bytes;
+			}
+		}
+		System.out.printf("  %-24s %7.1f %11.1f%n", target.name, messages * 1000.0 / best, (double) allocated / messages);
+	}
+	
+	private void contended(Target target, int producers) throws InterruptedException {
+		long best = Long.MAX_VALUE;
+		for(int round = 0; round < WARMUP_ROUNDS + rounds; round++) {
+			long time = contendedRound(target, producers);
+			if(round >= WARMUP_ROUNDS)
+				best = Math.min(best, time);
+		}
+		System.out.printf("  %-24s %7.1f%n", target.name, messages * 1000.0 / best);
+	}
+	
+	/**
+	 * Runs the producers against one consumer on the calling thread until every message is taken.
+	 * 
+	 * @return Nanoseconds from the start signal until the last message is polled
+	 */
+	private long contendedRound(Target target, int producers) throws InterruptedException {
+		int perProducer = messages / producers;
+		int total = perProducer * producers;
+		CountDownLatch ready = new CountDownLatch(producers);
+		CountDownLatch go = new CountDownLatch(1);
+		
+		Thread[] threads = new Thread[producers];
+		for(int p = 0; p < producers; p++) {
+			threads[p] = new Thread(() -> {
+				ready.countDown();
+				try {
+					go.await();
+				} catch(InterruptedException e) {
+					return;
+				}
+				for(int i = 0; i < perProducer; i++) {
+					while(!target.offer(MESSAGE))
+						LockSupport.parkNanos(1);
+				}
+			});
+			threads[p].start();
+		}
+		
+		ready.await();
+		long start = System.nanoTime();
+		go.countDown();
+		for(int taken = 0; taken < total;) {
+			if(target.poll() != null)
+				taken++;
+			else
+				Thread.onSpinWait();
+		}
+		long time = System.nanoTime() - start;
+		
+		for(Thread thread : threads)
+			thread.join();
+		return time;
+	}
+}
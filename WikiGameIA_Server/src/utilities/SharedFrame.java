@@ -0,0 +1,80 @@
+package utilities;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An encoded frame that is shared between every connection it is sent to. The message is
+ * serialized once into a pooled buffer and each recipient writes from its own read-only view,
+ * so broadcasting to n users costs one encode instead of n.
+ * 
+ * <p>The frame is reference counted. Whoever creates it holds one reference, every queue it is
+ * added to should {@link #retain()} it, and every holder must {@link #release()} it when done.
+ * The buffer goes back to the pool when the last reference is released.</p>
+ * 
+ * @author Michael
+ */
+public class SharedFrame {
+	private final ByteBuffer data;
+	private final BufferPool pool;
+	private final Message message;
+	private final AtomicInteger refCount = new AtomicInteger(1);
+	
+	private SharedFrame(ByteBuffer data, BufferPool pool, Message message) {
+		this.data = data;
+		this.pool = pool;
+		this.message = message;
+	}
+	
+	/**
+	 * Encodes the message into a pooled buffer. The returned frame has a reference count of one.
+	 * 
+	 * @throws IllegalArgumentException If the message cannot be sent as a frame
+	 */
+	public static SharedFrame encode(Message message, BufferPool pool) {
+		ByteBuffer buffer = pool.acquire(FrameCodec.frameLength(message));
+		try {
+			FrameCodec.encode(message, buffer);
+		} catch(IllegalArgumentException e) {
+			pool.release(buffer);
+			throw e;
+		}
+		buffer.flip();
+		return new SharedFrame(buffer, pool, message);
+	}
+	
+	public SharedFrame retain() {
+		if(refCount.getAndIncrement() <= 0)
+			throw new IllegalStateException("Frame already released");
+		return this;
+	}
+	
+	public void release() {
+		int count = refCount.decrementAndGet();
+		if(count == 0)
+			pool.release(data);
+		else if(count < 0)
+			throw new IllegalStateException("Frame released too many times");
+	}
+	
+	/**
+	 * Returns an independent read-only view of the encoded bytes, positioned at the start of the frame.
+	 */
+	public ByteBuffer view() {
+		return data.asReadOnlyBuffer();
+	}
+	
+	/**
+	 * The message this frame was encoded from.
+	 */
+	public Message getMessage() {
+		return message;
+	}
+	
+	/**
+	 * Encoded length of the frame in bytes.
+	 */
+	public int length() {
+		return data.limit();
+	}
+}